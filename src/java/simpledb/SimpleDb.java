@@ -41,6 +41,10 @@ public class SimpleDb {
                                 ts[index++] = Type.INT_TYPE;
                             else if (s.equalsIgnoreCase("string"))
                                 ts[index++] = Type.STRING_TYPE;
+                            else if (s.equalsIgnoreCase("varchar"))
+                                ts[index++] = Type.VARCHAR_TYPE;
+                            else if (s.equalsIgnoreCase("dict"))
+                                ts[index++] = Type.DICT_TYPE;
                             else {
                                 System.err.println("Unknown type " + s);
                                 return;
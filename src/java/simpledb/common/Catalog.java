@@ -1,8 +1,10 @@
 package simpledb.common;
 
 import simpledb.common.Type;
+import simpledb.storage.CompressedHeapFile;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.PaxFile;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
@@ -196,6 +198,10 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().equalsIgnoreCase("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().equalsIgnoreCase("varchar"))
+                        types.add(Type.VARCHAR_TYPE);
+                    else if (els2[1].trim().equalsIgnoreCase("dict"))
+                        types.add(Type.DICT_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -212,7 +218,21 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                //括号后面可以指定存储格式：heap（默认）、pax或compressed
+                String format = line.substring(line.indexOf(")") + 1).trim();
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if (format.isEmpty() || format.equalsIgnoreCase("heap"))
+                    tabHf = new HeapFile(dataFile, t);
+                else if (format.equalsIgnoreCase("pax"))
+                    tabHf = new PaxFile(dataFile, t);
+                else if (format.equalsIgnoreCase("compressed"))
+                    tabHf = new CompressedHeapFile(dataFile, t);
+                else {
+                    System.out.println("Unknown storage format " + format);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -2,6 +2,7 @@ package simpledb.common;
 
 import simpledb.storage.BufferPool;
 import simpledb.storage.LogFile;
+import simpledb.storage.ReplacementPolicy;
 
 import java.io.*;
 import java.util.concurrent.atomic.AtomicReference;
@@ -58,11 +59,27 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, BufferPool.DEFAULT_PARTITIONS);
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * split into the given number of partitions and return it
+     */
+    public static BufferPool resetBufferPool(int pages, int partitions) {
+        return resetBufferPool(pages, partitions, BufferPool.DEFAULT_POLICY);
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with the given partitions and replacement policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, int partitions, ReplacementPolicy.Kind policy) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), new BufferPool(pages, partitions, policy));
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
@@ -6,6 +6,7 @@ import simpledb.storage.IntField;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -28,6 +29,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -46,6 +52,64 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            int strLen = buf.getInt(offset);
+            byte[] bs = new byte[strLen];
+            for (int i = 0; i < strLen; i++) {
+                bs[i] = buf.get(offset + 4 + i);
+            }
+            return new StringField(new String(bs), STRING_LEN);
+        }
+    }, VARCHAR_TYPE() {
+        // 格式和STRING_TYPE相同，只是在slotted页上只存实际长度，不补0
+
+        @Override
+        public int getLen() {
+            return STRING_LEN+4;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            return asVarchar(STRING_TYPE.parse(dis));
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return asVarchar(STRING_TYPE.parse(buf, offset));
+        }
+
+        private Field asVarchar(Field f) {
+            return new StringField(((StringField) f).getValue(), STRING_LEN, VARCHAR_TYPE);
+        }
+
+        @Override
+        public boolean isVariableLength() {
+            return true;
+        }
+
+        @Override
+        public int getStoredLen(ByteBuffer buf, int offset) {
+            return 4 + buf.getInt(offset);
+        }
+    }, DICT_TYPE() {
+        // 页上只存字典中的编码，由表的HeapPage用表的字典解码
+
+        @Override
+        public int getLen() {
+            return 4;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) {
+            throw new UnsupportedOperationException("dictionary codes are decoded by the pages of their HeapFile");
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            throw new UnsupportedOperationException("dictionary codes are decoded by the pages of their HeapFile");
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -64,4 +128,29 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object whose contents are
+   *   the getLen() bytes of buf at offset, in the format written by
+   *   {@link Field#serialize}. Doesn't move the position of buf.
+   */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
+  /**
+   * @return true if pages that store records of variable length keep only
+   *   the bytes a field of this type actually uses, see
+   *   {@link #getStoredLen}. getLen() is then the maximum length.
+   */
+    public boolean isVariableLength() {
+        return false;
+    }
+
+  /**
+   * @return the number of bytes the field at offset in buf takes in a
+   *   variable-length record: a prefix of the getLen() bytes written by
+   *   {@link Field#serialize} that {@link #parse(ByteBuffer, int)} can read.
+   */
+    public int getStoredLen(ByteBuffer buf, int offset) {
+        return getLen();
+    }
+
 }
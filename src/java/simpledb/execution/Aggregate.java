@@ -56,6 +56,8 @@ public class Aggregate extends Operator {
                 aggregator = new IntegerAggregator(gfield,gbType,afield,aop);
                 break;
             case STRING_TYPE:
+            case VARCHAR_TYPE:
+            case DICT_TYPE:
                 aggregator = new StringAggregator(gfield,gbType,afield,aop);
                 break;
             default:
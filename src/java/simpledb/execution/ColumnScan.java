@@ -0,0 +1,135 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.PaxFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.NoSuchElementException;
+
+/**
+ * ColumnScan is a sequential scan that returns only some columns of a table,
+ * and optionally only the tuples that satisfy a predicate: the fields a
+ * {@link Project} above it outputs and the field a {@link Filter} would
+ * test. On a {@link PaxFile} only those columns are decoded from the pages.
+ * On other tables the scan reads whole tuples and narrows them.
+ * <p>
+ * The returned tuples hold the requested columns in the requested order;
+ * their field names are prefixed with the table alias like {@link SeqScan}'s.
+ */
+public class ColumnScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final String tableAlias;
+    private final int[] columns;
+    private final Predicate predicate;
+    private final TupleDesc td;
+    private transient DbFileIterator iterator;
+    // 底层迭代器返回整行时要自己裁剪；不支持谓词下推时还要自己过滤
+    private transient boolean narrow;
+    private transient boolean filterHere;
+    private transient Tuple lookahead;
+
+    /**
+     * @param tid the transaction this scan is running as a part of
+     * @param tableid the table to scan
+     * @param tableAlias the alias of this table, see {@link SeqScan}
+     * @param columns the table's fields to return, in this order
+     * @param predicate if not null, only tuples that satisfy it are returned;
+     *        its field is a field of the table, not of the returned tuples
+     */
+    public ColumnScan(TransactionId tid, int tableid, String tableAlias, int[] columns, Predicate predicate) {
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias == null ? "null" : tableAlias;
+        this.columns = columns.clone();
+        this.predicate = predicate;
+        TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableid);
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int k = 0; k < columns.length; k++) {
+            types[k] = tableTd.getFieldType(columns[k]);
+            names[k] = this.tableAlias + "." + tableTd.getFieldName(columns[k]);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        narrow = !(file instanceof PaxFile);
+        filterHere = false;
+        if (file instanceof PaxFile) {
+            iterator = ((PaxFile) file).iterator(tid, columns, predicate);
+        } else if (file instanceof HeapFile && predicate != null) {
+            iterator = ((HeapFile) file).iterator(tid, predicate);
+        } else {
+            iterator = file.iterator(tid);
+            filterHere = predicate != null;
+        }
+        lookahead = null;
+        iterator.open();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        while (lookahead == null) {
+            if (iterator == null || !iterator.hasNext()) {
+                return false;
+            }
+            Tuple t = iterator.next();
+            if (filterHere && !predicate.filter(t)) {
+                continue;
+            }
+            lookahead = narrow ? project(t) : t;
+        }
+        return true;
+    }
+
+    /** Keep the requested fields of a whole tuple. */
+    private Tuple project(Tuple t) {
+        Tuple out = new Tuple(td);
+        for (int k = 0; k < columns.length; k++) {
+            out.setField(k, t.getField(columns[k]));
+        }
+        out.setRecordId(t.getRecordId());
+        return out;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = lookahead;
+        lookahead = null;
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        iterator.rewind();
+        lookahead = null;
+    }
+
+    public void close() {
+        if (iterator != null) {
+            iterator.close();
+        }
+        lookahead = null;
+    }
+}
@@ -11,6 +11,8 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Inserts tuples read from the child operator into the tableId specified in the
@@ -20,6 +22,9 @@ public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Number of tuples read from the child and handed to the buffer pool together. */
+    static final int BATCH_SIZE = 4096;
+
     private final TransactionId tid;
 
     private OpIterator child;
@@ -92,13 +97,19 @@ public class Insert extends Operator {
         Tuple t = new Tuple(this.td);
         int cnt = 0;
         BufferPool bufferPool = Database.getBufferPool();
+        //攒一批再插入，页按批填满，每页只加一次锁
+        List<Tuple> batch = new ArrayList<>(BATCH_SIZE);
         while (child.hasNext()) {
-            try {
-                bufferPool.insertTuple(tid, this.tableID, child.next());
-            } catch (IOException e) {
-                throw new DbException("fail to insert tuple");
+            batch.add(child.next());
+            if (batch.size() == BATCH_SIZE || !child.hasNext()) {
+                try {
+                    bufferPool.insertTuples(tid, this.tableID, batch.iterator());
+                } catch (IOException e) {
+                    throw new DbException("fail to insert tuple");
+                }
+                cnt += batch.size();
+                batch.clear();
             }
-            cnt++;
         }
 
         t.setField(0, new IntField(cnt));
@@ -65,18 +65,18 @@ public class JoinPredicate implements Serializable {
     public int getField1()
     {
         // some code goes here
-        return -1;
+        return fieldNum1;
     }
     
     public int getField2()
     {
         // some code goes here
-        return -1;
+        return fieldNum2;
     }
     
     public Predicate.Op getOperator()
     {
         // some code goes here
-        return null;
+        return op;
     }
 }
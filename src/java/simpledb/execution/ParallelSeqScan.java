@@ -0,0 +1,278 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ParallelSeqScan reads every tuple of a {@link HeapFile}, like
+ * {@link SeqScan}, with several workers. The file is cut into morsels of
+ * consecutive pages; each worker takes the next morsel that nobody has
+ * scanned yet, reads its pages through {@link BufferPool#pinPage} under the
+ * scan's transaction, so the usual shared locks are taken, and hands the
+ * tuples of each page to the operator above through a bounded queue. The
+ * queue holds a few pages per worker, so workers wait when the consumer
+ * falls behind instead of buffering the table.
+ * <p>
+ * Tuples come out in no particular order. An optional predicate is checked
+ * by the workers on the pages, so a selective {@link Filter} can be pushed
+ * down to run in parallel.
+ */
+public class ParallelSeqScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of consecutive pages a worker scans at a time. */
+    public static final int DEFAULT_MORSEL_PAGES = 16;
+
+    /** Pages of tuples queued per worker before the workers wait. */
+    private static final int QUEUED_PAGES_PER_WORKER = 4;
+
+    // 工作线程共用一个池，线程都是daemon
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    // 工作线程扫完后放进队列的结束标记
+    private static final List<Tuple> END = new ArrayList<>(0);
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final String tableAlias;
+    private final int parallelism;
+    private final int morselPages;
+    private final Predicate predicate;
+
+    private transient BlockingQueue<List<Tuple>> queue;
+    private transient AtomicInteger nextMorsel;
+    private transient AtomicReference<Throwable> failure;
+    private transient CountDownLatch done;
+    private transient volatile boolean closed;
+    private transient int numPages;
+    private transient int finished;
+    private transient Iterator<Tuple> current;
+
+    /**
+     * Creates a parallel scan with one worker per core.
+     *
+     * @param tid the transaction this scan is running as a part of
+     * @param tableid the table to scan; must be a HeapFile
+     * @param tableAlias the alias of this table, see {@link SeqScan}
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    /**
+     * Creates a parallel scan.
+     *
+     * @param tid the transaction this scan is running as a part of
+     * @param tableid the table to scan; must be a HeapFile
+     * @param tableAlias the alias of this table, see {@link SeqScan}
+     * @param parallelism the number of workers
+     * @param predicate if not null, only tuples that satisfy it are returned
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, int parallelism,
+            Predicate predicate) {
+        this(tid, tableid, tableAlias, parallelism, predicate, DEFAULT_MORSEL_PAGES);
+    }
+
+    /**
+     * Creates a parallel scan with the given morsel size.
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, int parallelism,
+            Predicate predicate, int morselPages) {
+        if (parallelism < 1 || morselPages < 1) {
+            throw new IllegalArgumentException("parallelism and morsel size must be positive");
+        }
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias == null ? "null" : tableAlias;
+        this.parallelism = parallelism;
+        this.morselPages = morselPages;
+        this.predicate = predicate;
+    }
+
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableId);
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof HeapFile)) {
+            throw new DbException("parallel scan needs a HeapFile, table " + tableId + " is not one");
+        }
+        //工作线程用同一个事务读页，表级S锁覆盖所有页
+        Database.getBufferPool().lockTable(tid, tableId, Permissions.READ_ONLY);
+        numPages = ((HeapFile) file).numPages();
+        queue = new ArrayBlockingQueue<>(parallelism * QUEUED_PAGES_PER_WORKER);
+        nextMorsel = new AtomicInteger();
+        failure = new AtomicReference<>();
+        done = new CountDownLatch(parallelism);
+        closed = false;
+        finished = 0;
+        current = null;
+        for (int i = 0; i < parallelism; i++) {
+            POOL.execute(this::scanMorsels);
+        }
+    }
+
+    /**
+     * Body of a worker: take morsels until none are left, then put END.
+     */
+    private void scanMorsels() {
+        BufferPool pool = Database.getBufferPool();
+        try {
+            int morsel;
+            while (!closed && (long) (morsel = nextMorsel.getAndIncrement()) * morselPages < numPages) {
+                int end = Math.min(numPages, (morsel + 1) * morselPages);
+                for (int i = morsel * morselPages; i < end && !closed; i++) {
+                    HeapPageId pid = new HeapPageId(tableId, i);
+                    List<Tuple> batch = new ArrayList<>();
+                    //解码期间钉住页，防止被换出
+                    HeapPage page = (HeapPage) pool.pinPage(tid, pid, Permissions.READ_ONLY);
+                    try {
+                        page.iterator(predicate).forEachRemaining(batch::add);
+                    } finally {
+                        pool.unpinPage(tid, pid);
+                    }
+                    if (!batch.isEmpty()) {
+                        put(batch);
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            put(END);
+            done.countDown();
+        }
+    }
+
+    /** Queue a batch, waiting for room unless the scan gets closed. */
+    private void put(List<Tuple> batch) {
+        try {
+            while (!closed && !queue.offer(batch, 10, TimeUnit.MILLISECONDS)) {
+                // 消费者还没取走，继续等
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the TupleDesc with field names prefixed with the table alias,
+     * like {@link SeqScan#getTupleDesc}.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc oldDesc = Database.getCatalog().getTupleDesc(this.tableId);
+        String[] names = new String[oldDesc.numFields()];
+        Type[] types = new Type[oldDesc.numFields()];
+        for (int i = 0; i < oldDesc.numFields(); i++) {
+            names[i] = this.tableAlias + "." + oldDesc.getFieldName(i);
+            types[i] = oldDesc.getFieldType(i);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (queue == null || closed) {
+            return false;
+        }
+        while (current == null || !current.hasNext()) {
+            if (finished == parallelism) {
+                return false;
+            }
+            List<Tuple> batch;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for the scan workers");
+            }
+            if (batch == END) {
+                finished++;
+                rethrow();
+                continue;
+            }
+            current = batch.iterator();
+        }
+        return true;
+    }
+
+    /** Stop the scan and throw what a worker failed with, if anything. */
+    private void rethrow() throws DbException, TransactionAbortedException {
+        Throwable e = failure.get();
+        if (e == null) {
+            return;
+        }
+        close();
+        if (e instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) e;
+        }
+        if (e instanceof DbException) {
+            throw (DbException) e;
+        }
+        throw new DbException("parallel scan failed: " + e);
+    }
+
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    /**
+     * Stop the workers and wait for them, so no page is read on behalf of
+     * the transaction once the scan is closed.
+     */
+    public void close() {
+        if (queue == null || closed) {
+            return;
+        }
+        closed = true;
+        queue.clear();
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        queue.clear();
+        current = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+}
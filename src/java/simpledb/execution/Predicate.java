@@ -1,6 +1,9 @@
 package simpledb.execution;
 
+import simpledb.storage.DictField;
+import simpledb.storage.Dictionary;
 import simpledb.storage.Field;
+import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 
 import java.io.Serializable;
@@ -26,6 +29,19 @@ public class Predicate implements Serializable {
      */
     private final Field operand;
 
+    // 比较的列是字典编码的：operand换成该字典中的字段，相等比较只比较编码
+    private transient volatile Encoded encoded;
+
+    private static final class Encoded {
+        final Dictionary dictionary;
+        final Field operand;
+
+        Encoded(Dictionary dictionary, Field operand) {
+            this.dictionary = dictionary;
+            this.operand = operand;
+        }
+    }
+
     /** Constants used for return codes in Field.compare */
     public enum Op implements Serializable {
         EQUALS, GREATER_THAN, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN_OR_EQ, LIKE, NOT_EQUALS;
@@ -84,7 +100,7 @@ public class Predicate implements Serializable {
     public int getField()
     {
         // some code goes here
-        return -1;
+        return fieldNum;
     }
 
     /**
@@ -93,7 +109,7 @@ public class Predicate implements Serializable {
     public Op getOp()
     {
         // some code goes here
-        return null;
+        return op;
     }
     
     /**
@@ -102,7 +118,7 @@ public class Predicate implements Serializable {
     public Field getOperand()
     {
         // some code goes here
-        return null;
+        return operand;
     }
     
     /**
@@ -117,8 +133,30 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
-        boolean res = t.getField(this.fieldNum).compare(op, this.operand);
-        return res;
+        return filter(t.getField(this.fieldNum));
+    }
+
+    /**
+     * Compares a value of the field specified in the constructor to the
+     * operand. If the value is a {@link DictField} and the operator is
+     * EQUALS or NOT_EQUALS, the operand is looked up in its dictionary once
+     * and the codes are compared.
+     *
+     * @param f the value of the field
+     * @return true if the comparison is true, false otherwise.
+     */
+    public boolean filter(Field f) {
+        if (f instanceof DictField && (op == Op.EQUALS || op == Op.NOT_EQUALS)
+                && operand instanceof StringField) {
+            Dictionary dictionary = ((DictField) f).getDictionary();
+            Encoded e = encoded;
+            if (e == null || e.dictionary != dictionary) {
+                e = new Encoded(dictionary, dictionary.find(((StringField) operand).getValue()));
+                encoded = e;
+            }
+            return f.compare(op, e.operand);
+        }
+        return f.compare(op, this.operand);
     }
 
     /**
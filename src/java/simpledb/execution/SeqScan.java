@@ -1,6 +1,8 @@
 package simpledb.execution;
 
 import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.HeapFile;
 import simpledb.storage.DbFile;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
@@ -102,6 +104,10 @@ public class SeqScan implements OpIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
+        //顺序扫描会读遍整张表，一个表级S锁代替逐页加锁；B+树文件的扫描不一定读所有页，仍按页加锁
+        if (Database.getCatalog().getDatabaseFile(tableID) instanceof HeapFile) {
+            Database.getBufferPool().lockTable(transactionId, tableID, Permissions.READ_ONLY);
+        }
         this.iterator.open();
     }
 
@@ -32,6 +32,9 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private final int keyField;
+	private final PageChannel channel;
+	// 文件按extent增长，页号从1开始，根指针页不算
+	private final ExtentAllocator extents;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -46,6 +49,8 @@ public class BTreeFile implements DbFile {
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.channel = new PageChannel(f);
+		this.extents = new ExtentAllocator(f, channel, BTreeRootPtrPage.getPageSize());
 	}
 
 	/**
@@ -87,34 +92,13 @@ public class BTreeFile implements DbFile {
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
+        try {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-                byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BTreeRootPtrPage.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-                }
+                byte[] pageBuf = channel.read(0, BTreeRootPtrPage.getPageSize());
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
                 return new BTreeRootPtrPage(id, pageBuf);
             } else {
-                byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BufferPool.getPageSize() + " bytes from BTreeFile");
-                }
+                byte[] pageBuf = channel.read(pageOffset(id.getPageNumber()), BufferPool.getPageSize());
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
                 if (id.pgcateg() == BTreePageId.INTERNAL) {
                     return new BTreeInternalPage(id, pageBuf, keyField);
@@ -127,10 +111,90 @@ public class BTreeFile implements DbFile {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // Close the file on success or error
-        // Ignore failures closing the file
     }
 
+	/**
+	 * Read several pages from disk. Pages that are adjacent in the file are
+	 * read with a single call.
+	 *
+	 * @param ids - the ids of the pages to read
+	 * @return the pages, in the order of ids
+	 */
+	public List<Page> readPages(List<PageId> ids) {
+		List<BTreePageId> sorted = new ArrayList<>();
+		Map<PageId, Page> read = new HashMap<>();
+		for (PageId pid : ids) {
+			BTreePageId id = (BTreePageId) pid;
+			if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+				read.put(id, readPage(id));
+			} else {
+				sorted.add(id);
+			}
+		}
+		sorted.sort(Comparator.comparingInt(BTreePageId::getPageNumber));
+		long[] offsets = new long[sorted.size()];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = pageOffset(sorted.get(i).getPageNumber());
+		}
+		try {
+			byte[][] data = channel.readAll(offsets, BufferPool.getPageSize());
+			for (int i = 0; i < data.length; i++) {
+				BTreePageId id = sorted.get(i);
+				Page page;
+				if (id.pgcateg() == BTreePageId.INTERNAL) {
+					page = new BTreeInternalPage(id, data[i], keyField);
+				} else if (id.pgcateg() == BTreePageId.LEAF) {
+					page = new BTreeLeafPage(id, data[i], keyField);
+				} else { // id.pgcateg() == BTreePageId.HEADER
+					page = new BTreeHeaderPage(id, data[i]);
+				}
+				read.put(id, page);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		List<Page> pages = new ArrayList<>(ids.size());
+		for (PageId id : ids) {
+			pages.add(read.get(id));
+		}
+		return pages;
+	}
+
+	/**
+	 * Write several pages to disk. Pages that are adjacent in the file are
+	 * written with a single call.
+	 *
+	 * @param pages - the pages to write
+	 */
+	public void writePages(List<Page> pages) throws IOException {
+		List<Page> sorted = new ArrayList<>(pages);
+		// 根指针页在文件开头，排在所有页前面
+		sorted.sort(Comparator.comparingLong(p -> offsetOf((BTreePageId) p.getId())));
+		long[] offsets = new long[sorted.size()];
+		byte[][] data = new byte[sorted.size()][];
+		for (int i = 0; i < offsets.length; i++) {
+			BTreePageId id = (BTreePageId) sorted.get(i).getId();
+			if (id.pgcateg() != BTreePageId.ROOT_PTR) {
+				ensureAllocated(id.getPageNumber());
+			}
+			offsets[i] = offsetOf(id);
+			data[i] = sorted.get(i).getPageData();
+		}
+		channel.writeAll(offsets, data);
+	}
+
+	private static long offsetOf(BTreePageId id) {
+		return id.pgcateg() == BTreePageId.ROOT_PTR ? 0 : pageOffset(id.getPageNumber());
+	}
+
+	/**
+	 * Returns the offset of a non root pointer page in the file. Page numbers
+	 * start at 1, right after the root pointer page.
+	 */
+	private static long pageOffset(int pageNumber) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pageNumber - 1) * BufferPool.getPageSize();
+	}
+
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
 	 * be called from the BufferPool when pages are flushed to disk
@@ -141,15 +205,25 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 		
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+			channel.write(0, data);
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			ensureAllocated(id.getPageNumber());
+			channel.write(pageOffset(id.getPageNumber()), data);
+		}
+	}
+
+	/**
+	 * Count the pages up to pageNumber as pages of the file, for pages
+	 * written past the end, e.g. by BTreeFileEncoder.
+	 */
+	private void ensureAllocated(int pageNumber) throws IOException {
+		synchronized (extents) {
+			int used = extents.getUsedPages();
+			if (pageNumber > used) {
+				extents.allocate(pageNumber - used);
+			}
 		}
 	}
 	
@@ -157,8 +231,14 @@ public class BTreeFile implements DbFile {
 	 * Returns the number of pages in this BTreeFile.
 	 */
 	public int numPages() {
-		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		return extents.getUsedPages();
+	}
+
+	/**
+	 * Returns the allocator that grows this file, e.g. to set its extent size.
+	 */
+	public ExtentAllocator getExtentAllocator() {
+		return extents;
 	}
 
 	/**
@@ -1060,15 +1140,11 @@ public class BTreeFile implements DbFile {
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, Map<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
 		synchronized(this) {
-			if(f.length() == 0) {
+			if(extents.getUsedPages() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
-				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				int rootPageNo = extents.allocate(1) + 1;
+				channel.write(0, BTreeRootPtrPage.createEmptyPageData());
+				channel.write(pageOffset(rootPageNo), BTreeLeafPage.createEmptyPageData());
 			}
 		}
 
@@ -1123,13 +1199,8 @@ public class BTreeFile implements DbFile {
 		// or there are no free slots
 		if(headerId == null) {		
 			synchronized(this) {
-				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
-				emptyPageNo = numPages();
+				// take the next page of the file; it is empty on disk
+				emptyPageNo = extents.allocate(1) + 1;
 			}
 		}
 
@@ -1159,10 +1230,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		channel.write(pageOffset(emptyPageNo), BTreePage.createEmptyPageData());
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1283,6 +1351,16 @@ public class BTreeFile implements DbFile {
 		return new BTreeFileIterator(this, tid);
 	}
 
+	/**
+	 * Create the stream the iterators fetch leaf pages through. It keeps the
+	 * current leaf pinned, and with read-ahead on prefetches the leaves to
+	 * the right of the scan.
+	 */
+	static ReadAhead.Stream leafStream() {
+		return Database.getBufferPool().newReadAheadStream(
+				p -> p instanceof BTreeLeafPage ? ((BTreeLeafPage) p).getRightSiblingId() : null);
+	}
+
 }
 
 /**
@@ -1292,6 +1370,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	ReadAhead.Stream leaves = null;
 
 	final TransactionId tid;
 	final BTreeFile f;
@@ -1314,6 +1393,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
 		curp = f.findLeafPage(tid, root, null);
+		leaves = BTreeFile.leafStream();
+		// 通过leaves再取一次，把第一个叶子页pin住
+		curp = (BTreeLeafPage) leaves.fetch(tid, curp.getId(), Permissions.READ_ONLY);
 		it = curp.iterator();
 	}
 
@@ -1334,8 +1416,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 				curp = null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				curp = (BTreeLeafPage) leaves.fetch(tid, nextp, Permissions.READ_ONLY);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1362,6 +1443,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		super.close();
 		it = null;
 		curp = null;
+		if (leaves != null) {
+			leaves.close();
+		}
 	}
 }
 
@@ -1373,6 +1457,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	ReadAhead.Stream leaves = null;
 
 	final TransactionId tid;
 	final BTreeFile f;
@@ -1405,6 +1490,9 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		else {
 			curp = f.findLeafPage(tid, root, null);
 		}
+		leaves = BTreeFile.leafStream();
+		// 通过leaves再取一次，把第一个叶子页pin住
+		curp = (BTreeLeafPage) leaves.fetch(tid, curp.getId(), Permissions.READ_ONLY);
 		it = curp.iterator();
 	}
 
@@ -1443,8 +1531,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 				return null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				curp = (BTreeLeafPage) leaves.fetch(tid, nextp, Permissions.READ_ONLY);
 				it = curp.iterator();
 			}
 		}
@@ -1466,5 +1553,8 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
+		if (leaves != null) {
+			leaves.close();
+		}
 	}
 }
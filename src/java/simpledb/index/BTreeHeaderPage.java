@@ -78,6 +78,7 @@ public class BTreeHeaderPage implements Page {
 	 * Initially mark all slots in the header used.
 	 */
 	public void init() {
+		beforeWrite();
         Arrays.fill(header, (byte) 0xFF);
 	}
 
@@ -106,6 +107,9 @@ public class BTreeHeaderPage implements Page {
 			{
 				oldDataRef = oldData;
 			}
+			if (oldDataRef == null) {
+				oldDataRef = getPageData();
+			}
 			return new BTreeHeaderPage(pid,oldDataRef);
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -118,7 +122,20 @@ public class BTreeHeaderPage implements Page {
 	public void setBeforeImage() {
 		synchronized(oldDataLock)
 		{
-			oldData = getPageData().clone();
+			oldData = null;
+		}
+	}
+
+	/**
+	 * Save the before-image before the first change since the page was read
+	 * or last committed.
+	 */
+	private void beforeWrite() {
+		synchronized(oldDataLock)
+		{
+			if (oldData == null) {
+				oldData = getPageData();
+			}
 		}
 	}
 
@@ -220,6 +237,7 @@ public class BTreeHeaderPage implements Page {
 	 * @throws DbException
 	 */
 	public void setPrevPageId(BTreePageId id) throws DbException {
+		beforeWrite();
 		if(id == null) {
 			prevPage = 0;
 		}
@@ -240,6 +258,7 @@ public class BTreeHeaderPage implements Page {
 	 * @throws DbException
 	 */
 	public void setNextPageId(BTreePageId id) throws DbException {
+		beforeWrite();
 		if(id == null) {
 			nextPage = 0;
 		}
@@ -259,6 +278,7 @@ public class BTreeHeaderPage implements Page {
 	 * that did the dirtying
 	 */
 	public void markDirty(boolean dirty, TransactionId tid) {
+		if (dirty) beforeWrite();
 		this.dirty = dirty;
 		if (dirty) this.dirtier = tid;
 	}
@@ -286,6 +306,7 @@ public class BTreeHeaderPage implements Page {
 	 * Abstraction to mark a page of the BTreeFile used or unused
 	 */
 	public void markSlotUsed(int i, boolean value) {
+		beforeWrite();
 		int headerbit = i % 8;
 		int headerbyte = (i - headerbit) / 8;
 
@@ -149,6 +149,9 @@ public class BTreeInternalPage extends BTreePage {
 			{
 				oldDataRef = oldData;
 			}
+			if (oldDataRef == null) {
+				oldDataRef = getPageData();
+			}
 			return new BTreeInternalPage(pid,oldDataRef,keyField);
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -161,7 +164,7 @@ public class BTreeInternalPage extends BTreePage {
 	public void setBeforeImage() {
 		synchronized(oldDataLock)
 		{
-			oldData = getPageData().clone();
+			oldData = null;
 		}
 	}
 
@@ -381,6 +384,7 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param e The entry to delete
 	 */
 	public void deleteKeyAndRightChild(BTreeEntry e) throws DbException {
+		beforeWrite();
 		deleteEntry(e, true);
 	}
 	
@@ -394,6 +398,7 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param e The entry to delete
 	 */
 	public void deleteKeyAndLeftChild(BTreeEntry e) throws DbException {
+		beforeWrite();
 		deleteEntry(e, false);
 	}
 	
@@ -406,6 +411,7 @@ public class BTreeInternalPage extends BTreePage {
 	 *         order on the page
 	 */
 	public void updateEntry(BTreeEntry e) throws DbException {
+		beforeWrite();
 		RecordId rid = e.getRecordId();
 		if(rid == null)
 			throw new DbException("tried to update entry with null rid");
@@ -445,6 +451,7 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param e The entry to add.
 	 */
 	public void insertEntry(BTreeEntry e) throws DbException {
+		beforeWrite();
 		if (!e.getKey().getType().equals(td.getFieldType(keyField)))
 			throw new DbException("key field type mismatch, in insertEntry");
 
@@ -140,6 +140,9 @@ public class BTreeLeafPage extends BTreePage {
 			{
 				oldDataRef = oldData;
 			}
+			if (oldDataRef == null) {
+				oldDataRef = getPageData();
+			}
 			return new BTreeLeafPage(pid,oldDataRef,keyField);
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -152,7 +155,7 @@ public class BTreeLeafPage extends BTreePage {
 	public void setBeforeImage() {
 		synchronized(oldDataLock)
 		{
-			oldData = getPageData().clone();
+			oldData = null;
 		}
 	}
 
@@ -290,6 +293,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param t The tuple to delete
 	 */
 	public void deleteTuple(Tuple t) throws DbException {
+		beforeWrite();
 		RecordId rid = t.getRecordId();
 		if(rid == null)
 			throw new DbException("tried to delete tuple with null rid");
@@ -310,6 +314,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param t The tuple to add.
 	 */
 	public void insertTuple(Tuple t) throws DbException {
+		beforeWrite();
 		if (!t.getTupleDesc().equals(td))
 			throw new DbException("type mismatch, in addTuple");
 
@@ -403,6 +408,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * @throws DbException if the id is not valid
 	 */
 	public void setLeftSiblingId(BTreePageId id) throws DbException {
+		beforeWrite();
 		if(id == null) {
 			leftSibling = 0;
 		}
@@ -423,6 +429,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * @throws DbException if the id is not valid
 	 */
 	public void setRightSiblingId(BTreePageId id) throws DbException {
+		beforeWrite();
 		if(id == null) {
 			rightSibling = 0;
 		}
@@ -28,7 +28,7 @@ public abstract class BTreePage implements Page {
 	protected final int keyField;
 
 	protected int parent; // parent is always internal node or 0 for root node
-	protected byte[] oldData;
+	protected byte[] oldData; // 页第一次修改前的内容，没修改过时为null
 	protected final Byte oldDataLock= (byte) 0;
 
 	/**
@@ -98,6 +98,7 @@ public abstract class BTreePage implements Page {
 	 * @throws DbException if the id is not valid
 	 */
 	public void setParentId(BTreePageId id) throws DbException {
+		beforeWrite();
 		if(id == null) {
 			throw new DbException("parent id must not be null");
 		}
@@ -115,11 +116,27 @@ public abstract class BTreePage implements Page {
 		}
 	}
 
+	/**
+	 * Save the before-image, unless it is saved already, before the page is
+	 * changed for the first time since it was read or last committed. Until
+	 * then the page is its own before-image, so read-only pages never copy
+	 * their data.
+	 */
+	protected void beforeWrite() {
+		synchronized(oldDataLock)
+		{
+			if (oldData == null) {
+				oldData = getPageData();
+			}
+		}
+	}
+
 	/**
 	 * Marks this page as dirty/not dirty and record that transaction
 	 * that did the dirtying
 	 */
 	public void markDirty(boolean dirty, TransactionId tid) {
+		if (dirty) beforeWrite();
 		this.dirty = dirty;
 		if (dirty) this.dirtier = tid;
 	}
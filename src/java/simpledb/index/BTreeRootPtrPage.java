@@ -52,7 +52,17 @@ public class BTreeRootPtrPage implements Page {
 	}
 
 	public void setBeforeImage() {
-		oldData = getPageData().clone();
+		oldData = null;
+	}
+
+	/**
+	 * Save the before-image before the first change since the page was read
+	 * or last committed.
+	 */
+	private void beforeWrite() {
+		if (oldData == null) {
+			oldData = getPageData();
+		}
 	}
 
 	/**
@@ -129,6 +139,7 @@ public class BTreeRootPtrPage implements Page {
 	}
 
 	public void markDirty(boolean dirty, TransactionId tid){
+		if (dirty) beforeWrite();
 		this.dirty = dirty;
 		if (dirty) this.dirtier = tid;
 	}
@@ -144,7 +155,7 @@ public class BTreeRootPtrPage implements Page {
         -- used by recovery */
 	public BTreeRootPtrPage getBeforeImage(){
 		try {
-			return new BTreeRootPtrPage(pid,oldData);
+			return new BTreeRootPtrPage(pid,oldData != null ? oldData : getPageData());
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -170,6 +181,7 @@ public class BTreeRootPtrPage implements Page {
 	 * @throws DbException if the id is invalid
 	 */
 	public void setRootId(BTreePageId id) throws DbException {
+		beforeWrite();
 		if(id == null) {
 			root = 0;
 		}
@@ -202,6 +214,7 @@ public class BTreeRootPtrPage implements Page {
 	 * @throws DbException if the id is invalid
 	 */
 	public void setHeaderId(BTreePageId id) throws DbException {
+		beforeWrite();
 		if(id == null) {
 			header = 0;
 		}
@@ -3,6 +3,7 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
+import simpledb.common.Debug;
 import simpledb.common.DeadlockException;
 import simpledb.transaction.LockManager;
 import simpledb.transaction.TransactionAbortedException;
@@ -10,10 +11,19 @@ import simpledb.transaction.TransactionId;
 
 import java.io.*;
 
+import java.nio.ByteBuffer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -37,14 +47,55 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Default number of partitions; a single partition behaves like one global LRU list. */
+    public static final int DEFAULT_PARTITIONS = 1;
+
+    /** Default replacement policy of every partition. */
+    public static final ReplacementPolicy.Kind DEFAULT_POLICY = ReplacementPolicy.Kind.LRU;
+
+    /**
+     * How long getPage waits for a lock before aborting the transaction.
+     * Deadlocks are detected when they form, so this only ends waits on
+     * something the lock manager can't see.
+     */
+    public static final long LOCK_TIMEOUT_MILLIS = 60000;
+
     private int numPages;
 
 //    private final ConcurrentHashMap<PageId, Page> map;
 
-    private LRUCache<PageId, Page> lruCache;
+    /**
+     * 按PageId哈希分片，每个分片是一个独立加锁的PageCache，
+     * 有自己的容量和替换状态，不同分片上的getPage互不阻塞
+     */
+    private final List<PageCache> partitions;
+
+    /**
+     * 每个事务可能弄脏的页：以READ_WRITE获取的页和insert/delete返回的页。
+     * 提交、回滚和flushAllPages只处理这些页，代价与事务改过的页数成正比，与缓冲池大小无关
+     */
+    private final Map<TransactionId, Set<PageId>> dirtyPages = new ConcurrentHashMap<>();
+
+    /** 每个事务pin住的页和次数，事务结束时还没unpin的算作泄漏 */
+    private final Map<TransactionId, Map<PageId, Integer>> pinned = new ConcurrentHashMap<>();
+    /** debug模式下记录每个pin的调用栈，报告泄漏时打印 */
+    private final Map<TransactionId, Map<PageId, Throwable>> pinSites = new ConcurrentHashMap<>();
+    private final AtomicLong leakedPins = new AtomicLong();
+
+    /** 可选的后台写回线程，为null时提交时同步写回脏页 */
+    private volatile PageCleaner cleaner;
+
+    /** 可选的堆外页帧，为null时页都在堆上 */
+    private volatile FrameArena arena;
+
+    /** 可选的顺序预读，为null时不预取 */
+    private volatile ReadAhead readAhead;
 
     private final LockManager lockManager;
 
+    /** 行锁表上各事务未提交的行修改，提交和回滚按行处理这些页 */
+    private final RowUndoLog rowLog = new RowUndoLog();
+
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -52,13 +103,184 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, DEFAULT_PARTITIONS);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, hashed by PageId
+     * into numPartitions independently locked partitions. The capacity of the
+     * partitions adds up to numPages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param numPartitions number of partitions, clamped to [1, numPages].
+     */
+    public BufferPool(int numPages, int numPartitions) {
+        this(numPages, numPartitions, DEFAULT_POLICY);
+    }
+
+    /**
+     * Creates a partitioned BufferPool whose partitions pick eviction victims
+     * with the given replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param numPartitions number of partitions, clamped to [1, numPages].
+     * @param policy the replacement policy used by every partition.
+     */
+    public BufferPool(int numPages, int numPartitions, ReplacementPolicy.Kind policy) {
 
         // some code goes here
         this.numPages = numPages;
-        this.lruCache = new LRUCache<>(numPages);
+        int n = Math.max(1, Math.min(numPartitions, numPages));
+        this.partitions = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            // 把余数分给前几个分片，保证总容量等于numPages
+            partitions.add(new PageCache(numPages / n + (i < numPages % n ? 1 : 0), policy));
+        }
 //        map = new ConcurrentHashMap<>();
         lockManager = new LockManager();
     }
+
+    /**
+     * Start a background {@link PageCleaner}. From now on commit only forces the
+     * log records of the pages a transaction dirtied, and the cleaner writes
+     * the pages back once more than highWatermark * numPages of them are
+     * waiting, until lowWatermark * numPages are left.
+     *
+     * @return the cleaner, whose counters report pages cleaned, lag and stalls
+     */
+    public synchronized PageCleaner startPageCleaner(double highWatermark, double lowWatermark) {
+        if (cleaner != null) {
+            throw new IllegalStateException("page cleaner already running");
+        }
+        PageCleaner c = new PageCleaner(this, numPages, highWatermark, lowWatermark);
+        c.start();
+        cleaner = c;
+        return c;
+    }
+
+    /**
+     * Stop the background cleaner, writing back every committed page it still
+     * had to write. Commit writes pages synchronously again afterwards.
+     */
+    public synchronized void stopPageCleaner() {
+        PageCleaner c = cleaner;
+        if (c != null) {
+            c.shutdown();
+            cleaner = null;
+        }
+    }
+
+    /** Return the running page cleaner, or null */
+    public PageCleaner getPageCleaner() {
+        return cleaner;
+    }
+
+    /**
+     * Turn on read-ahead for sequential scans: HeapFile and BTreeFile
+     * iterators opened from now on prefetch the pages after the one they are
+     * reading.
+     *
+     * @return the read-ahead engine, whose counters report prefetches, hits and misses
+     */
+    public synchronized ReadAhead enableReadAhead() {
+        if (readAhead == null) {
+            readAhead = new ReadAhead(this, numPages);
+        }
+        return readAhead;
+    }
+
+    /** Turn off read-ahead and stop its thread */
+    public synchronized void disableReadAhead() {
+        ReadAhead r = readAhead;
+        if (r != null) {
+            readAhead = null;
+            r.shutdown();
+        }
+    }
+
+    /** Return the read-ahead engine, or null if read-ahead is off */
+    public ReadAhead getReadAhead() {
+        return readAhead;
+    }
+
+    /** Return the lock manager, e.g. for its deadlock statistics. */
+    public LockManager getLockManager() {
+        return lockManager;
+    }
+
+    /**
+     * Create the stream a scan fetches its pages through. Without read-ahead
+     * the stream just calls {@link #getPage}.
+     *
+     * @param next returns the page the scan reads after the given one, or null at the end
+     */
+    public ReadAhead.Stream newReadAheadStream(Function<Page, PageId> next) {
+        return new ReadAhead.Stream(this, readAhead, next);
+    }
+
+    /**
+     * Turn on off-heap frames: allocate a {@link FrameArena} with a frame for
+     * every page of the pool, and load HeapFile pages into frames from now
+     * on. Such pages keep their bytes in the frame and decode tuples from it
+     * when read, so the heap only holds what transactions changed.
+     *
+     * @return the arena
+     * @throws IllegalStateException if the pool already holds pages
+     */
+    public synchronized FrameArena enableOffHeapFrames() {
+        if (arena != null) {
+            return arena;
+        }
+        for (PageCache partition : partitions) {
+            if (partition.getSize() > 0) {
+                throw new IllegalStateException("off-heap frames must be enabled on an empty buffer pool");
+            }
+        }
+        FrameArena a = new FrameArena(numPages, pageSize);
+        for (PageCache partition : partitions) {
+            partition.setArena(a);
+        }
+        arena = a;
+        return a;
+    }
+
+    /** Return the off-heap frames, or null if they are off */
+    public FrameArena getFrameArena() {
+        return arena;
+    }
+
+    /**
+     * Read a page from its file, into a free frame if off-heap frames are on
+     * and the file supports them. The caller must have made room for it.
+     */
+    private Page readPage(PageId pid) {
+        DbFile databaseFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        FrameArena a = arena;
+        if (a != null && databaseFile instanceof HeapFile) {
+            ByteBuffer frame = a.acquire();
+            if (frame != null) {
+                try {
+                    return ((HeapFile) databaseFile).readPage(pid, frame);
+                } catch (RuntimeException e) {
+                    a.release(frame);
+                    throw e;
+                }
+            }
+        }
+        return databaseFile.readPage(pid);
+    }
+
+    /** Return the number of partitions of this buffer pool */
+    public int getNumPartitions() {
+        return partitions.size();
+    }
+
+    /** Return the partition that caches the specified page */
+    private PageCache partitionOf(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return partitions.get(Math.floorMod(h, partitions.size()));
+    }
     
     public static int getPageSize() {
       return pageSize;
@@ -111,24 +333,209 @@ public class BufferPool {
 //            lockAcquired = lockManager.acquireLock(tid, pid, perm);
 //        }
 
-        long st = System.currentTimeMillis();
+        //获取锁，如果获取不到会在该页的队列中阻塞，形成死锁时可能被选中中止
+        lockManager.acquireLock(tid, pid, perm, LOCK_TIMEOUT_MILLIS);
+        if (perm == Permissions.READ_WRITE) {
+            trackDirty(tid, pid);
+        }
+        return fetchPage(pid);
+    }
+
+    /**
+     * Retrieve a page of a row-locked table to change rows of it. Locks the
+     * table and the page IX instead of the page X, so transactions changing
+     * other rows of the page go on at the same time; the rows themselves are
+     * locked with {@link #lockRow} or {@link #tryLockRow}. The page may only
+     * be changed while holding its latch, its monitor, and each change must
+     * be recorded with {@link #rowInserted} or {@link #rowDeleted}: commit
+     * and abort go by those records instead of the whole page.
+     *
+     * @see HeapFile#setRowLocking
+     */
+    public Page getPageForRows(TransactionId tid, PageId pid) throws TransactionAbortedException, DbException {
+        lockManager.acquireIntention(tid, pid, Permissions.READ_WRITE, LOCK_TIMEOUT_MILLIS);
+        return fetchPage(pid);
+    }
+
+    /**
+     * Lock a row for tid, and its table and page IS or IX. Blocks like
+     * {@link #getPage} until the lock is granted.
+     */
+    public void lockRow(TransactionId tid, RecordId rid, Permissions perm) throws TransactionAbortedException {
+        lockManager.acquireRowLock(tid, rid, perm, LOCK_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Lock a row exclusively for tid if no other transaction has it locked,
+     * without waiting. The page must have been retrieved with
+     * {@link #getPageForRows}.
+     *
+     * @return true if tid holds the lock now
+     */
+    public boolean tryLockRow(TransactionId tid, RecordId rid) {
+        return lockManager.acquireRowLock(tid, rid, Permissions.READ_WRITE);
+    }
+
+    /** Record that tid inserted t into the page. Must hold the page's latch. */
+    public void rowInserted(TransactionId tid, HeapPage page, Tuple t) {
+        page.markDirty(true, tid);
+        rowLog.inserted(tid, page.getId(), t);
+    }
+
+    /**
+     * Record that tid deleted a tuple from the page.
+     * Must hold the page's latch.
+     *
+     * @param before a copy of the deleted tuple, with its RecordId
+     */
+    public void rowDeleted(TransactionId tid, HeapPage page, Tuple before) {
+        page.markDirty(true, tid);
+        rowLog.deleted(tid, page.getId(), before);
+    }
+
+    /** Return the page from the cache, reading it in if it isn't there. */
+    private Page fetchPage(PageId pid) throws DbException {
+        PageCache partition = partitionOf(pid);
+        Page page = partition.get(pid);
+        if (page != null) {
+            return page;
+        }
+        //未命中时只锁住该分片，避免同一页被并发读入两次
+        synchronized (partition) {
+            page = partition.get(pid);
+            if (page == null) {
+                //先腾出位置，堆外帧模式下换出的页才会让出它的帧
+                if (partition.getSize() >= partition.getCapacity()) {
+                    evictPage(partition);
+                }
+                page = readPage(pid);
+                partition.put(pid, page);
+            }
+            return page;
+        }
+    }
+
+    /**
+     * Retrieve a page like {@link #getPage} and pin it. Until it is unpinned
+     * with {@link #unpinPage} the page stays resident and eviction skips it,
+     * so a scan can hold on to its current page. Pins nest: a page pinned n
+     * times needs n unpins.
+     * <p>
+     * Pins a transaction still holds when it completes are released and
+     * counted by {@link #getLeakedPins}; with debugging on, the places they
+     * were taken are logged.
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        PageCache partition = partitionOf(pid);
         while (true) {
-            //获取锁，如果获取不到会阻塞
-                if (lockManager.acquireLock(tid, pid, perm)) {
-                    break;
+            getPage(tid, pid, perm);
+            //getPage返回后页可能马上被换出，这时重新读入
+            Page page = partition.pin(pid);
+            if (page != null) {
+                pinned.computeIfAbsent(tid, k -> new ConcurrentHashMap<>()).merge(pid, 1, Integer::sum);
+                if (Debug.isEnabled()) {
+                    pinSites.computeIfAbsent(tid, k -> new ConcurrentHashMap<>())
+                            .put(pid, new Throwable(tid + " pinned " + pid));
                 }
-            long now = System.currentTimeMillis();
-            if (now - st > 500) throw new TransactionAbortedException();
+                return page;
+            }
         }
+    }
 
-        if (lruCache.get(pid) == null) {
-            DbFile databaseFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page page = databaseFile.readPage(pid);
-            addToBufferPool(pid, page);
-            return page;
+    /**
+     * Release one pin the transaction holds on the page. Does nothing if it
+     * holds none, e.g. because the pins were released when it completed and
+     * an iterator is closed afterwards.
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        Map<PageId, Integer> pins = pinned.get(tid);
+        if (pins == null || !pins.containsKey(pid)) {
+            return;
+        }
+        if (pins.computeIfPresent(pid, (k, n) -> n == 1 ? null : n - 1) == null) {
+            Map<PageId, Throwable> sites = pinSites.get(tid);
+            if (sites != null) {
+                sites.remove(pid);
+            }
+        }
+        partitionOf(pid).unpin(pid);
+    }
 
-        } else {
-            return lruCache.get(pid);
+    /** Return the number of pins held on the page */
+    public int getPinCount(PageId pid) {
+        return partitionOf(pid).getPinCount(pid);
+    }
+
+    /** Return the number of pins released because their transaction completed without unpinning */
+    public long getLeakedPins() {
+        return leakedPins.get();
+    }
+
+    /**
+     * Release the pins tid still holds and report them as leaks.
+     */
+    private void releasePins(TransactionId tid) {
+        Map<PageId, Integer> pins = pinned.remove(tid);
+        Map<PageId, Throwable> sites = pinSites.remove(tid);
+        if (pins == null) {
+            return;
+        }
+        for (Map.Entry<PageId, Integer> e : pins.entrySet()) {
+            for (int i = 0; i < e.getValue(); i++) {
+                partitionOf(e.getKey()).unpin(e.getKey());
+            }
+            leakedPins.addAndGet(e.getValue());
+            if (Debug.isEnabled()) {
+                Throwable site = sites == null ? null : sites.get(e.getKey());
+                Debug.log("pin leak: %s still pinned %s %d times when it completed", tid, e.getKey(), e.getValue());
+                if (site != null) {
+                    site.printStackTrace(System.out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return true if the page is in the buffer pool. Doesn't count as an access.
+     */
+    boolean isResident(PageId pid) {
+        return partitionOf(pid).peek(pid) != null;
+    }
+
+    /**
+     * Load a page for read-ahead without locking it. Only uses a free frame
+     * or evicts a clean page that no transaction holds a lock on.
+     *
+     * @param keep pages that must not be evicted either, i.e. prefetched pages the scan hasn't reached
+     * @param loaded incremented if the page had to be read
+     * @return the resident page, or null if there was no room for it
+     */
+    Page prefetch(PageId pid, Set<PageId> keep, AtomicLong loaded) {
+        PageCache partition = partitionOf(pid);
+        Page page = partition.peek(pid);
+        if (page != null) {
+            return page;
+        }
+        synchronized (partition) {
+            page = partition.peek(pid);
+            if (page != null) {
+                return page;
+            }
+            if (partition.getSize() >= partition.getCapacity()) {
+                PageCleaner c = cleaner;
+                Page victim = partition.evict(p -> p.isDirty() == null && !keep.contains(p.getId())
+                        && !lockManager.isLocked(p.getId()) && (c == null || !c.isPending(p.getId())));
+                if (victim == null) {
+                    return null;
+                }
+            }
+            page = readPage(pid);
+            if (page != null) {
+                partition.put(pid, page);
+                loaded.incrementAndGet();
+            }
+            return page;
         }
     }
 
@@ -158,6 +565,27 @@ public class BufferPool {
         transactionComplete(tid, true);
     }
 
+    /**
+     * Remember that the transaction may dirty the page, so that commit and abort
+     * find it without scanning the buffer pool.
+     */
+    private void trackDirty(TransactionId tid, PageId pid) {
+        dirtyPages.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+    }
+
+    /**
+     * Lock a whole table for a transaction that will touch most of its
+     * pages, such as a scan: one table lock instead of a lock per page.
+     * Blocks like {@link #getPage} until the lock is granted.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param tableId the table to lock
+     * @param perm READ_ONLY to read every page, READ_WRITE to also write any of them
+     */
+    public void lockTable(TransactionId tid, int tableId, Permissions perm) throws TransactionAbortedException {
+        lockManager.acquireTableLock(tid, tableId, perm, LOCK_TIMEOUT_MILLIS);
+    }
+
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
@@ -184,6 +612,8 @@ public class BufferPool {
         } else {
             rollback(tid);
         }
+        dirtyPages.remove(tid);
+        releasePins(tid);
         lockManager.releaseAllLock(tid);
 
     }
@@ -191,7 +621,8 @@ public class BufferPool {
     /**
      * Add a tuple to the specified table on behalf of transaction tid.  Will
      * acquire a write lock on the page the tuple is added to and any other 
-     * pages that are updated (Lock acquisition is not needed for lab2). 
+     * pages that are updated (Lock acquisition is not needed for lab2), or
+     * on a row-locked table a lock on the new tuple's row.
      * May block if the lock(s) cannot be acquired.
      * 
      * Marks any pages that were dirtied by the operation as dirty by calling
@@ -217,28 +648,36 @@ public class BufferPool {
         //System.out.println(tid.getId());
         for (Page page : pages) {    //用脏页替换buffer中现有的页
             page.markDirty(true, tid);
-            lruCache.put(page.getId(), page);
+            trackDirty(tid, page.getId());
+            partitionOf(page.getId()).put(page.getId(), page);
         }
     }
 
     /**
-     * load page into buffer pool, if buffer pool is full, evict a page
+     * Add several tuples to the specified table on behalf of transaction tid,
+     * like {@link #insertTuple} for each of them but resolving the table once
+     * and letting the file fill pages densely and lock each one once.
      *
-     * @param id
-     * @param page
-     * @throws DbException
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples the tuples to add
      */
-    private void addToBufferPool(PageId id, Page page) throws DbException {
-        if (lruCache.getSize() >= this.numPages) {
-            evictPage();
+    public void insertTuples(TransactionId tid, int tableId, Iterator<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        DbFile databaseFile = Database.getCatalog().getDatabaseFile(tableId);
+        List<Page> pages = databaseFile.insertTuples(tid, tuples);
+        for (Page page : pages) {
+            page.markDirty(true, tid);
+            trackDirty(tid, page.getId());
+            partitionOf(page.getId()).put(page.getId(), page);
         }
-        lruCache.put(id, page);
     }
 
     /**
      * Remove the specified tuple from the buffer pool.
      * Will acquire a write lock on the page the tuple is removed from and any
-     * other pages that are updated. May block if the lock(s) cannot be acquired.
+     * other pages that are updated, or on a row-locked table a lock on the
+     * tuple's row. May block if the lock(s) cannot be acquired.
      *
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and adds versions of any pages that have 
@@ -258,6 +697,7 @@ public class BufferPool {
         List<Page> pages = dbFile.deleteTuple(tid, t);
         for (int i = 0; i < pages.size(); i++) {
             pages.get(i).markDirty(true, tid);
+            trackDirty(tid, pages.get(i).getId());
         }
     }
 
@@ -270,28 +710,37 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
 
-        LRUCache<PageId, Page>.DLinkedNode head = lruCache.getHead();
-        LRUCache<PageId, Page>.DLinkedNode tail = lruCache.getTail();
-        while (head != tail) {
-            Page value = head.value;
-            if (value != null && value.isDirty() != null) {
-
-                DbFile databaseFile = Database.getCatalog().getDatabaseFile(value.getId().getTableId());
-                try {
+        //只有活跃事务登记过的页可能是脏页
+        List<Page> flushed = new ArrayList<>();
+        Set<PageId> seen = new HashSet<>();
+        for (Set<PageId> pids : dirtyPages.values()) {
+            for (PageId pid : pids) {
+                Page value = partitionOf(pid).peek(pid);
+                if (value != null && value.isDirty() != null && seen.add(pid)) {
                     Database.getLogFile().logWrite(value.isDirty(), value.getBeforeImage(), value);
-                    Database.getLogFile().force();
                     //这里不能将脏页标记为不脏，如果这样做则当事务提交的时候，flushpage2函数找不到脏页，无法将更新写入磁盘
                     //也无法setbeforeimage 详情见LogTest的78行
-                    // value.markDirty(false, null);
-                    databaseFile.writePage(value);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
+                    flushed.add(value);
                 }
+            }
+        }
+        if (!flushed.isEmpty()) {
+            Database.getLogFile().force();
+        }
 
+        //已提交但还没被后台线程写回的页
+        PageCleaner c = cleaner;
+        if (c != null) {
+            for (PageId pid : c.getPending()) {
+                Page value = partitionOf(pid).peek(pid);
+                if (value == null) {
+                    c.remove(pid);
+                } else if (value.isDirty() == null && c.remove(pid)) {
+                    flushed.add(value);
+                }
             }
-            head = head.next;
         }
+        writePages(flushed);
 
     }
 
@@ -306,15 +755,10 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        LRUCache<PageId, Page>.DLinkedNode head = lruCache.getHead();
-        LRUCache<PageId, Page>.DLinkedNode tail = lruCache.getTail();
-        while (head != tail) {
-            PageId key = head.key;
-            if (key != null && key.equals(pid)) {
-                lruCache.remove(head);
-                return;
-            }
-            head = head.next;
+        partitionOf(pid).remove(pid);
+        PageCleaner c = cleaner;
+        if (c != null) {
+            c.remove(pid);
         }
     }
 
@@ -326,7 +770,10 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
 
-        Page discard = lruCache.get(pid);
+        Page discard = partitionOf(pid).peek(pid);
+        if (discard == null) {
+            return;
+        }
         DbFile databaseFile = Database.getCatalog().getDatabaseFile(discard.getId().getTableId());
         try {
             TransactionId dirtier = discard.isDirty();
@@ -334,7 +781,13 @@ public class BufferPool {
                 Database.getLogFile().logWrite(dirtier, discard.getBeforeImage(), discard);
                 Database.getLogFile().force();
                 discard.markDirty(false, null);
-                databaseFile.writePage(discard);
+                PageCleaner c = cleaner;
+                if (c != null) {
+                    //日志已经落盘，数据页交给后台线程写回
+                    c.add(pid);
+                } else {
+                    databaseFile.writePage(discard);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -346,16 +799,106 @@ public class BufferPool {
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        LRUCache<PageId, Page>.DLinkedNode head = lruCache.getHead();
-        head = head.next;
-        LRUCache<PageId, Page>.DLinkedNode tail = lruCache.getTail();
-        while (head != tail) {
-            Page value = head.value;
+        Set<PageId> rowPages = flushRows(tid);
+        Set<PageId> pids = dirtyPages.get(tid);
+        if (pids == null) {
+            return;
+        }
+        List<Page> flushed = new ArrayList<>();
+        for (PageId pid : pids) {
+            if (rowPages.contains(pid)) {
+                continue;
+            }
+            Page value = partitionOf(pid).peek(pid);
+            if (value != null && tid.equals(value.isDirty())) {
+                Database.getLogFile().logWrite(tid, value.getBeforeImage(), value);
+                flushed.add(value);
+            }
+        }
+        if (flushed.isEmpty()) {
+            return;
+        }
+        //所有更新记录一次落盘，之后再写数据页
+        Database.getLogFile().force();
+        PageCleaner c = cleaner;
+        for (Page value : flushed) {
+            value.markDirty(false, null);
+            if (c != null) {
+                //日志已经落盘，数据页交给后台线程写回
+                c.add(value.getId());
+            }
+        }
+        if (c == null) {
+            writePages(flushed);
+        }
+        for (Page value : flushed) {
             value.setBeforeImage();
-            if (value != null && value.isDirty() != null && value.isDirty().equals(tid)) {
-                flushPage(value.getId());
+        }
+    }
+
+    /**
+     * Write the pages tid changed rows of as they are once it commits: with
+     * the rows of other transactions that haven't committed yet undone, so
+     * no uncommitted row reaches the disk or the log.
+     *
+     * @return the pages written
+     */
+    private Set<PageId> flushRows(TransactionId tid) throws IOException {
+        Set<PageId> pids = new HashSet<>(rowLog.pages(tid));
+        if (pids.isEmpty()) {
+            return pids;
+        }
+        List<Page> images = new ArrayList<>();
+        for (PageId pid : pids) {
+            //有未完成行修改的页是脏的，也被锁着，不会被换出
+            HeapPage page = (HeapPage) partitionOf(pid).peek(pid);
+            if (page == null) {
+                rowLog.finish(tid, pid);
+                continue;
+            }
+            synchronized (page) {
+                try {
+                    HeapPage after = rowLog.image(page, tid);
+                    Database.getLogFile().logWrite(tid, rowLog.image(page, null), after);
+                    images.add(after);
+                } catch (DbException e) {
+                    throw new IOException(e);
+                }
+                finishRows(tid, page);
             }
-            head = head.next;
+        }
+        Database.getLogFile().force();
+        writePages(images);
+        return pids;
+    }
+
+    /**
+     * Forget tid's row changes on the page once they are committed or
+     * undone; the page is clean when no transaction has any left. Must hold
+     * the page's latch.
+     */
+    private void finishRows(TransactionId tid, HeapPage page) {
+        TransactionId other = rowLog.finish(tid, page.getId());
+        if (other == null) {
+            page.markDirty(false, null);
+            page.setBeforeImage();
+        } else {
+            page.markDirty(true, other);
+        }
+    }
+
+    /**
+     * Write pages to their files, one {@link DbFile#writePages} call per file.
+     * The files sort the pages by offset, so pages that are adjacent on disk
+     * go out in a single write.
+     */
+    private static void writePages(List<Page> pages) throws IOException {
+        Map<Integer, List<Page>> byTable = new HashMap<>();
+        for (Page page : pages) {
+            byTable.computeIfAbsent(page.getId().getTableId(), k -> new ArrayList<>()).add(page);
+        }
+        for (Map.Entry<Integer, List<Page>> e : byTable.entrySet()) {
+            Database.getCatalog().getDatabaseFile(e.getKey()).writePages(e.getValue());
         }
     }
 
@@ -385,10 +928,13 @@ public class BufferPool {
 
 
     /**
-     * Discards a page from the buffer pool.
+     * Discards a page from the given partition of the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Only the partition is locked, so evictions in other partitions proceed concurrently.
+     *
+     * @param partition the partition to evict from
      */
-    private synchronized  void evictPage() throws DbException {
+    private void evictPage(PageCache partition) throws DbException {
         // some code goes here
 //        assert map.size() == numPages;
 //        for (Page page : map.values()) {
@@ -399,55 +945,125 @@ public class BufferPool {
 //        }
 //        throw new DbException("No Clean Page to EVICT");
         // not necessary for lab1
-        //如果为脏页则不能替换
-        Page value = lruCache.getTail().prev.value;
-        //  如果是脏页
-        if (value != null && value.isDirty() != null) {
-            findNotDirty();
-        } else {
-            //不是脏页没改过，不需要写磁盘
-            lruCache.discard();
+        //脏页不能替换，由替换策略在干净页中选出牺牲页；干净页没改过，不需要写磁盘
+        PageCleaner c = cleaner;
+        Page victim = partition.evict(page -> page.isDirty() == null && (c == null || !c.isPending(page.getId())));
+        if (victim == null && c != null) {
+            //没有干净页，只能同步写回一个已提交但还没落盘的页
+            victim = partition.evict(page -> page.isDirty() == null);
+            if (victim != null) {
+                c.recordStall();
+                if (c.remove(victim.getId())) {
+                    try {
+                        Database.getCatalog().getDatabaseFile(victim.getId().getTableId()).writePage(victim);
+                    } catch (IOException e) {
+                        throw new DbException("failed to write back " + victim.getId() + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+        if (victim == null) {
+            throw new DbException("no clean page to evict");
         }
     }
 
-    private void findNotDirty() throws DbException {
-        LRUCache<PageId, Page>.DLinkedNode head = lruCache.getHead();
-        LRUCache<PageId, Page>.DLinkedNode tail = lruCache.getTail();
-        tail = tail.prev;
-        while (head != tail) {
-            Page value = tail.value;
-            if (value != null && value.isDirty() == null) {
-                lruCache.remove(tail);
-                return;
+    /**
+     * Write a committed page back to disk on behalf of the page cleaner.
+     * Takes a shared lock on the page so that no transaction is changing it,
+     * and gives up if the lock isn't free right now or the page is dirty.
+     *
+     * @param tid the cleaner's transaction id
+     * @param pid the pending page
+     * @return true if the page was written
+     */
+    boolean writeBack(TransactionId tid, PageId pid) {
+        PageCleaner c = cleaner;
+        if (c == null || !lockManager.acquireLock(tid, pid, Permissions.READ_ONLY)) {
+            return false;
+        }
+        try {
+            Page page = partitionOf(pid).peek(pid);
+            if (page == null) {
+                c.remove(pid);
+                return false;
+            }
+            if (page.isDirty() != null || !c.remove(pid)) {
+                return false;
             }
-            tail = tail.prev;
+            try {
+                Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                c.add(pid);
+                return false;
+            }
+        } finally {
+            lockManager.releaseLock(tid, pid);
         }
-        throw new DbException("no dirty page");
     }
 
     private synchronized void rollback(TransactionId transactionId) {
-        LRUCache<PageId, Page>.DLinkedNode head = lruCache.getHead();
-        LRUCache<PageId, Page>.DLinkedNode tail = lruCache.getTail();
-        while (head != tail) {
-            Page value = head.value;
-            LRUCache<PageId, Page>.DLinkedNode tmp = head.next;
-            if (value != null && value.isDirty() != null && value.isDirty().equals(transactionId)) {
-                //删掉脏页
-                lruCache.remove(head);
+        Set<PageId> rowPages = rollbackRows(transactionId);
+        Set<PageId> pids = dirtyPages.get(transactionId);
+        if (pids == null) {
+            return;
+        }
+        for (PageId pid : pids) {
+            if (rowPages.contains(pid)) {
+                continue;
+            }
+            PageCache partition = partitionOf(pid);
+            synchronized (partition) {
+                Page value = partition.peek(pid);
+                if (value != null && transactionId.equals(value.isDirty())) {
+                    //删掉脏页
+                    partition.remove(pid);
+                    PageCleaner c = cleaner;
+                    if (c != null && c.isPending(pid)) {
+                        //磁盘上还是旧版本，已提交的内容只在before image中
+                        partition.put(pid, value.getBeforeImage());
+                        continue;
+                    }
+                    try {
+                        //重新读原来的页
+                        Page page = Database.getBufferPool().getPage(transactionId, pid, Permissions.READ_ONLY);
+                        page.markDirty(false,null);
+                    } catch (TransactionAbortedException e) {
+                        e.printStackTrace();
+                    } catch (DbException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Undo the rows tid changed on row-locked tables, leaving the other
+     * transactions' rows on the same pages as they are.
+     *
+     * @return the pages undone
+     */
+    private Set<PageId> rollbackRows(TransactionId tid) {
+        Set<PageId> pids = new HashSet<>(rowLog.pages(tid));
+        for (PageId pid : pids) {
+            HeapPage page = (HeapPage) partitionOf(pid).peek(pid);
+            if (page == null) {
+                rowLog.finish(tid, pid);
+                continue;
+            }
+            synchronized (page) {
                 try {
-                    //重新读原来的页
-                    Page page = Database.getBufferPool().getPage(transactionId, value.getId(), Permissions.READ_ONLY);
-                    page.markDirty(false,null);
-                } catch (TransactionAbortedException e) {
-                    e.printStackTrace();
+                    rowLog.undo(tid, page);
                 } catch (DbException e) {
                     e.printStackTrace();
                 }
+                finishRows(tid, page);
+                ((HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId())).getFreeSpaceMap()
+                        .set(pid.getPageNumber(), page.getNumEmptySlots());
             }
-            head = tmp;
         }
+        return pids;
     }
-
-
-
 }
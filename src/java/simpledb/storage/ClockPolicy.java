@@ -0,0 +1,89 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK replacement: resident keys sit in a ring of slots, each with a
+ * reference bit. A hit only sets the bit, so {@link #touch} takes no lock
+ * and never reorders anything. On eviction the hand sweeps the ring,
+ * clearing set bits and stopping at the first key whose bit is clear.
+ */
+public class ClockPolicy<K> implements ReplacementPolicy<K> {
+
+    private static class Slot<K> {
+        final K key;
+        final int index;
+        volatile boolean referenced;
+
+        Slot(K key, int index) {
+            this.key = key;
+            this.index = index;
+        }
+    }
+
+    private final Map<K, Slot<K>> slots = new ConcurrentHashMap<>();
+    // 环上的槽位，被移除的位置置为null并放入空闲栈中复用
+    private final List<Slot<K>> ring = new ArrayList<>();
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private int hand = 0;
+
+    @Override
+    public void touch(K key) {
+        Slot<K> slot = slots.get(key);
+        if (slot != null) {
+            slot.referenced = true;
+        }
+    }
+
+    @Override
+    public synchronized void add(K key) {
+        if (slots.containsKey(key)) {
+            touch(key);
+            return;
+        }
+        Slot<K> slot;
+        if (freeSlots.isEmpty()) {
+            slot = new Slot<>(key, ring.size());
+            ring.add(slot);
+        } else {
+            slot = new Slot<>(key, freeSlots.pop());
+            ring.set(slot.index, slot);
+        }
+        slots.put(key, slot);
+    }
+
+    @Override
+    public synchronized void remove(K key) {
+        Slot<K> slot = slots.remove(key);
+        if (slot != null) {
+            ring.set(slot.index, null);
+            freeSlots.push(slot.index);
+        }
+    }
+
+    @Override
+    public synchronized K evict(Predicate<K> evictable) {
+        int n = ring.size();
+        // 最多转两圈：第一圈清除引用位，第二圈一定能找到可替换的页（如果存在）
+        for (int i = 0; i < 2 * n; i++) {
+            Slot<K> slot = ring.get(hand);
+            hand = (hand + 1) % n;
+            if (slot == null) {
+                continue;
+            }
+            if (slot.referenced) {
+                slot.referenced = false;
+            } else if (evictable.test(slot.key)) {
+                remove(slot.key);
+                return slot.key;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,420 @@
+package simpledb.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.BufferedInputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedHeapFile is a HeapFile for cold tables that are rarely written
+ * and mostly scanned. Every page is compressed with {@link Deflater} when it
+ * is written and inflated when it is read, so the BufferPool and everything
+ * above it see ordinary HeapPages while the disk holds, and scans read, only
+ * the compressed bytes.
+ * <p>
+ * The compressed pages are stored one after another in the data file. The
+ * index file next to it, <code>&lt;file&gt;.idx</code>, maps each page number
+ * to its extent in the data file: offset, compressed length and the room
+ * the extent has, INDEX_ENTRY_SIZE bytes per page. A page whose compressed
+ * bytes still fit in its extent is rewritten in place; otherwise it moves to
+ * the end of the data file and its old extent is abandoned, which is fine
+ * for tables that are rarely written. A page that was allocated but never
+ * written has length 0 and reads as an empty page.
+ * <p>
+ * A table is stored as a CompressedHeapFile when its line in the catalog
+ * file ends with <code>compressed</code>. {@link #compress} turns a heap file
+ * into one, and {@link HeapFileEncoder} can write one directly.
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    /** Bytes per page in the index file: offset, compressed length and extent size. */
+    static final int INDEX_ENTRY_SIZE = 16;
+
+    // 每个线程一个压缩器，用前reset
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(Deflater::new);
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private final PageChannel data;
+    private final PageChannel index;
+    // 每页压缩后在数据文件中的位置、长度和占用的空间，第一次用到时从索引文件读入
+    private long[] offsets;
+    private int[] lengths;
+    private int[] capacities;
+    private int numPages = -1;
+    // 数据文件中已用到的位置，新的extent追加在这里
+    private long dataEnd;
+
+    /**
+     * Constructs a compressed heap file backed by the specified file and
+     * the index file next to it.
+     *
+     * @param f the file that stores the compressed pages
+     * @param td the tuple descriptor of tuples in the file
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+        data = new PageChannel(f);
+        index = new PageChannel(getIndexFile(f));
+    }
+
+    /** Returns the index file of the compressed file f. */
+    public static File getIndexFile(File f) {
+        return new File(f.getPath() + ".idx");
+    }
+
+    /** Returns the file that maps the pages of this file to their extents. */
+    public File getIndexFile() {
+        return getIndexFile(getFile());
+    }
+
+    /** Read the index on first use. Must hold the lock of this file. */
+    private void load() {
+        if (numPages >= 0) {
+            return;
+        }
+        File idx = getIndexFile();
+        int n = (int) (idx.length() / INDEX_ENTRY_SIZE);
+        if (n == 0 && getFile().length() > 0) {
+            throw new IllegalStateException("compressed file " + getFile() + " has no page index " + idx);
+        }
+        offsets = new long[Math.max(16, n)];
+        lengths = new int[offsets.length];
+        capacities = new int[offsets.length];
+        dataEnd = 0;
+        if (n > 0) {
+            try {
+                ByteBuffer buf = ByteBuffer.wrap(index.read(0, n * INDEX_ENTRY_SIZE));
+                for (int i = 0; i < n; i++) {
+                    offsets[i] = buf.getLong();
+                    lengths[i] = buf.getInt();
+                    capacities[i] = buf.getInt();
+                    dataEnd = Math.max(dataEnd, offsets[i] + capacities[i]);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("failed to read the page index of " + getFile(), e);
+            }
+        }
+        numPages = n;
+    }
+
+    /** Make room for n pages in the in-memory index. */
+    private void ensureCapacity(int n) {
+        if (n > offsets.length) {
+            int size = Math.max(n, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, size);
+            lengths = Arrays.copyOf(lengths, size);
+            capacities = Arrays.copyOf(capacities, size);
+        }
+    }
+
+    /** Return the index entry of a page. */
+    private byte[] indexEntry(int pageNumber) {
+        ByteBuffer buf = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        buf.putLong(offsets[pageNumber]);
+        buf.putInt(lengths[pageNumber]);
+        buf.putInt(capacities[pageNumber]);
+        return buf.array();
+    }
+
+    @Override
+    public synchronized int numPages() {
+        load();
+        return numPages;
+    }
+
+    /**
+     * Add n empty pages at the end of this file. They only take an index
+     * entry until they are written.
+     *
+     * @return the number of the first new page
+     */
+    @Override
+    public synchronized int allocatePages(int n) throws IOException {
+        load();
+        int first = numPages;
+        ensureCapacity(first + n);
+        index.write((long) first * INDEX_ENTRY_SIZE, new byte[n * INDEX_ENTRY_SIZE]);
+        numPages += n;
+        return first;
+    }
+
+    /** A compressed file doesn't grow by extents of whole pages. */
+    @Override
+    public ExtentAllocator getExtentAllocator() {
+        throw new UnsupportedOperationException("compressed files append compressed pages, see allocatePages");
+    }
+
+    /** Returns the number of bytes the compressed pages take in the data file. */
+    public synchronized long getCompressedBytes() {
+        load();
+        return dataEnd;
+    }
+
+    @Override
+    protected byte[] readPageBytes(int pageNumber, int len) throws IOException {
+        long offset;
+        int length;
+        synchronized (this) {
+            load();
+            if (pageNumber < 0 || pageNumber >= numPages) {
+                throw new IllegalArgumentException("page " + pageNumber + " is not in " + getFile());
+            }
+            offset = offsets[pageNumber];
+            length = lengths[pageNumber];
+        }
+        if (length == 0) {
+            return HeapPage.createEmptyPageData();
+        }
+        return inflate(data.read(offset, length), 0, length, BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public Page readPage(PageId pid) {
+        try {
+            HeapPage page = new HeapPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()),
+                    readPageBytes(pid.getPageNumber(), BufferPool.getPageSize()));
+            getFreeSpaceMap().set(pid.getPageNumber(), page.getNumEmptySlots());
+            return page;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Inflate a page into an off-heap frame of the BufferPool and return a
+     * HeapPage backed by it.
+     */
+    @Override
+    public HeapPage readPage(PageId pid, ByteBuffer frame) {
+        try {
+            byte[] bytes = readPageBytes(pid.getPageNumber(), BufferPool.getPageSize());
+            ByteBuffer dst = frame.duplicate();
+            ((Buffer) dst).clear();
+            dst.put(bytes);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        HeapPage page = new HeapPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), frame);
+        getFreeSpaceMap().set(pid.getPageNumber(), page.getNumEmptySlots());
+        return page;
+    }
+
+    /**
+     * Read the pages, reading pages whose compressed bytes are adjacent in
+     * the data file with one read.
+     */
+    @Override
+    public List<Page> readPages(List<PageId> ids) {
+        List<PageId> sorted = new ArrayList<>(ids);
+        sorted.sort(Comparator.comparingInt(PageId::getPageNumber));
+        long[] offs = new long[sorted.size()];
+        int[] lens = new int[sorted.size()];
+        synchronized (this) {
+            load();
+            for (int i = 0; i < offs.length; i++) {
+                int pageNumber = sorted.get(i).getPageNumber();
+                if (pageNumber < 0 || pageNumber >= numPages) {
+                    throw new IllegalArgumentException("page " + pageNumber + " is not in " + getFile());
+                }
+                offs[i] = offsets[pageNumber];
+                lens[i] = lengths[pageNumber];
+            }
+        }
+        Map<PageId, Page> read = new HashMap<>();
+        try {
+            for (int i = 0; i < offs.length; ) {
+                int j = i + 1;
+                long end = offs[i] + lens[i];
+                //压缩后首尾相接的页一次读入
+                while (lens[i] > 0 && j < offs.length && lens[j] > 0 && offs[j] == end) {
+                    end += lens[j];
+                    j++;
+                }
+                byte[] bytes = lens[i] == 0 ? null : data.read(offs[i], (int) (end - offs[i]));
+                for (int k = i; k < j; k++) {
+                    HeapPageId hpid = new HeapPageId(getId(), sorted.get(k).getPageNumber());
+                    HeapPage page = new HeapPage(hpid,
+                            inflate(bytes, (int) (offs[k] - offs[i]), lens[k], BufferPool.getPageSize()));
+                    getFreeSpaceMap().set(hpid.getPageNumber(), page.getNumEmptySlots());
+                    read.put(sorted.get(k), page);
+                }
+                i = j;
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        List<Page> pages = new ArrayList<>(ids.size());
+        for (PageId id : ids) {
+            pages.add(read.get(id));
+        }
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void writePage(Page page) throws IOException {
+        writePages(Collections.singletonList(page));
+    }
+
+    /**
+     * Compress and write the pages. Pages that don't fit in their extent any
+     * more, and pages written for the first time, are appended with one
+     * write.
+     */
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        List<Page> sorted = new ArrayList<>(pages);
+        sorted.sort(Comparator.comparingInt(p -> p.getId().getPageNumber()));
+        int[] pageNos = new int[sorted.size()];
+        int[] freeSlots = new int[sorted.size()];
+        synchronized (this) {
+            load();
+            int limit = numPages;
+            ByteArrayOutputStream appended = new ByteArrayOutputStream();
+            for (int i = 0; i < pageNos.length; i++) {
+                int pageNumber = sorted.get(i).getId().getPageNumber();
+                //可以一次接着文件末尾追加多页
+                if (pageNumber > limit) {
+                    throw new IllegalArgumentException("page is not in the heap file or page'id in wrong");
+                }
+                if (pageNumber == limit) {
+                    ensureCapacity(++limit);
+                    offsets[pageNumber] = 0;
+                    lengths[pageNumber] = 0;
+                    capacities[pageNumber] = 0;
+                }
+                byte[] compressed = deflate(sorted.get(i).getPageData());
+                if (compressed.length <= capacities[pageNumber]) {
+                    data.write(offsets[pageNumber], compressed);
+                } else {
+                    //放不下就挪到文件末尾，原来的空间不再使用
+                    offsets[pageNumber] = dataEnd + appended.size();
+                    capacities[pageNumber] = compressed.length;
+                    appended.write(compressed);
+                }
+                lengths[pageNumber] = compressed.length;
+                pageNos[i] = pageNumber;
+                freeSlots[i] = ((HeapPage) sorted.get(i)).getNumEmptySlots();
+            }
+            if (appended.size() > 0) {
+                data.write(dataEnd, appended.toByteArray());
+                dataEnd += appended.size();
+            }
+            //先写数据再写索引
+            for (int pageNumber : pageNos) {
+                index.write((long) pageNumber * INDEX_ENTRY_SIZE, indexEntry(pageNumber));
+            }
+            numPages = limit;
+        }
+        getFreeSpaceMap().written(pageNos, freeSlots, getFile().length(), getFile().lastModified());
+    }
+
+    /** Return page compressed with the JDK's Deflater. */
+    static byte[] deflate(byte[] page) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(page);
+        deflater.finish();
+        byte[] buf = new byte[page.length / 2 + 64];
+        int n = 0;
+        while (!deflater.finished()) {
+            if (n == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            n += deflater.deflate(buf, n, buf.length - n);
+        }
+        return Arrays.copyOf(buf, n);
+    }
+
+    /**
+     * Inflate the len bytes of data at offset into a page of pageSize bytes;
+     * len 0 is an empty page.
+     *
+     * @throws IOException if the bytes aren't a compressed page
+     */
+    static byte[] inflate(byte[] data, int offset, int len, int pageSize) throws IOException {
+        byte[] page = new byte[pageSize];
+        if (len == 0) {
+            return page;
+        }
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(data, offset, len);
+        try {
+            int n = 0;
+            while (n < pageSize && !inflater.finished()) {
+                int read = inflater.inflate(page, n, pageSize - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != pageSize) {
+                throw new IOException("compressed page is " + n + " bytes, not " + pageSize);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt compressed page", e);
+        }
+        return page;
+    }
+
+    /**
+     * Write the pages of an uncompressed heap file as a compressed file and
+     * its index.
+     *
+     * @param heapFile the heap file to read, e.g. written by HeapFileEncoder
+     * @param outFile the compressed file to write
+     * @param pageSize the page size of heapFile
+     */
+    public static void compress(File heapFile, File outFile, int pageSize) throws IOException {
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        long offset = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(heapFile)));
+             FileOutputStream out = new FileOutputStream(outFile)) {
+            byte[] page = new byte[pageSize];
+            while (true) {
+                try {
+                    in.readFully(page);
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] compressed = deflate(page);
+                out.write(compressed);
+                ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+                entry.putLong(offset);
+                entry.putInt(compressed.length);
+                entry.putInt(compressed.length);
+                entries.write(entry.array());
+                offset += compressed.length;
+            }
+        }
+        try (FileOutputStream idx = new FileOutputStream(getIndexFile(outFile))) {
+            entries.writeTo(idx);
+        }
+        // 字典编码的字段要用同一个字典
+        File dictionary = HeapFile.getDictionaryFile(heapFile);
+        if (dictionary.exists()) {
+            Files.copy(dictionary.toPath(), HeapFile.getDictionaryFile(outFile).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -33,6 +33,35 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Read several pages from disk. Implementations may read pages that are
+     * adjacent in the file with a single call.
+     *
+     * @param ids the pages to read
+     * @return the pages, in the order of ids
+     * @throws IllegalArgumentException if one of the pages does not exist in this file.
+     */
+    default List<Page> readPages(List<PageId> ids) {
+        List<Page> pages = new ArrayList<>(ids.size());
+        for (PageId id : ids) {
+            pages.add(readPage(id));
+        }
+        return pages;
+    }
+
+    /**
+     * Push several pages to disk. Implementations may write pages that are
+     * adjacent in the file with a single call.
+     *
+     * @param pages the pages to write
+     * @throws IOException if a write fails
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -48,6 +77,30 @@ public interface DbFile {
     List<Page> insertTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts several tuples to the file on behalf of transaction, like
+     * calling {@link #insertTuple} for each of them. Implementations may fill
+     * each page with as many tuples as fit while holding its lock once, and
+     * write new pages together.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples The tuples to add. Each is updated to reflect that it is
+     *          now stored in this file.
+     * @return the pages that were modified, each once
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    default List<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        Map<PageId, Page> modified = new LinkedHashMap<>();
+        while (tuples.hasNext()) {
+            for (Page p : insertTuple(tid, tuples.next())) {
+                modified.put(p.getId(), p);
+            }
+        }
+        return new ArrayList<>(modified.values());
+    }
+
     /**
      * Removes the specified tuple from the file on behalf of the specified
      * transaction.
@@ -0,0 +1,73 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A string of a {@link Type#DICT_TYPE} column: the string and its code in
+ * the table's {@link Dictionary}. Each code has one DictField, so two
+ * fields of the same dictionary are equal exactly when their codes are, and
+ * equality is checked on the codes; against any other StringField the
+ * strings are compared.
+ */
+public class DictField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int code;
+    private final transient Dictionary dictionary;
+    private final int hash;
+
+    DictField(String value, int code, Dictionary dictionary) {
+        super(value, Type.STRING_LEN, Type.DICT_TYPE);
+        this.code = code;
+        this.dictionary = dictionary;
+        this.hash = value.hashCode();
+    }
+
+    /** Return the code of this string, or -1 if it isn't in the dictionary. */
+    public int getCode() {
+        return code;
+    }
+
+    /** Return the dictionary this field's code belongs to. */
+    public Dictionary getDictionary() {
+        return dictionary;
+    }
+
+    /** Write the code, the 4 bytes a page stores for this field. */
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeInt(code);
+    }
+
+    public int hashCode() {
+        return hash;
+    }
+
+    public boolean equals(Object field) {
+        if (field == this) {
+            return true;
+        }
+        if (field instanceof DictField && ((DictField) field).dictionary == dictionary) {
+            return ((DictField) field).code == code;
+        }
+        return super.equals(field);
+    }
+
+    /**
+     * Compare the specified field to this one, on the codes for equality
+     * with a field of the same dictionary and on the strings otherwise.
+     *
+     * @see StringField#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+        if ((op == Predicate.Op.EQUALS || op == Predicate.Op.NOT_EQUALS) && val instanceof DictField
+                && ((DictField) val).dictionary == dictionary) {
+            return (((DictField) val).code == code) == (op == Predicate.Op.EQUALS);
+        }
+        return super.compare(op, val);
+    }
+}
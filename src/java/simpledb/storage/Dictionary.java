@@ -0,0 +1,147 @@
+package simpledb.storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dictionary maps the strings of the {@link simpledb.common.Type#DICT_TYPE}
+ * columns of one table to int codes, which is what the pages of the table
+ * store. Codes are given out in order, starting at 0, and never change or
+ * get reused. Every code has one {@link DictField}, so decoding a code
+ * doesn't allocate, and fields of the same dictionary compare by code.
+ * <p>
+ * The dictionary is kept in a side file, one entry per code in code order,
+ * read on first use. A new string is appended and synced before its code is
+ * returned, so no page written afterwards can refer to a code the file
+ * doesn't have. Codes of strings inserted by aborted transactions stay.
+ *
+ * @see HeapFile#getDictionary
+ */
+public class Dictionary {
+
+    private final File file;
+    // 编码到字段，只追加；读者先读size再读数组，不加锁
+    private volatile DictField[] fields = new DictField[16];
+    private volatile int size;
+    private final Map<String, DictField> codes = new HashMap<>();
+    private volatile boolean loaded;
+
+    /**
+     * @param file the file the dictionary is kept in; created when the first
+     *        string is added
+     */
+    public Dictionary(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /** Read the file on first use. Must hold the lock of this dictionary. */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                String value;
+                try {
+                    value = in.readUTF();
+                } catch (EOFException e) {
+                    //写到一半的最后一项没有被用过，丢掉
+                    break;
+                }
+                add(value);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to read dictionary " + file, e);
+        }
+    }
+
+    /** Give value the next code. Must hold the lock of this dictionary. */
+    private DictField add(String value) {
+        int code = size;
+        DictField f = new DictField(value, code, this);
+        DictField[] fs = fields;
+        if (code == fs.length) {
+            fs = Arrays.copyOf(fs, fs.length * 2);
+        }
+        fs[code] = f;
+        fields = fs;
+        codes.put(value, f);
+        size = code + 1;
+        return f;
+    }
+
+    /** Return the number of codes in use. */
+    public int size() {
+        if (!loaded) {
+            synchronized (this) {
+                load();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Return the field of a code.
+     *
+     * @throws IllegalArgumentException if the dictionary has no such code
+     */
+    public DictField get(int code) {
+        int n = size;
+        if (code < 0 || code >= n || !loaded) {
+            synchronized (this) {
+                load();
+                n = size;
+            }
+            if (code < 0 || code >= n) {
+                throw new IllegalArgumentException("code " + code + " is not in dictionary " + file);
+            }
+        }
+        return fields[code];
+    }
+
+    /**
+     * Return the field of value, adding value to the dictionary and its file
+     * if it isn't there yet.
+     */
+    public synchronized DictField encode(String value) {
+        load();
+        DictField f = codes.get(value);
+        if (f != null) {
+            return f;
+        }
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            new DataOutputStream(out).writeUTF(value);
+            out.getFD().sync();
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to extend dictionary " + file, e);
+        }
+        return add(value);
+    }
+
+    /**
+     * Return the field of value, or a field with code -1 that is equal to
+     * no field of this dictionary if value isn't in it. Doesn't add value.
+     */
+    public synchronized DictField find(String value) {
+        load();
+        DictField f = codes.get(value);
+        return f != null ? f : new DictField(value, -1, this);
+    }
+}
@@ -0,0 +1,137 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * ExtentAllocator hands out new pages at the end of a {@link DbFile} and
+ * grows the file a whole extent of pages at a time, so a table that keeps
+ * growing extends its file, and updates the file system's metadata, once per
+ * extent instead of once per page, and gets its pages in larger contiguous
+ * pieces.
+ * <p>
+ * Pages between the last page handed out and the end of the file are
+ * preallocated: they are zero on disk and don't count as pages of the file.
+ * The number of pages handed out, the high-water mark, is what the DbFile
+ * reports as its number of pages. It is kept in a side file next to the data
+ * file together with the length the data file had when it was written. If
+ * the side file is missing or the recorded length doesn't match, e.g. for a
+ * file written by {@link HeapFileEncoder} or grown by an older version, every
+ * page in the file counts as used.
+ * <p>
+ * Pages are numbered from 0 here; the first page starts at a fixed offset
+ * in the file, which lets BTreeFile keep its root pointer page in front.
+ */
+public class ExtentAllocator {
+
+    /** Default number of pages the file grows by. */
+    public static final int DEFAULT_EXTENT_PAGES = 64;
+
+    /** Size of the side file: used pages and data file length. */
+    static final int HEADER_SIZE = 16;
+
+    private final File file;
+    private final PageChannel channel;
+    private final long base;
+    private final PageChannel meta;
+    private volatile int extentPages = DEFAULT_EXTENT_PAGES;
+    // 已分配出去的页数，-1表示还没从旁边的文件读入
+    private int used = -1;
+
+    /**
+     * @param file the data file
+     * @param channel the channel the DbFile does its I/O through
+     * @param base offset of the first page in the file
+     */
+    public ExtentAllocator(File file, PageChannel channel, long base) {
+        this.file = file;
+        this.channel = channel;
+        this.base = base;
+        this.meta = new PageChannel(getFile());
+    }
+
+    /** Returns the side file that holds the high-water mark. */
+    public File getFile() {
+        return new File(file.getPath() + ".alloc");
+    }
+
+    public int getExtentPages() {
+        return extentPages;
+    }
+
+    /**
+     * Set the number of pages the file grows by from now on.
+     */
+    public void setExtentPages(int extentPages) {
+        if (extentPages < 1) {
+            throw new IllegalArgumentException("extent must be at least one page");
+        }
+        this.extentPages = extentPages;
+    }
+
+    /**
+     * @return the number of pages handed out, which is the number of pages
+     *         of the file
+     */
+    public synchronized int getUsedPages() {
+        if (used < 0) {
+            used = load();
+        }
+        return used;
+    }
+
+    /**
+     * Hand out n new pages at the end of the file, growing the file by whole
+     * extents if they don't fit. The new pages are zero on disk.
+     *
+     * @return the number of the first new page
+     */
+    public synchronized int allocate(int n) throws IOException {
+        int first = getUsedPages();
+        long end = base + (long) (first + n) * BufferPool.getPageSize();
+        long length = file.length();
+        if (end > length) {
+            //按整个extent扩展文件，补零写满
+            long pages = (end - base + BufferPool.getPageSize() - 1) / BufferPool.getPageSize();
+            long extents = (pages + extentPages - 1) / extentPages;
+            long target = base + extents * extentPages * BufferPool.getPageSize();
+            channel.write(length, new byte[(int) (target - length)]);
+            length = target;
+        }
+        used = first + n;
+        store(length);
+        return first;
+    }
+
+    /**
+     * @return the number of pages the file has room for without growing
+     */
+    public synchronized int getAllocatedPages() {
+        return (int) Math.max(0, (file.length() - base) / BufferPool.getPageSize());
+    }
+
+    private int load() {
+        int pages = (int) Math.max(0, (file.length() - base) / BufferPool.getPageSize());
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(meta.read(0, HEADER_SIZE));
+            long recorded = buf.getLong();
+            if (buf.getLong() == file.length() && recorded <= pages) {
+                return (int) recorded;
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // 没有记录，文件里的页都算用过
+        }
+        return pages;
+    }
+
+    private void store(long length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+        buf.putLong(used).putLong(length);
+        meta.write(0, buf.array());
+    }
+
+    public void close() throws IOException {
+        meta.close();
+    }
+}
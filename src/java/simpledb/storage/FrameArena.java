@@ -0,0 +1,71 @@
+package simpledb.storage;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * FrameArena is a fixed set of off-heap page frames for the
+ * {@link BufferPool}: one direct {@link ByteBuffer} allocated up front and
+ * cut into page-sized frames. A page loaded into a frame keeps its bytes
+ * there instead of on the Java heap, so the memory the pool holds does not
+ * depend on the number of tuples cached and the garbage collector never has
+ * to trace or copy it.
+ * <p>
+ * Frames are handed out by {@link #acquire} and given back by
+ * {@link #release} when the page leaves the pool.
+ */
+public class FrameArena {
+
+    private final ByteBuffer arena;
+    private final int frameSize;
+    private final int numFrames;
+    // 空闲的帧
+    private final Deque<ByteBuffer> free;
+
+    public FrameArena(int numFrames, int frameSize) {
+        this.numFrames = numFrames;
+        this.frameSize = frameSize;
+        this.arena = ByteBuffer.allocateDirect(numFrames * frameSize);
+        this.free = new ArrayDeque<>(numFrames);
+        for (int i = 0; i < numFrames; i++) {
+            ByteBuffer view = arena.duplicate();
+            ((Buffer) view).limit((i + 1) * frameSize);
+            ((Buffer) view).position(i * frameSize);
+            free.add(view.slice());
+        }
+    }
+
+    /**
+     * Take a free frame.
+     *
+     * @return a frame of getFrameSize() bytes, or null if all of them are in use
+     */
+    public synchronized ByteBuffer acquire() {
+        return free.poll();
+    }
+
+    /**
+     * Give a frame back. Its contents may be overwritten right away.
+     */
+    public synchronized void release(ByteBuffer frame) {
+        if (free.size() >= numFrames) {
+            throw new IllegalStateException("more frames released than acquired");
+        }
+        free.push(frame);
+    }
+
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /** @return number of frames not holding a page */
+    public synchronized int getFreeFrames() {
+        return free.size();
+    }
+}
@@ -0,0 +1,152 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * FreeSpaceMap records roughly how many free slots each page of a
+ * {@link HeapFile} has, one byte per page capped at 255, so an insert can go
+ * straight to a page with room instead of trying every page from the start.
+ * <p>
+ * The map is a hint. Inserts check the page itself and correct the entry when
+ * it was wrong; an entry is set exactly whenever its page is read from or
+ * written to disk.
+ * <p>
+ * It is kept in a side file next to the heap file: a header with the length
+ * and modification time the heap file had when the map was last written,
+ * then the entries. A map whose header doesn't match the heap file, e.g. after
+ * a crash between writing a page and its entry, or after the heap file was
+ * rewritten, is rebuilt from the page headers.
+ */
+public class FreeSpaceMap {
+
+    /** Bytes before the first entry: heap file length and modification time. */
+    static final int HEADER_SIZE = 16;
+
+    private final PageChannel channel;
+    private byte[] free = new byte[0];
+    private int numPages;
+    // 第一个可能有空位的页，它前面的页都满了
+    private int firstFree;
+
+    public FreeSpaceMap(File mapFile) {
+        this.channel = new PageChannel(mapFile);
+    }
+
+    /**
+     * Read the map from its file.
+     *
+     * @return false if there is no map for the heap file as it is now, which
+     *         must then be rebuilt
+     */
+    public synchronized boolean load(long heapLength, long heapModified, int numPages) {
+        try {
+            byte[] header = channel.read(0, HEADER_SIZE);
+            ByteBuffer buf = ByteBuffer.wrap(header);
+            if (buf.getLong() != heapLength || buf.getLong() != heapModified) {
+                return false;
+            }
+            byte[] entries = numPages == 0 ? new byte[0] : channel.read(HEADER_SIZE, numPages);
+            free = entries;
+            this.numPages = numPages;
+            firstFree = 0;
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            // 文件不存在或者太短
+            return false;
+        }
+    }
+
+    /**
+     * Replace the whole map and write it out.
+     *
+     * @param freeSlots the number of free slots of every page
+     */
+    public synchronized void reset(int[] freeSlots, long heapLength, long heapModified) throws IOException {
+        free = new byte[freeSlots.length];
+        numPages = freeSlots.length;
+        for (int i = 0; i < freeSlots.length; i++) {
+            free[i] = encode(freeSlots[i]);
+        }
+        firstFree = 0;
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + numPages);
+        buf.putLong(heapLength).putLong(heapModified).put(free, 0, numPages);
+        channel.write(0, buf.array());
+    }
+
+    /** @return the recorded number of free slots of a page, at most 255 */
+    public synchronized int get(int pageNo) {
+        return pageNo < numPages ? free[pageNo] & 0xFF : 0;
+    }
+
+    /**
+     * Record the number of free slots of a page in memory.
+     */
+    public synchronized void set(int pageNo, int freeSlots) {
+        if (pageNo >= free.length) {
+            free = Arrays.copyOf(free, Math.max(pageNo + 1, free.length * 2));
+        }
+        numPages = Math.max(numPages, pageNo + 1);
+        free[pageNo] = encode(freeSlots);
+        if (freeSlots > 0 && pageNo < firstFree) {
+            firstFree = pageNo;
+        }
+    }
+
+    /**
+     * Record the free slots of pages just written to the heap file and write
+     * their entries, and the new state of the heap file, to the map file.
+     *
+     * @param pageNos pages written, in ascending order
+     */
+    public synchronized void written(int[] pageNos, int[] freeSlots, long heapLength, long heapModified)
+            throws IOException {
+        for (int i = 0; i < pageNos.length; i++) {
+            set(pageNos[i], freeSlots[i]);
+        }
+        if (pageNos.length > 0) {
+            int lo = pageNos[0];
+            int hi = pageNos[pageNos.length - 1];
+            channel.write(HEADER_SIZE + lo, Arrays.copyOfRange(free, lo, hi + 1));
+        }
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+        buf.putLong(heapLength).putLong(heapModified);
+        channel.write(0, buf.array());
+    }
+
+    /**
+     * @return the first page that has free slots according to the map, or -1
+     */
+    public synchronized int findPage() {
+        while (firstFree < numPages && free[firstFree] == 0) {
+            firstFree++;
+        }
+        return firstFree < numPages ? firstFree : -1;
+    }
+
+    /**
+     * @return the first page after pageNo that has free slots according to the map, or -1
+     */
+    public synchronized int findPage(int pageNo) {
+        for (int i = Math.max(pageNo + 1, firstFree); i < numPages; i++) {
+            if (free[i] != 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public synchronized int getNumPages() {
+        return numPages;
+    }
+
+    private static byte encode(int freeSlots) {
+        return (byte) Math.max(0, Math.min(255, freeSlots));
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
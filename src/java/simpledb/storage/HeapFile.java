@@ -4,10 +4,13 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -24,6 +27,19 @@ public class HeapFile implements DbFile {
 
     private File file;
     private TupleDesc tupleDesc;
+    // 整个HeapFile共用一个打开的FileChannel
+    private final PageChannel channel;
+    // 每页大约有多少空位，第一次用到时从旁边的.fsm文件读入或重建
+    private volatile FreeSpaceMap freeSpace;
+    // 文件按extent增长，记录用到了第几页
+    private final ExtentAllocator extents;
+    // DICT_TYPE字段的字典，第一次用到时从旁边的.dict文件读入
+    private volatile Dictionary dictionary;
+    // 行锁模式：插入删除只锁行，页只加IX锁，页内修改时持有页闩
+    private volatile boolean rowLocking;
+
+    /** Number of new pages insertTuples writes to the file with one call. */
+    static final int BULK_EXTENT_PAGES = 16;
 
     /**
      * 不要将所有tuple一次性放入内存
@@ -40,6 +56,8 @@ public class HeapFile implements DbFile {
         // some code goes here
         file = f;
         tupleDesc = td;
+        channel = new PageChannel(f);
+        extents = new ExtentAllocator(f, channel, 0);
     }
 
     /**
@@ -79,25 +97,40 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        long offset = pid.getPageNumber() * BufferPool.getPageSize();
-        byte[] data = new byte[BufferPool.getPageSize()];
+        long offset = (long) pid.getPageNumber() * BufferPool.getPageSize();
         try {
-            RandomAccessFile rFile = new RandomAccessFile(file, "r");
-            rFile.seek(offset);
-            for (int i = 0; i < BufferPool.getPageSize(); i++) {
-                data[i] = (byte) rFile.read();
-            }
+            byte[] data = channel.read(offset, BufferPool.getPageSize());
             int tableID = pid.getTableId();
             int pageNumber = pid.getPageNumber();
             HeapPageId hpid = new HeapPageId(tableID, pageNumber);
             HeapPage page = new HeapPage(hpid, data);
-            rFile.close();
+            getFreeSpaceMap().set(pageNumber, page.getNumEmptySlots());
             return page;
         } catch (Exception e) {
             return null;
         }
     }
 
+    /**
+     * Read a page into an off-heap frame of the BufferPool and return a
+     * HeapPage backed by it.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    public HeapPage readPage(PageId pid, ByteBuffer frame) {
+        long offset = (long) pid.getPageNumber() * BufferPool.getPageSize();
+        try {
+            ByteBuffer dst = frame.duplicate();
+            ((Buffer) dst).clear();
+            channel.readInto(offset, dst);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        HeapPage page = new HeapPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), frame);
+        getFreeSpaceMap().set(pid.getPageNumber(), page.getNumEmptySlots());
+        return page;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
@@ -105,21 +138,214 @@ public class HeapFile implements DbFile {
         if (pageNumber > numPages()) {
             throw new IllegalArgumentException("page is not in the heap file or page'id in wrong");
         }
+        if (pageNumber == numPages()) {
+            extents.allocate(1);
+        }
 
-        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
-        randomAccessFile.seek(pageNumber * BufferPool.getPageSize());
-        byte[] pageData = page.getPageData();
-        randomAccessFile.write(pageData);
-        randomAccessFile.close();
+        channel.write((long) pageNumber * BufferPool.getPageSize(), page.getPageData());
+        getFreeSpaceMap().written(new int[] {pageNumber}, new int[] {((HeapPage) page).getNumEmptySlots()},
+                file.length(), file.lastModified());
         // not necessary for lab1
     }
 
+    // see DbFile.java for javadocs
+    public List<Page> readPages(List<PageId> ids) {
+        //按页号排序，相邻的页一次读入
+        List<PageId> sorted = new ArrayList<>(ids);
+        sorted.sort(Comparator.comparingInt(PageId::getPageNumber));
+        long[] offsets = new long[sorted.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = (long) sorted.get(i).getPageNumber() * BufferPool.getPageSize();
+        }
+        Map<PageId, Page> read = new HashMap<>();
+        try {
+            byte[][] data = channel.readAll(offsets, BufferPool.getPageSize());
+            for (int i = 0; i < data.length; i++) {
+                HeapPageId hpid = new HeapPageId(getId(), sorted.get(i).getPageNumber());
+                HeapPage page = new HeapPage(hpid, data[i]);
+                getFreeSpaceMap().set(hpid.getPageNumber(), page.getNumEmptySlots());
+                read.put(sorted.get(i), page);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        List<Page> pages = new ArrayList<>(ids.size());
+        for (PageId id : ids) {
+            pages.add(read.get(id));
+        }
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        List<Page> sorted = new ArrayList<>(pages);
+        sorted.sort(Comparator.comparingInt(p -> p.getId().getPageNumber()));
+        long[] offsets = new long[sorted.size()];
+        byte[][] data = new byte[sorted.size()][];
+        int limit = numPages();
+        for (int i = 0; i < offsets.length; i++) {
+            int pageNumber = sorted.get(i).getId().getPageNumber();
+            //可以一次接着文件末尾追加多页
+            if (pageNumber > limit) {
+                throw new IllegalArgumentException("page is not in the heap file or page'id in wrong");
+            }
+            if (pageNumber == limit) {
+                extents.allocate(1);
+                limit++;
+            }
+            offsets[i] = (long) pageNumber * BufferPool.getPageSize();
+            data[i] = sorted.get(i).getPageData();
+        }
+        channel.writeAll(offsets, data);
+        int[] pageNos = new int[sorted.size()];
+        int[] freeSlots = new int[sorted.size()];
+        for (int i = 0; i < pageNos.length; i++) {
+            pageNos[i] = sorted.get(i).getId().getPageNumber();
+            freeSlots[i] = ((HeapPage) sorted.get(i)).getNumEmptySlots();
+        }
+        getFreeSpaceMap().written(pageNos, freeSlots, file.length(), file.lastModified());
+    }
+
+    /**
+     * Return the free-space map, loading it on first use. A missing or
+     * outdated map is rebuilt.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm == null) {
+            synchronized (this) {
+                fsm = freeSpace;
+                if (fsm == null) {
+                    fsm = new FreeSpaceMap(getFreeSpaceMapFile());
+                    if (!fsm.load(file.length(), file.lastModified(), numPages())) {
+                        rebuildFreeSpaceMap(fsm);
+                    }
+                    freeSpace = fsm;
+                }
+            }
+        }
+        return fsm;
+    }
+
+    /**
+     * Return the dictionary that the DICT_TYPE fields of this table are
+     * encoded with, kept in a side file next to this one.
+     */
+    public Dictionary getDictionary() {
+        Dictionary d = dictionary;
+        if (d == null) {
+            synchronized (this) {
+                d = dictionary;
+                if (d == null) {
+                    d = new Dictionary(getDictionaryFile(file));
+                    dictionary = d;
+                }
+            }
+        }
+        return d;
+    }
+
+    /** Returns the side file that holds the dictionary of a heap file. */
+    public static File getDictionaryFile(File f) {
+        return new File(f.getPath() + ".dict");
+    }
+
+    /** Returns the side file that holds the free-space map of this file. */
+    public File getFreeSpaceMapFile() {
+        return new File(file.getPath() + ".fsm");
+    }
+
+    /**
+     * Read at least the first len bytes of a page from disk, without going
+     * through the BufferPool.
+     */
+    protected byte[] readPageBytes(int pageNumber, int len) throws IOException {
+        return channel.read((long) pageNumber * BufferPool.getPageSize(), len);
+    }
+
+    /**
+     * Rebuild the free-space map from the headers of the pages on disk.
+     * Called by recovery, which may have changed pages behind the map's back.
+     */
+    public void rebuildFreeSpaceMap() {
+        rebuildFreeSpaceMap(getFreeSpaceMap());
+    }
+
+    private void rebuildFreeSpaceMap(FreeSpaceMap fsm) {
+        int pages = numPages();
+        int[] freeSlots = new int[pages];
+        //不是slotted页时只需要读页头的bitmap
+        int len = HeapPage.isSlotted(tupleDesc) ? BufferPool.getPageSize()
+                : ((BufferPool.getPageSize() * 8) / (tupleDesc.getSize() * 8 + 1) + 7) / 8;
+        try {
+            for (int i = 0; i < pages; i++) {
+                byte[] data = Arrays.copyOf(readPageBytes(i, len), BufferPool.getPageSize());
+                freeSlots[i] = HeapPage.countEmptySlots(tupleDesc, data);
+            }
+            fsm.reset(freeSlots, file.length(), file.lastModified());
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to rebuild the free-space map of " + file, e);
+        }
+    }
+
+    /**
+     * Serve page reads from a memory mapping of the file instead of read
+     * calls. Meant for large tables that are mostly read: a clean page
+     * evicted from the BufferPool is re-read with a copy from the mapping.
+     * The file must not be truncated while it is mapped.
+     */
+    public void setMemoryMapped(boolean mapped) {
+        channel.setMapped(mapped);
+    }
+
+    public boolean isMemoryMapped() {
+        return channel.isMapped();
+    }
+
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
         // some code goes here
-        return (int) file.length() / BufferPool.getPageSize();
+        return extents.getUsedPages();
+    }
+
+    /**
+     * Add n empty pages at the end of this file. The file grows by whole
+     * extents; see {@link ExtentAllocator}.
+     *
+     * @return the number of the first new page
+     */
+    public int allocatePages(int n) throws IOException {
+        return extents.allocate(n);
+    }
+
+    /**
+     * Turn row locking on or off. With it, inserting or deleting a tuple
+     * locks just its row X, and the table and the page IX, instead of the
+     * whole page, and changes the page under its latch, so transactions
+     * changing different rows of one page don't block each other. Scans
+     * still lock the table or its pages S, so they wait for the writers.
+     *
+     * @throws UnsupportedOperationException if the table has variable-length
+     *         fields: the rows of a slotted page share its free space, so the
+     *         row a transaction deleted might not fit back if it aborts
+     * @see BufferPool#getPageForRows
+     */
+    public void setRowLocking(boolean rowLocking) {
+        if (rowLocking && HeapPage.isSlotted(tupleDesc)) {
+            throw new UnsupportedOperationException("row locking needs fixed-length tuples");
+        }
+        this.rowLocking = rowLocking;
+    }
+
+    public boolean isRowLocking() {
+        return rowLocking;
+    }
+
+    /** Returns the allocator that grows this file, e.g. to set its extent size. */
+    public ExtentAllocator getExtentAllocator() {
+        return extents;
     }
 
     // see DbFile.java for javadocs
@@ -150,46 +376,187 @@ public class HeapFile implements DbFile {
 //        list.add(page);
 //        return list;
         // not necessary for lab1
+        if (rowLocking) {
+            return insertRow(tid, t);
+        }
         ArrayList<Page> list = new ArrayList<>();
         BufferPool pool = Database.getBufferPool();
         int tableid = getId();
-        for (int i = 0; i < numPages(); ++i) {
+        //只试空闲空间表里有空位的页，表记错了就顺手改正
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        for (int i = fsm.findPage(); i >= 0 && i < numPages(); i = fsm.findPage(i)) {
             HeapPage page = (HeapPage) pool.getPage(tid, new HeapPageId(tableid, i), Permissions.READ_WRITE);
-            if (page.getNumEmptySlots() > 0) {
+            int empty = page.getNumEmptySlots();
+            if (empty > 0) {
                 page.insertTuple(t);
                 page.markDirty(true, tid);
+                fsm.set(i, empty - 1);
                 list.add(page);
                 return list;
             } else {
+                fsm.set(i, 0);
                 Database.getBufferPool().unsafeReleasePage(tid, new HeapPageId(getId(), i));
             }
         }
 
-        HeapPage page = new HeapPage(new HeapPageId(tableid, numPages()), HeapPage.createEmptyPageData());
+        HeapPage page = new HeapPage(new HeapPageId(tableid, allocatePages(1)), HeapPage.createEmptyPageData());
         page.insertTuple(t);
         writePage(page);
         list.add(page);
         return list;
     }
 
+    /**
+     * Inserts the tuples like {@link #insertTuple}, filling each page before
+     * moving to the next. Pages the free-space map says have room are locked
+     * once and filled; the remaining tuples go to new pages that are filled
+     * in memory and written BULK_EXTENT_PAGES at a time with one write.
+     */
+    public List<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        List<Page> list = new ArrayList<>();
+        if (rowLocking) {
+            //逐行加锁插入，新页也要经过缓冲池，别的事务才能同时往里插
+            while (tuples.hasNext()) {
+                for (Page page : insertRow(tid, tuples.next())) {
+                    if (!list.contains(page)) {
+                        list.add(page);
+                    }
+                }
+            }
+            return list;
+        }
+        BufferPool pool = Database.getBufferPool();
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        Tuple t = tuples.hasNext() ? tuples.next() : null;
+        //先填满已有的有空位的页，每页只加一次锁
+        for (int i = fsm.findPage(); t != null && i >= 0 && i < numPages(); i = fsm.findPage(i)) {
+            HeapPageId pid = new HeapPageId(getId(), i);
+            HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.getNumEmptySlots() == 0) {
+                fsm.set(i, 0);
+                pool.unsafeReleasePage(tid, pid);
+                continue;
+            }
+            while (t != null && page.getNumEmptySlots() > 0) {
+                page.insertTuple(t);
+                t = tuples.hasNext() ? tuples.next() : null;
+            }
+            page.markDirty(true, tid);
+            fsm.set(i, page.getNumEmptySlots());
+            list.add(page);
+        }
+
+        //剩下的装进新页，攒满一批一起追加到文件末尾
+        List<Page> extent = new ArrayList<>(BULK_EXTENT_PAGES);
+        while (t != null) {
+            HeapPage page = new HeapPage(new HeapPageId(getId(), allocatePages(1)), HeapPage.createEmptyPageData());
+            while (t != null && page.getNumEmptySlots() > 0) {
+                page.insertTuple(t);
+                t = tuples.hasNext() ? tuples.next() : null;
+            }
+            extent.add(page);
+            if (extent.size() == BULK_EXTENT_PAGES || t == null) {
+                writePages(extent);
+                list.addAll(extent);
+                extent.clear();
+            }
+        }
+        return list;
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
+        if (rowLocking) {
+            return deleteRow(tid, t);
+        }
         ArrayList<Page> list = new ArrayList<>();
         HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
         page.deleteTuple(t);
+        getFreeSpaceMap().set(page.getId().getPageNumber(), page.getNumEmptySlots());
         list.add(page);
         return list;
         // not necessary for lab1
     }
 
+    /**
+     * Insert t into a free slot that no other transaction has locked, locking
+     * its row; see {@link #setRowLocking}. A slot freed by a delete that
+     * isn't committed yet stays free for the deleted tuple.
+     */
+    private ArrayList<Page> insertRow(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        while (true) {
+            for (int i = fsm.findPage(); i >= 0 && i < numPages(); i = fsm.findPage(i)) {
+                HeapPage page = (HeapPage) pool.getPageForRows(tid, new HeapPageId(getId(), i));
+                //页闩只在找空位和修改时持有，等锁都在闩外
+                synchronized (page) {
+                    for (int slot = 0; slot < page.numSlots; slot++) {
+                        if (!page.isSlotUsed(slot) && pool.tryLockRow(tid, new RecordId(page.getId(), slot))) {
+                            page.insertTuple(t, slot);
+                            pool.rowInserted(tid, page, t);
+                            fsm.set(i, page.getNumEmptySlots());
+                            ArrayList<Page> list = new ArrayList<>();
+                            list.add(page);
+                            return list;
+                        }
+                    }
+                    if (page.getNumEmptySlots() == 0) {
+                        fsm.set(i, 0);
+                    }
+                }
+            }
+            //没有能用的空位，在文件末尾加一个空页，和其他事务一起往里插
+            int pageNo = allocatePages(1);
+            writePage(new HeapPage(new HeapPageId(getId(), pageNo), HeapPage.createEmptyPageData()));
+        }
+    }
+
+    /** Delete t under a lock on its row; see {@link #setRowLocking}. */
+    private ArrayList<Page> deleteRow(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()) {
+            throw new DbException("tuple is not in this table");
+        }
+        BufferPool pool = Database.getBufferPool();
+        pool.lockRow(tid, rid, Permissions.READ_WRITE);
+        HeapPage page = (HeapPage) pool.getPageForRows(tid, rid.getPageId());
+        synchronized (page) {
+            int slot = rid.getTupleNumber();
+            if (slot < 0 || slot >= page.numSlots || !page.isSlotUsed(slot)) {
+                throw new DbException("can't find tuple in the page");
+            }
+            Tuple before = page.copyTuple(slot);
+            page.deleteTuple(t);
+            pool.rowDeleted(tid, page, before);
+            getFreeSpaceMap().set(page.getId().getPageNumber(), page.getNumEmptySlots());
+        }
+        ArrayList<Page> list = new ArrayList<>();
+        list.add(page);
+        return list;
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
         return new MyIterator(tid, Permissions.READ_ONLY);
     }
 
+    /**
+     * Returns an iterator over the tuples that satisfy predicate. Pages only
+     * decode the predicate's field of the tuples that don't.
+     *
+     * @see HeapPage#iterator(Predicate)
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate predicate) {
+        return new MyIterator(tid, Permissions.READ_ONLY, predicate);
+    }
+
 
     public class MyIterator implements DbFileIterator {
         TransactionId tid;
@@ -197,10 +564,20 @@ public class HeapFile implements DbFile {
         BufferPool bufferPool = Database.getBufferPool();
         Iterator<Tuple> iterator;
         int num = 0;
+        // 顺序扫描，开启预读时会预取后面的页
+        // 当前页一直被pin住，直到读下一页或close
+        ReadAhead.Stream stream;
+        // 只返回满足条件的tuple，为null时返回全部
+        final Predicate predicate;
 
         public MyIterator(TransactionId tid, Permissions permissions) {
+            this(tid, permissions, null);
+        }
+
+        public MyIterator(TransactionId tid, Permissions permissions, Predicate predicate) {
             this.tid = tid;
             this.permissions = permissions;
+            this.predicate = predicate;
         }
 
         @Override
@@ -208,12 +585,19 @@ public class HeapFile implements DbFile {
 
             num = 0;
             HeapPageId heapPageId = new HeapPageId(getId(), num);
+            if (stream != null) {
+                stream.close();
+            }
+            stream = bufferPool.newReadAheadStream(p -> {
+                int nextPage = p.getId().getPageNumber() + 1;
+                return nextPage < numPages() ? new HeapPageId(getId(), nextPage) : null;
+            });
 
-            HeapPage page = (HeapPage) bufferPool.getPage(tid, heapPageId, permissions);
+            HeapPage page = (HeapPage) stream.fetch(tid, heapPageId, permissions);
             if (page == null) {
                 throw new DbException("null");
             } else {
-                iterator = page.iterator();
+                iterator = page.iterator(predicate);
             }
         }
 
@@ -224,11 +608,11 @@ public class HeapFile implements DbFile {
                     return false;
                 }
                 HeapPageId heapPageId = new HeapPageId(getId(), num);
-                HeapPage page = (HeapPage) bufferPool.getPage(tid, heapPageId, permissions);
+                HeapPage page = (HeapPage) stream.fetch(tid, heapPageId, permissions);
                 if (page == null) {
                     continue;
                 }
-                iterator = page.iterator();
+                iterator = page.iterator(predicate);
                 if (iterator.hasNext()) {
                     return true;
                 }
@@ -263,6 +647,9 @@ public class HeapFile implements DbFile {
         @Override
         public void close() {
             iterator = null;
+            if (stream != null) {
+                stream.close();
+            }
         }
     }
 
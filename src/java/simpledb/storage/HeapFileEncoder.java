@@ -68,6 +68,26 @@ public class HeapFileEncoder {
       convert(inFile,outFile,npagebytes,numFields,typeAr,',');
   }
 
+  /**
+   * Convert the specified input text file like
+   * {@link #convert(File, File, int, int, Type[], char)}, writing a
+   * {@link CompressedHeapFile} and its index if compress is set.
+   */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, boolean compress)
+      throws IOException {
+      if (!compress) {
+          convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+          return;
+      }
+      File heapFile = File.createTempFile("tempTable", ".dat");
+      heapFile.deleteOnExit();
+      convert(inFile, heapFile, npagebytes, numFields, typeAr, fieldSeparator);
+      CompressedHeapFile.compress(heapFile, outFile, npagebytes);
+      heapFile.delete();
+      HeapFile.getDictionaryFile(heapFile).delete();
+  }
+
    /** Convert the specified input text file into a binary
     * page file. <br>
     * Assume format of the input file is (note that only integer fields are
@@ -93,6 +113,19 @@ public class HeapFileEncoder {
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
 
+      // 字典编码的字段从新字典开始
+      Dictionary dictionary = null;
+      if (Arrays.asList(typeAr).contains(Type.DICT_TYPE)) {
+          File dictionaryFile = HeapFile.getDictionaryFile(outFile);
+          dictionaryFile.delete();
+          dictionary = new Dictionary(dictionaryFile);
+      }
+
+      if (HeapPage.isSlotted(new TupleDesc(typeAr))) {
+          convertSlotted(inFile, outFile, npagebytes, typeAr, fieldSeparator, dictionary);
+          return;
+      }
+
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
           nrecbytes += typeAr[i].getLen();
@@ -158,6 +191,13 @@ public class HeapFileEncoder {
                 while (overflow-- > 0)
                     pageStream.write((byte)0);
             }
+            else   if (typeAr[fieldNo] == Type.DICT_TYPE) {
+                s = s.trim();
+                if (s.length() > Type.STRING_LEN) {
+                    s = s.substring(0, Type.STRING_LEN);
+                }
+                pageStream.writeInt(dictionary.encode(s).getCode());
+            }
             curpos = 0;
             if (c == '\n')
                 fieldNo = 0;
@@ -224,4 +264,60 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /**
+   * Convert a text file of a table with variable-length fields into slotted
+   * pages, see {@link HeapPage}; each page gets as many records as fit.
+   */
+  private static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 Type[] typeAr, char fieldSeparator, Dictionary dictionary) throws IOException {
+      TupleDesc td = new TupleDesc(typeAr);
+      int nslots = HeapPage.slottedNumSlots(td, npagebytes);
+      String separator = java.util.regex.Pattern.quote(String.valueOf(fieldSeparator));
+      byte[][] records = new byte[nslots][];
+      int nrecords = 0;
+      int nrecbytes = 0;
+      int npages = 0;
+
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.trim().isEmpty())
+              continue;
+          String[] values = line.split(separator, -1);
+          Tuple t = new Tuple(td);
+          try {
+              for (int i = 0; i < typeAr.length; i++) {
+                  String s = values[i].trim();
+                  if (typeAr[i] == Type.INT_TYPE)
+                      t.setField(i, new IntField(Integer.parseInt(s)));
+                  else if (typeAr[i] == Type.DICT_TYPE)
+                      t.setField(i, dictionary.encode(s.length() > Type.STRING_LEN ? s.substring(0, Type.STRING_LEN) : s));
+                  else
+                      t.setField(i, new StringField(s, Type.STRING_LEN, typeAr[i]));
+              }
+          } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+              System.out.println ("BAD LINE : " + line);
+              continue;
+          }
+          byte[] record = HeapPage.encodeRecord(td, t);
+          // start a new page if the record or its slot entry doesn't fit
+          if (nrecords == nslots || HeapPage.SLOT_COUNT_SIZE + (nrecords + 1) * HeapPage.SLOT_ENTRY_SIZE
+                  + nrecbytes + record.length > npagebytes) {
+              os.write(HeapPage.createSlottedPageData(records, npagebytes));
+              npages++;
+              records = new byte[nslots][];
+              nrecords = 0;
+              nrecbytes = 0;
+          }
+          records[nrecords++] = record;
+          nrecbytes += record.length;
+      }
+      // flush the last page, or an empty page if the file is empty
+      if (nrecords > 0 || npages == 0)
+          os.write(HeapPage.createSlottedPageData(records, npagebytes));
+      br.close();
+      os.close();
+  }
 }
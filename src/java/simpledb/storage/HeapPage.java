@@ -4,14 +4,44 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Tuples are decoded lazily: the page keeps the bytes it was created from
+ * and parses a tuple the first time the iterator reaches it, or just one
+ * field of it when a {@link Predicate} is checked with
+ * {@link #iterator(Predicate)} or {@link #getField}. Creating a page only
+ * copies its header.
+ * <p>
+ * The bytes a page decodes from are never written: until the page is
+ * committed they are also its before-image, so reading a page costs no copy
+ * for recovery. {@link #setBeforeImage} replaces them with the committed
+ * contents.
+ * <p>
+ * A page loaded into an off-heap frame of the BufferPool's
+ * {@link FrameArena} keeps the frame as its before-image and decodes the
+ * tuples of slots it hasn't modified from it each time they are read, so only
+ * the header and the tuples inserted since the last commit live on the heap.
+ * When the page leaves the pool it copies the frame onto the heap before the
+ * frame is reused.
+ * <p>
+ * Pages of tables with a variable-length field, see
+ * {@link Type#isVariableLength}, are slotted: instead of the header bitmap
+ * and fixed-size slots, the page starts with the number of slot entries
+ * followed by one (offset, length) entry per slot, 0 for an empty slot, and
+ * the records, which keep only the bytes their fields use, are packed at the
+ * end of the page. Record ids stay slot numbers; the records are compacted
+ * every time the page is written.
  *
  * @see HeapFile
  * @see BufferPool
@@ -22,11 +52,33 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte[] header;
-    final Tuple[] tuples;
+    // 已解码或插入的tuple，其余的用到时从source解码；帧模式下只存放插入的tuple
+    Tuple[] tuples;
     final int numSlots;
 
-    byte[] oldData;
-    private final Byte oldDataLock= (byte) 0;
+    /** Bytes at the start of a slotted page holding the number of slot entries. */
+    static final int SLOT_COUNT_SIZE = 2;
+    /** Bytes of a slot entry of a slotted page: the record's offset and length. */
+    static final int SLOT_ENTRY_SIZE = 4;
+
+    // 有变长字段时按slotted格式存放，header只在内存中表示哪些slot在用
+    private final boolean slotted;
+    // slotted格式下每个slot的记录在source中的位置，0表示没有
+    private int[] recordOffsets;
+    // slotted格式下每个在用slot的记录长度，以及它们的总和
+    private int[] recordLengths;
+    private int recordBytes;
+
+    // 页上次读入或提交时的内容，也就是before image；没解码过的slot从这里解码
+    private ByteBuffer source;
+    // 页建在堆外帧上：提交时把内容写回帧而不是换成新数组，解码出的tuple不保留
+    private final boolean offHeap;
+    // source还是缓冲池的帧，而不是离开缓冲池后复制到堆上的副本
+    private boolean framed;
+    private final Object frameLock = new Object();
+
+    // DICT_TYPE字段所在表的字典，其他字段为null；没有DICT_TYPE字段时整个为null
+    private final Dictionary[] dictionaries;
 
     private boolean dirty;
 
@@ -51,25 +103,133 @@ public class HeapPage implements Page {
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.slotted = isSlotted(td);
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.dictionaries = dictionaries(id.getTableId(), td);
+        source = ByteBuffer.wrap(data);
+        offHeap = false;
+        // read the header slots of this page; tuples are decoded when used
+        if (slotted) {
+            header = new byte[getHeaderSize()];
+            readSlotDirectory();
+        } else {
+            header = Arrays.copyOf(data, getHeaderSize());
+        }
+    }
 
-        // allocate and read the header slots of this page
+    /**
+     * Create a HeapPage on an off-heap frame holding the page as read from
+     * disk. The frame becomes the before-image of the page; tuples are
+     * decoded from it when read.
+     *
+     * @see #detachFrame
+     */
+    public HeapPage(HeapPageId id, ByteBuffer frame) {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.slotted = isSlotted(td);
+        this.numSlots = getNumTuples();
+        this.dictionaries = dictionaries(id.getTableId(), td);
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        source = frame;
+        framed = true;
+        offHeap = true;
+        if (slotted) {
+            readSlotDirectory();
+        } else {
+            for (int i = 0; i < header.length; i++) {
+                header[i] = frame.get(i);
+            }
         }
-        dis.close();
+    }
 
-        setBeforeImage();
+    /** Returns true if pages of tables with this TupleDesc are slotted. */
+    static boolean isSlotted(TupleDesc td) {
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i).isVariableLength()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the dictionary of each DICT_TYPE field of the table, or null if
+     * the table has none.
+     */
+    private static Dictionary[] dictionaries(int tableId, TupleDesc td) {
+        Dictionary[] ds = null;
+        Dictionary dictionary = null;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) != Type.DICT_TYPE) {
+                continue;
+            }
+            if (dictionary == null) {
+                DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+                if (!(file instanceof HeapFile)) {
+                    throw new UnsupportedOperationException("only heap files support dictionary-encoded fields");
+                }
+                //一张表的所有DICT_TYPE字段共用一个字典
+                dictionary = ((HeapFile) file).getDictionary();
+                ds = new Dictionary[td.numFields()];
+            }
+            ds[i] = dictionary;
+        }
+        return ds;
+    }
+
+    /** Decode field j of a tuple at offset in source. Must hold frameLock. */
+    private Field parseField(int j, int offset) {
+        if (dictionaries != null && dictionaries[j] != null) {
+            return dictionaries[j].get(source.getInt(offset));
+        }
+        return td.getFieldType(j).parse(source, offset);
+    }
+
+    /**
+     * Replace the strings of DICT_TYPE fields of t that aren't fields of the
+     * table's dictionary by their dictionary fields, adding them if needed.
+     */
+    private void encodeDictFields(Tuple t) {
+        if (dictionaries == null) {
+            return;
+        }
+        for (int j = 0; j < dictionaries.length; j++) {
+            Field f = t.getField(j);
+            if (dictionaries[j] != null && !(f instanceof DictField && ((DictField) f).getDictionary() == dictionaries[j])) {
+                t.setField(j, dictionaries[j].encode(((StringField) f).getValue()));
+            }
+        }
+    }
+
+    /** The number of slots of a slotted page: as many as records of the shortest length fit. */
+    static int slottedNumSlots(TupleDesc td, int pageSize) {
+        int minLen = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            Type type = td.getFieldType(i);
+            //变长字段最短只有长度前缀
+            minLen += type.isVariableLength() ? type.getStoredLen(ByteBuffer.allocate(4), 0) : type.getLen();
+        }
+        return (pageSize - SLOT_COUNT_SIZE) / (minLen + SLOT_ENTRY_SIZE);
+    }
+
+    /** Fill header and the record offsets and lengths from the slot directory in source. */
+    private void readSlotDirectory() {
+        recordOffsets = new int[numSlots];
+        recordLengths = new int[numSlots];
+        recordBytes = 0;
+        Arrays.fill(header, (byte) 0);
+        int count = Math.min(source.getShort(0) & 0xFFFF, numSlots);
+        for (int i = 0; i < count; i++) {
+            int offset = source.getShort(SLOT_COUNT_SIZE + i * SLOT_ENTRY_SIZE) & 0xFFFF;
+            if (offset == 0) {
+                continue;
+            }
+            recordOffsets[i] = offset;
+            recordLengths[i] = source.getShort(SLOT_COUNT_SIZE + i * SLOT_ENTRY_SIZE + 2) & 0xFFFF;
+            recordBytes += recordLengths[i];
+            header[i / 8] |= (byte) (1 << (i % 8));
+        }
     }
 
     /** Retrieve the number of tuples on this page.
@@ -77,6 +237,9 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {        
         // some code goes here
+        if (slotted) {
+            return slottedNumSlots(td, BufferPool.getPageSize());
+        }
         return (int) Math.floor((BufferPool.getPageSize() * 8.0) / (td.getSize() * 8.0 + 1.0));
 
     }
@@ -96,10 +259,10 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
-            synchronized(oldDataLock)
-            {
-                oldDataRef = oldData;
+            byte[] oldDataRef;
+            synchronized (frameLock) {
+                //堆上的source不会被改写，可以直接共用
+                oldDataRef = offHeap ? copySource() : source.array();
             }
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
@@ -111,52 +274,146 @@ public class HeapPage implements Page {
     }
     
     public void setBeforeImage() {
-        synchronized(oldDataLock)
-        {
-        oldData = getPageData().clone();
+        if (offHeap) {
+            //帧模式下把当前内容写回source，之后所有slot都从source解码
+            byte[] data = getPageData();
+            synchronized (frameLock) {
+                ByteBuffer dst = source.duplicate();
+                ((Buffer) dst).clear();
+                dst.put(data);
+                if (slotted) {
+                    readSlotDirectory();
+                }
+            }
+            tuples = null;
+            return;
+        }
+        byte[] data = getPageData();
+        synchronized (frameLock) {
+            source = ByteBuffer.wrap(data);
+            if (slotted) {
+                //写出时记录被压紧了，位置都变了
+                readSlotDirectory();
+            }
         }
     }
 
     /**
-     * @return the PageId associated with this page.
+     * Give up the off-heap frame: copy it onto the heap so the page stays
+     * usable, and return it to be reused.
+     *
+     * @return the frame, or null if the page doesn't own one
      */
-    public HeapPageId getId() {
-    // some code goes here
-    return pid;
+    @Override
+    public ByteBuffer detachFrame() {
+        synchronized (frameLock) {
+            if (!framed) {
+                return null;
+            }
+            ByteBuffer frame = source;
+            source = ByteBuffer.wrap(copySource());
+            framed = false;
+            return frame;
+        }
+    }
+
+    /** Return a copy of the before-image held in source */
+    private byte[] copySource() {
+        synchronized (frameLock) {
+            byte[] data = new byte[source.capacity()];
+            ByteBuffer src = source.duplicate();
+            ((Buffer) src).clear();
+            src.get(data);
+            return data;
+        }
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Return the tuple in a used slot, decoding it from source if it wasn't
+     * decoded or modified yet. Off-heap pages don't keep what they decode.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
+    private Tuple getTuple(int slotId) {
+        Tuple[] ts = tuples;
+        if (ts != null && ts[slotId] != null) {
+            return ts[slotId];
+        }
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        synchronized (frameLock) {
+            int offset = slotted ? recordOffsets[slotId] : header.length + slotId * td.getSize();
+            for (int j = 0; j < td.numFields(); j++) {
+                Type type = td.getFieldType(j);
+                t.setField(j, parseField(j, offset));
+                offset += slotted ? type.getStoredLen(source, offset) : type.getLen();
+            }
+            if (!offHeap && isSlotUsed(slotId)) {
+                if (tuples == null) {
+                    tuples = new Tuple[numSlots];
+                }
+                if (tuples[slotId] != null) {
+                    return tuples[slotId];
                 }
+                tuples[slotId] = t;
             }
-            return null;
         }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+    /**
+     * Return a copy of the tuple in a used slot, which stays the same when
+     * the slot is changed; used to undo a delete.
+     *
+     * @throws NoSuchElementException if the slot is empty
+     */
+    Tuple copyTuple(int slotId) {
+        if (slotId < 0 || slotId >= numSlots || !isSlotUsed(slotId)) {
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        }
+        Tuple t = getTuple(slotId);
+        Tuple copy = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++) {
+            copy.setField(j, t.getField(j));
+        }
+        copy.setRecordId(new RecordId(pid, slotId));
+        return copy;
+    }
+
+    /**
+     * Return one field of the tuple in a used slot without decoding the rest
+     * of the tuple.
+     *
+     * @throws NoSuchElementException if the slot is empty
+     */
+    public Field getField(int slotId, int fieldIndex) {
+        if (slotId < 0 || slotId >= numSlots || !isSlotUsed(slotId)) {
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        }
+        Tuple[] ts = tuples;
+        if (ts != null && ts[slotId] != null) {
+            return ts[slotId].getField(fieldIndex);
+        }
+        synchronized (frameLock) {
+            if (slotted) {
+                int offset = recordOffsets[slotId];
+                for (int j = 0; j < fieldIndex; j++) {
+                    offset += td.getFieldType(j).getStoredLen(source, offset);
+                }
+                return parseField(fieldIndex, offset);
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+            int offset = header.length + slotId * td.getSize();
+            for (int j = 0; j < fieldIndex; j++) {
+                offset += td.getFieldType(j).getLen();
+            }
+            return parseField(fieldIndex, offset);
         }
+    }
 
-        return t;
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+    // some code goes here
+    return pid;
     }
 
     /**
@@ -171,6 +428,9 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
+        if (slotted) {
+            return getSlottedPageData();
+        }
         int len = BufferPool.getPageSize();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
@@ -186,7 +446,7 @@ public class HeapPage implements Page {
         }
 
         // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        for (int i=0; i<numSlots; i++) {
 
             // empty slot
             if (!isSlotUsed(i)) {
@@ -202,8 +462,18 @@ public class HeapPage implements Page {
             }
 
             // non-empty slot
+            Tuple[] ts = tuples;
+            if (ts == null || ts[i] == null) {
+                //没解码过的slot直接复制原来的字节
+                try {
+                    writeSlot(dos, i);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
+                Field f = ts[i].getField(j);
                 try {
                     f.serialize(dos);
                 
@@ -214,7 +484,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * numSlots); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -231,6 +501,142 @@ public class HeapPage implements Page {
         return baos.toByteArray();
     }
 
+    /** Build a slotted page from the records of the used slots, packed at the end. */
+    private byte[] getSlottedPageData() {
+        byte[][] records = new byte[numSlots][];
+        Tuple[] ts = tuples;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                continue;
+            }
+            if (ts != null && ts[i] != null) {
+                records[i] = encodeRecord(td, ts[i]);
+                continue;
+            }
+            //没解码过的slot直接复制原来的记录
+            records[i] = new byte[recordLengths[i]];
+            synchronized (frameLock) {
+                ByteBuffer src = source.duplicate();
+                ((Buffer) src).clear();
+                ((Buffer) src).position(recordOffsets[i]);
+                src.get(records[i]);
+            }
+        }
+        return createSlottedPageData(records, BufferPool.getPageSize());
+    }
+
+    /**
+     * Return a slotted page holding the given records, records[i] in slot i
+     * or nothing for null.
+     */
+    static byte[] createSlottedPageData(byte[][] records, int pageSize) {
+        byte[] data = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int count = 0;
+        for (int i = 0; i < records.length; i++) {
+            if (records[i] != null) {
+                count = i + 1;
+            }
+        }
+        buf.putShort(0, (short) count);
+        int end = data.length;
+        for (int i = 0; i < count; i++) {
+            if (records[i] == null) {
+                continue;
+            }
+            end -= records[i].length;
+            System.arraycopy(records[i], 0, data, end, records[i].length);
+            buf.putShort(SLOT_COUNT_SIZE + i * SLOT_ENTRY_SIZE, (short) end);
+            buf.putShort(SLOT_COUNT_SIZE + i * SLOT_ENTRY_SIZE + 2, (short) records[i].length);
+        }
+        return data;
+    }
+
+    /**
+     * Return the record of t on a slotted page: each field as serialized,
+     * variable-length ones without their padding.
+     */
+    static byte[] encodeRecord(TupleDesc td, Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                Type type = td.getFieldType(j);
+                ByteArrayOutputStream field = new ByteArrayOutputStream(type.getLen());
+                t.getField(j).serialize(new DataOutputStream(field));
+                byte[] bytes = field.toByteArray();
+                baos.write(bytes, 0, type.getStoredLen(ByteBuffer.wrap(bytes), 0));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Return the number of empty slots of a page of a table with the given
+     * TupleDesc, like {@link #getNumEmptySlots}, from the bytes of the page.
+     */
+    static int countEmptySlots(TupleDesc td, byte[] data) {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        if (!isSlotted(td)) {
+            int slots = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+            int used = 0;
+            for (int slot = 0; slot < slots; slot++) {
+                if ((data[slot / 8] & (1 << (slot % 8))) != 0) {
+                    used++;
+                }
+            }
+            return slots - used;
+        }
+        int slots = slottedNumSlots(td, BufferPool.getPageSize());
+        int count = Math.min(buf.getShort(0) & 0xFFFF, slots);
+        int used = 0;
+        int bytes = 0;
+        for (int i = 0; i < count; i++) {
+            if ((buf.getShort(SLOT_COUNT_SIZE + i * SLOT_ENTRY_SIZE) & 0xFFFF) != 0) {
+                used++;
+                bytes += buf.getShort(SLOT_COUNT_SIZE + i * SLOT_ENTRY_SIZE + 2) & 0xFFFF;
+            }
+        }
+        return slottedEmptySlots(td, slots - used, count, bytes);
+    }
+
+    /**
+     * The empty slots of a slotted page that records of the longest length
+     * are sure to fit in, given its free slots, slot entries and record bytes.
+     */
+    private static int slottedEmptySlots(TupleDesc td, int freeSlots, int entries, int bytes) {
+        int free = BufferPool.getPageSize() - SLOT_COUNT_SIZE - entries * SLOT_ENTRY_SIZE - bytes;
+        return Math.max(0, Math.min(freeSlots, free / (td.getSize() + SLOT_ENTRY_SIZE)));
+    }
+
+    /** Return the number of slot entries a slotted page needs: one past the last used slot. */
+    private int slotEntries() {
+        for (int i = numSlots - 1; i >= 0; i--) {
+            if (isSlotUsed(i)) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /** Copy the bytes of a slot in source to dos */
+    private void writeSlot(DataOutputStream dos, int slotId) throws IOException {
+        int offset = header.length + slotId * td.getSize();
+        synchronized (frameLock) {
+            if (source.hasArray()) {
+                dos.write(source.array(), source.arrayOffset() + offset, td.getSize());
+                return;
+            }
+            byte[] data = new byte[td.getSize()];
+            ByteBuffer src = source.duplicate();
+            ((Buffer) src).clear();
+            ((Buffer) src).position(offset);
+            src.get(data);
+            dos.write(data);
+        }
+    }
+
     /**
      * Static method to generate a byte array corresponding to an empty
      * HeapPage.
@@ -258,8 +664,14 @@ public class HeapPage implements Page {
         RecordId recordId = t.getRecordId();
         int tupleIndex = recordId.getTupleNumber();
         if (recordId != null && pid.equals(recordId.getPageId())) {
-            if (tupleIndex < getNumTuples() && isSlotUsed(tupleIndex)) {
-                tuples[tupleIndex] = null;
+            if (tupleIndex < numSlots && isSlotUsed(tupleIndex)) {
+                if (slotted) {
+                    //tuple留在tuples中，迭代器还可能读到它
+                    recordBytes -= recordLengths[tupleIndex];
+                    recordLengths[tupleIndex] = 0;
+                } else if (tuples != null) {
+                    tuples[tupleIndex] = null;
+                }
                 markSlotUsed(tupleIndex, false);
                 return;
             }
@@ -278,17 +690,53 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
-        if (getNumEmptySlots() == 0) throw new DbException("Not enough space to insert tuple");
+        int slot = 0;
+        while (slot < numSlots && isSlotUsed(slot)) {
+            slot++;
+        }
+        if (slot == numSlots) throw new DbException("Not enough space to insert tuple");
+        insertTuple(t, slot);
+    }
+
+    /**
+     * Adds the specified tuple to the page in the specified empty slot, e.g.
+     * one that no other transaction has locked, or to put back a deleted
+     * tuple where it was.
+     * @throws DbException if the slot is not empty, the record doesn't fit
+     *         or tupledesc is mismatch.
+     */
+    public void insertTuple(Tuple t, int slot) throws DbException {
+        if (slot < 0 || slot >= numSlots || isSlotUsed(slot)) throw new DbException("slot " + slot + " is not empty");
         if (!t.getTupleDesc().equals(this.td)) throw new DbException("Tuple's Description is not match for this page");
 
-        for (int i = 0; i < tuples.length; i++) {
-            if (!isSlotUsed(i)) {
-                markSlotUsed(i,  true);
-                tuples[i] = t;
-                tuples[i].setRecordId(new RecordId(pid, i));
-                break;
-            }
+        encodeDictFields(t);
+        if (slotted) {
+            insertRecord(t, slot);
+            return;
+        }
+        if (tuples == null) {
+            tuples = new Tuple[numSlots];
         }
+        markSlotUsed(slot, true);
+        tuples[slot] = t;
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /** Insert t into an empty slot of a slotted page if its record fits. */
+    private void insertRecord(Tuple t, int slot) throws DbException {
+        int len = encodeRecord(td, t).length;
+        int entries = Math.max(slotEntries(), slot + 1);
+        if (SLOT_COUNT_SIZE + entries * SLOT_ENTRY_SIZE + recordBytes + len > BufferPool.getPageSize()) {
+            throw new DbException("Not enough space to insert tuple");
+        }
+        if (tuples == null) {
+            tuples = new Tuple[numSlots];
+        }
+        markSlotUsed(slot, true);
+        recordLengths[slot] = len;
+        recordBytes += len;
+        tuples[slot] = t;
+        t.setRecordId(new RecordId(pid, slot));
     }
 
     /**
@@ -314,7 +762,9 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Returns the number of empty slots on this page.
+     * Returns the number of empty slots on this page. On a slotted page,
+     * only the slots that a record of the longest length would still fit in
+     * count, so a tuple can always be inserted if this isn't 0.
      */
     public int getNumEmptySlots() {
         // some code goes here
@@ -324,6 +774,9 @@ public class HeapPage implements Page {
                 res ++;
             }
         }
+        if (slotted) {
+            return slottedEmptySlots(td, res, slotEntries(), recordBytes);
+        }
         return res;
     }
 
@@ -358,12 +811,56 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        List<Tuple> list = new ArrayList<>();
-        for (int i = 0; i < tuples.length; i++) {
-            if (isSlotUsed(i))
-                list.add(tuples[i]);
-        }
-        return list.iterator();
+        return iterator(null);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that satisfy
+     * predicate, or all of them if it is null. Only the predicate's field is
+     * decoded for tuples that don't qualify. The set of slots iterated is
+     * fixed when the iterator is created.
+     */
+    public Iterator<Tuple> iterator(Predicate predicate) {
+        //创建迭代器时记下用到的slot，迭代过程中插入的tuple不会被迭代到
+        final byte[] used = header.clone();
+        return new Iterator<Tuple>() {
+            private int slot = advance(0);
+
+            private int advance(int from) {
+                for (int i = from; i < numSlots; i++) {
+                    if ((used[i / 8] & (1 << (i % 8))) != 0 && matches(i)) {
+                        return i;
+                    }
+                }
+                return numSlots;
+            }
+
+            private boolean matches(int i) {
+                if (predicate == null) {
+                    return true;
+                }
+                if (!isSlotUsed(i)) {
+                    //迭代期间被删掉的tuple按整个解码来判断
+                    return predicate.filter(getTuple(i));
+                }
+                return predicate.filter(getField(i, predicate.getField()));
+            }
+
+            @Override
+            public boolean hasNext() {
+                return slot < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (slot >= numSlots) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = getTuple(slot);
+                slot = advance(slot + 1);
+                return t;
+            }
+        };
     }
 
 }
@@ -0,0 +1,103 @@
+package simpledb.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * LRU replacement: a hash map to locate nodes plus a doubly linked list
+ * ordered from most (head) to least (tail) recently used. Every hit moves
+ * the node to the head, so all methods synchronize on the policy.
+ */
+public class LRUPolicy<K> implements ReplacementPolicy<K> {
+    class DLinkedNode {
+        K key;
+        DLinkedNode prev;
+        DLinkedNode next;
+        public DLinkedNode() {}
+        public DLinkedNode(K _key) {key = _key;}
+
+    }
+
+    private final Map<K, DLinkedNode> cache = new HashMap<>();
+    private final DLinkedNode head, tail;
+
+    public LRUPolicy() {
+        // 使用伪头部和伪尾部节点
+        head = new DLinkedNode();
+        tail = new DLinkedNode();
+        head.next = tail;
+        head.prev = tail;
+        tail.prev = head;
+        tail.next = head;
+    }
+
+    //必须要加锁，不然多线程链表指针会成环无法结束循环。在这卡一天
+    @Override
+    public synchronized void touch(K key) {
+        DLinkedNode node = cache.get(key);
+        if (node == null) {
+            return;
+        }
+        // 如果 key 存在，先通过哈希表定位，再移到头部
+        moveToHead(node);
+    }
+
+    @Override
+    public synchronized void add(K key) {
+        DLinkedNode node = cache.get(key);
+        if (node == null) {
+            // 如果 key 不存在，创建一个新的节点
+            DLinkedNode newNode = new DLinkedNode(key);
+            // 添加进哈希表
+            cache.put(key, newNode);
+            // 添加至双向链表的头部
+            addToHead(newNode);
+        }
+        else {
+            moveToHead(node);
+        }
+    }
+
+    @Override
+    public synchronized void remove(K key) {
+        DLinkedNode node = cache.remove(key);
+        if (node != null) {
+            removeNode(node);
+        }
+    }
+
+    @Override
+    public synchronized K evict(Predicate<K> evictable) {
+        // 从尾部（最久未使用）开始找第一个可以替换的节点
+        DLinkedNode node = tail.prev;
+        while (node != head) {
+            if (evictable.test(node.key)) {
+                removeNode(node);
+                cache.remove(node.key);
+                return node.key;
+            }
+            node = node.prev;
+        }
+        return null;
+    }
+
+    private void addToHead(DLinkedNode node) {
+        node.prev = head;
+        node.next = head.next;
+        head.next.prev = node;
+        head.next = node;
+    }
+
+    private void removeNode(DLinkedNode node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+    }
+
+
+    private void moveToHead(DLinkedNode node) {
+        removeNode(node);
+        addToHead(node);
+    }
+
+}
@@ -606,6 +606,25 @@ public class LogFile {
                     }
                 }
 
+                //页被改回去了，重建这些HeapFile的空闲空间表
+                Set<Integer> tableIds = new HashSet<>();
+                for (List<Page> pages : beforePages.values()) {
+                    for (Page p : pages) {
+                        tableIds.add(p.getId().getTableId());
+                    }
+                }
+                for (List<Page> pages : afterPages.values()) {
+                    for (Page p : pages) {
+                        tableIds.add(p.getId().getTableId());
+                    }
+                }
+                for (int tableId : tableIds) {
+                    DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+                    if (f instanceof HeapFile) {
+                        ((HeapFile) f).rebuildFreeSpaceMap();
+                    }
+                }
+
             }
          }
     }
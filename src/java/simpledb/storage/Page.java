@@ -2,6 +2,8 @@ package simpledb.storage;
 
 import simpledb.transaction.TransactionId;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -58,4 +60,15 @@ public interface Page {
      * copy current content to the before image.
      */
     void setBeforeImage();
+
+    /**
+     * Called when the page leaves the BufferPool. A page that keeps its
+     * contents in an off-heap frame of the pool's {@link FrameArena} must stop
+     * using the frame and return it.
+     *
+     * @return the frame to reuse, or null if the page doesn't have one
+     */
+    default ByteBuffer detachFrame() {
+        return null;
+    }
 }
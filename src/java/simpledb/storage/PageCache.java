@@ -0,0 +1,166 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * PageCache is one partition of the {@link BufferPool}: a map from PageId to
+ * the resident Page, plus the {@link ReplacementPolicy} that picks victims
+ * when it is full.
+ * <p>
+ * Lookups don't lock the cache; everything that changes the set of resident
+ * pages synchronizes on it.
+ * <p>
+ * Each frame has a pin count. Pinned pages are never evicted. The count
+ * belongs to the PageId, so it survives the page being replaced by a newer
+ * version of itself.
+ * <p>
+ * With off-heap frames on, every page that leaves the cache, by eviction,
+ * removal or being replaced by another version, gives its frame back to the
+ * {@link FrameArena}.
+ */
+public class PageCache {
+
+    private final Map<PageId, Page> pages = new ConcurrentHashMap<>();
+    // 被pin住的页及其pin计数，计数为0时不在表中
+    private final Map<PageId, Integer> pins = new ConcurrentHashMap<>();
+    private final ReplacementPolicy<PageId> policy;
+    private final int capacity;
+    private volatile FrameArena arena;
+
+    public PageCache(int capacity, ReplacementPolicy.Kind kind) {
+        this.capacity = capacity;
+        this.policy = kind.create(capacity);
+    }
+
+    /** Return the frames of pages leaving the cache to arena */
+    void setArena(FrameArena arena) {
+        this.arena = arena;
+    }
+
+    /** The page is no longer in the cache; free its frame. */
+    private void released(Page page) {
+        FrameArena a = arena;
+        if (a != null && page != null) {
+            ByteBuffer frame = page.detachFrame();
+            if (frame != null) {
+                a.release(frame);
+            }
+        }
+    }
+
+    public int getSize() {
+        return pages.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the resident page with this id, or null
+     */
+    public Page get(PageId pid) {
+        Page page = pages.get(pid);
+        if (page != null) {
+            policy.touch(pid);
+        }
+        return page;
+    }
+
+    /**
+     * Like {@link #get} but does not count as an access for the replacement policy.
+     * @return the resident page with this id, or null
+     */
+    public Page peek(PageId pid) {
+        return pages.get(pid);
+    }
+
+    /**
+     * Make page resident, replacing any cached version of it. Does not evict.
+     */
+    public synchronized void put(PageId pid, Page page) {
+        Page old = pages.put(pid, page);
+        if (old == null) {
+            policy.add(pid);
+        } else {
+            policy.touch(pid);
+            if (old != page) {
+                released(old);
+            }
+        }
+    }
+
+    /**
+     * Drop a page from the cache.
+     * @return the page that was resident, or null
+     */
+    public synchronized Page remove(PageId pid) {
+        Page page = pages.remove(pid);
+        if (page != null) {
+            policy.remove(pid);
+            released(page);
+        }
+        return page;
+    }
+
+    /**
+     * Evict a page chosen by the replacement policy among the pages evictable
+     * accepts.
+     * @return the evicted page, or null if no resident page is evictable
+     */
+    public synchronized Page evict(Predicate<Page> evictable) {
+        PageId victim = policy.evict(pid -> {
+            Page page = pages.get(pid);
+            return page == null || (!pins.containsKey(pid) && evictable.test(page));
+        });
+        if (victim == null) {
+            return null;
+        }
+        Page page = pages.remove(victim);
+        released(page);
+        return page;
+    }
+
+    /**
+     * Pin a resident page.
+     * @return the page, or null if it is not resident
+     */
+    public synchronized Page pin(PageId pid) {
+        Page page = pages.get(pid);
+        if (page != null) {
+            pins.merge(pid, 1, Integer::sum);
+        }
+        return page;
+    }
+
+    /**
+     * Drop one pin of a page.
+     * @throws IllegalStateException if the page is not pinned
+     */
+    public synchronized void unpin(PageId pid) {
+        Integer count = pins.get(pid);
+        if (count == null) {
+            throw new IllegalStateException(pid + " is not pinned");
+        }
+        if (count == 1) {
+            pins.remove(pid);
+        } else {
+            pins.put(pid, count - 1);
+        }
+    }
+
+    public int getPinCount(PageId pid) {
+        return pins.getOrDefault(pid, 0);
+    }
+
+    /**
+     * @return a live view of the resident pages, safe to iterate while the cache changes
+     */
+    public Collection<Page> pages() {
+        return pages.values();
+    }
+}
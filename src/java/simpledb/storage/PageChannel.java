@@ -0,0 +1,335 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * PageChannel is the I/O layer shared by the {@link DbFile} implementations.
+ * It keeps one {@link FileChannel} open on the backing file for the lifetime
+ * of the DbFile and reads and writes whole pages at absolute offsets with
+ * positional I/O, so there is no per-page open/close, no seeking, and
+ * concurrent readers don't share a file position.
+ * <p>
+ * The channel is opened on first use. If it gets closed underneath us (a
+ * thread interrupted in the middle of an I/O closes a FileChannel) it is
+ * reopened and the operation retried once.
+ * <p>
+ * In mapped mode reads are served from read-only {@link MappedByteBuffer}s
+ * over the file, SEGMENT_SIZE bytes each, so reading a page costs a copy
+ * and no system call. Segments are mapped on first use and remapped when the
+ * file has grown past the end of a partial segment. Writes still go through
+ * the channel; the mappings are shared with the file so they see them.
+ * Files in mapped mode must never shrink.
+ */
+public class PageChannel {
+
+    /** Size of one mapped segment of the file. */
+    static final int SEGMENT_SIZE = 4 << 20;
+
+    private final File file;
+    private volatile FileChannel channel;
+    // 映射模式下各段的映射，未映射的段为null；非映射模式下整个数组为null
+    private volatile MappedByteBuffer[] segments;
+
+    public PageChannel(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Return the open channel on the file, opening it if needed.
+     */
+    private FileChannel channel() throws IOException {
+        FileChannel c = channel;
+        if (c == null || !c.isOpen()) {
+            synchronized (this) {
+                c = channel;
+                if (c == null || !c.isOpen()) {
+                    c = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                    channel = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Turn mapped mode on or off.
+     */
+    public synchronized void setMapped(boolean mapped) {
+        segments = mapped ? new MappedByteBuffer[0] : null;
+    }
+
+    public boolean isMapped() {
+        return segments != null;
+    }
+
+    /**
+     * Read len bytes at offset.
+     *
+     * @return the bytes read
+     * @throws IllegalArgumentException if the file ends before offset + len
+     */
+    public byte[] read(long offset, int len) throws IOException {
+        if (segments != null) {
+            byte[] data = readMapped(offset, len);
+            if (data != null) {
+                return data;
+            }
+        }
+        byte[] data = new byte[len];
+        try {
+            readFully(channel(), ByteBuffer.wrap(data), offset);
+        } catch (ClosedChannelException e) {
+            readFully(channel(), ByteBuffer.wrap(data), offset);
+        }
+        return data;
+    }
+
+    /**
+     * Fill dst, from its position to its limit, with the bytes at offset.
+     * Reads straight into dst, so a direct buffer needs no copy on the heap.
+     *
+     * @throws IllegalArgumentException if the file ends before dst is full
+     */
+    public void readInto(long offset, ByteBuffer dst) throws IOException {
+        if (segments != null) {
+            int within = (int) (offset % SEGMENT_SIZE);
+            if (within + dst.remaining() <= SEGMENT_SIZE) {
+                MappedByteBuffer segment = segment((int) (offset / SEGMENT_SIZE), within + dst.remaining());
+                if (segment != null) {
+                    ByteBuffer view = segment.duplicate();
+                    ((Buffer) view).limit(within + dst.remaining());
+                    ((Buffer) view).position(within);
+                    dst.put(view);
+                    return;
+                }
+            }
+        }
+        int start = dst.position();
+        try {
+            readFully(channel(), dst, offset);
+        } catch (ClosedChannelException e) {
+            ((Buffer) dst).position(start);
+            readFully(channel(), dst, offset);
+        }
+    }
+
+    /**
+     * Copy len bytes at offset out of the mapping.
+     *
+     * @return the bytes, or null if they span two segments or lie past the end of the file
+     */
+    private byte[] readMapped(long offset, int len) throws IOException {
+        int index = (int) (offset / SEGMENT_SIZE);
+        int within = (int) (offset % SEGMENT_SIZE);
+        if (within + len > SEGMENT_SIZE) {
+            return null;
+        }
+        MappedByteBuffer segment = segment(index, within + len);
+        if (segment == null) {
+            return null;
+        }
+        byte[] data = new byte[len];
+        ByteBuffer view = segment.duplicate();
+        ((Buffer) view).position(within);
+        view.get(data);
+        return data;
+    }
+
+    /**
+     * Return the mapping of segment index, covering at least its first need bytes.
+     *
+     * @return the segment, or null if the file is too short or mapped mode was turned off
+     */
+    private MappedByteBuffer segment(int index, int need) throws IOException {
+        MappedByteBuffer[] segs = segments;
+        if (segs != null && index < segs.length && segs[index] != null && segs[index].capacity() >= need) {
+            return segs[index];
+        }
+        synchronized (this) {
+            segs = segments;
+            if (segs == null) {
+                return null;
+            }
+            if (index < segs.length && segs[index] != null && segs[index].capacity() >= need) {
+                return segs[index];
+            }
+            long start = (long) index * SEGMENT_SIZE;
+            FileChannel c = channel();
+            long size = Math.min(SEGMENT_SIZE, c.size() - start);
+            if (size < need) {
+                return null;
+            }
+            //文件变长后重新映射这一段
+            MappedByteBuffer segment = c.map(FileChannel.MapMode.READ_ONLY, start, size);
+            MappedByteBuffer[] grown = index < segs.length ? segs.clone() : Arrays.copyOf(segs, index + 1);
+            grown[index] = segment;
+            segments = grown;
+            return segment;
+        }
+    }
+
+    private static void readFully(FileChannel c, ByteBuffer buf, long offset) throws IOException {
+        long pos = offset;
+        while (buf.hasRemaining()) {
+            int n = c.read(buf, pos);
+            if (n < 0) {
+                throw new IllegalArgumentException("Read past end of file at offset " + pos);
+            }
+            pos += n;
+        }
+    }
+
+    /**
+     * Write data at offset, extending the file if needed.
+     */
+    public void write(long offset, byte[] data) throws IOException {
+        try {
+            writeFully(channel(), ByteBuffer.wrap(data), offset);
+        } catch (ClosedChannelException e) {
+            writeFully(channel(), ByteBuffer.wrap(data), offset);
+        }
+    }
+
+    private static void writeFully(FileChannel c, ByteBuffer buf, long offset) throws IOException {
+        long pos = offset;
+        while (buf.hasRemaining()) {
+            pos += c.write(buf, pos);
+        }
+    }
+
+    /**
+     * Read count pages of len bytes each at ascending offsets. Pages that
+     * directly follow each other in the file are read with a single
+     * scattering read.
+     *
+     * @return the bytes of each page, in the order of offsets
+     * @throws IllegalArgumentException if the file ends before one of the pages does
+     */
+    public byte[][] readAll(long[] offsets, int len) throws IOException {
+        byte[][] data = new byte[offsets.length][len];
+        int start = 0;
+        while (start < offsets.length) {
+            int end = runEnd(offsets, start, len);
+            if (segments != null || end - start == 1) {
+                for (int i = start; i < end; i++) {
+                    data[i] = read(offsets[i], len);
+                }
+            } else {
+                ByteBuffer[] bufs = new ByteBuffer[end - start];
+                for (int i = start; i < end; i++) {
+                    bufs[i - start] = ByteBuffer.wrap(data[i]);
+                }
+                try {
+                    scatter(channel(), bufs, offsets[start]);
+                } catch (ClosedChannelException e) {
+                    for (ByteBuffer buf : bufs) {
+                        ((Buffer) buf).clear();
+                    }
+                    scatter(channel(), bufs, offsets[start]);
+                }
+            }
+            start = end;
+        }
+        return data;
+    }
+
+    /**
+     * Write pages at ascending offsets. Pages that directly follow each other
+     * in the file are written with a single gathering write.
+     */
+    public void writeAll(long[] offsets, byte[][] data) throws IOException {
+        int start = 0;
+        while (start < offsets.length) {
+            int end = start + 1;
+            while (end < offsets.length && offsets[end] == offsets[end - 1] + data[end - 1].length) {
+                end++;
+            }
+            if (end - start == 1) {
+                write(offsets[start], data[start]);
+            } else {
+                ByteBuffer[] bufs = new ByteBuffer[end - start];
+                for (int i = start; i < end; i++) {
+                    bufs[i - start] = ByteBuffer.wrap(data[i]);
+                }
+                try {
+                    gather(channel(), bufs, offsets[start]);
+                } catch (ClosedChannelException e) {
+                    for (ByteBuffer buf : bufs) {
+                        ((Buffer) buf).rewind();
+                    }
+                    gather(channel(), bufs, offsets[start]);
+                }
+            }
+            start = end;
+        }
+    }
+
+    /** Return the end of the run of adjacent pages of len bytes starting at offsets[start] */
+    private static int runEnd(long[] offsets, int start, int len) {
+        int end = start + 1;
+        while (end < offsets.length && offsets[end] == offsets[end - 1] + len) {
+            end++;
+        }
+        return end;
+    }
+
+    // FileChannel没有带位置参数的分散读/聚集写，只能先设置position，所以要加锁
+    private synchronized void scatter(FileChannel c, ByteBuffer[] bufs, long offset) throws IOException {
+        c.position(offset);
+        ByteBuffer last = bufs[bufs.length - 1];
+        while (last.hasRemaining()) {
+            if (c.read(bufs) < 0) {
+                throw new IllegalArgumentException("Read past end of file at offset " + c.position());
+            }
+        }
+    }
+
+    private synchronized void gather(FileChannel c, ByteBuffer[] bufs, long offset) throws IOException {
+        c.position(offset);
+        ByteBuffer last = bufs[bufs.length - 1];
+        while (last.hasRemaining()) {
+            c.write(bufs);
+        }
+    }
+
+    /**
+     * Append data at the current end of the file.
+     *
+     * @return the offset data was written at
+     */
+    public synchronized long append(byte[] data) throws IOException {
+        long offset = file.length();
+        write(offset, data);
+        return offset;
+    }
+
+    /**
+     * Force written pages to disk.
+     */
+    public void force() throws IOException {
+        channel().force(false);
+    }
+
+    /**
+     * Close the channel. It is reopened if the file is used again.
+     */
+    public synchronized void close() throws IOException {
+        FileChannel c = channel;
+        channel = null;
+        if (segments != null) {
+            segments = new MappedByteBuffer[0];
+        }
+        if (c != null) {
+            c.close();
+        }
+    }
+}
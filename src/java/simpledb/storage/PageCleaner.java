@@ -0,0 +1,179 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageCleaner is an optional background thread of the {@link BufferPool}
+ * that writes back committed pages.
+ * <p>
+ * While a cleaner runs, commit only writes the update records of the pages
+ * a transaction dirtied to the log and forces it; the pages themselves stay
+ * in the buffer pool, clean as far as transactions are concerned but newer
+ * than the disk ("pending"). Once the number of pending pages reaches the
+ * high watermark the cleaner wakes up and writes them back until it drops to
+ * the low watermark, so evictions nearly always find a page they can drop
+ * without I/O. Since a page only becomes pending after its log records
+ * were forced, writing it back never breaks the WAL rule.
+ * <p>
+ * The cleaner takes a shared lock on each page it writes, so it never
+ * writes a page a transaction is in the middle of changing.
+ */
+public class PageCleaner implements Runnable {
+
+    /** Default fraction of the pool that may be pending before the cleaner wakes up. */
+    public static final double DEFAULT_HIGH_WATERMARK = 0.5;
+    /** Default fraction of the pool the cleaner cleans down to. */
+    public static final double DEFAULT_LOW_WATERMARK = 0.2;
+
+    /** How often the cleaner checks the low watermark when nobody wakes it up. */
+    private static final long INTERVAL_MS = 100;
+
+    private final BufferPool bufferPool;
+    private final int highWatermark;
+    private final int lowWatermark;
+
+    // 已提交、还没写回磁盘的页
+    private final Set<PageId> pending = ConcurrentHashMap.newKeySet();
+    // 写回时加共享锁用的事务id
+    private final TransactionId tid = new TransactionId();
+
+    private final AtomicLong pagesCleaned = new AtomicLong();
+    private final AtomicLong stalls = new AtomicLong();
+
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * @param bufferPool the buffer pool whose pages are cleaned
+     * @param numPages capacity of the buffer pool
+     * @param highWatermark fraction of numPages pending that wakes the cleaner up
+     * @param lowWatermark fraction of numPages pending the cleaner cleans down to
+     */
+    PageCleaner(BufferPool bufferPool, int numPages, double highWatermark, double lowWatermark) {
+        if (lowWatermark < 0 || lowWatermark > highWatermark || highWatermark > 1) {
+            throw new IllegalArgumentException("need 0 <= low <= high <= 1, got low " + lowWatermark
+                    + " high " + highWatermark);
+        }
+        this.bufferPool = bufferPool;
+        this.highWatermark = Math.max(1, (int) (numPages * highWatermark));
+        this.lowWatermark = (int) (numPages * lowWatermark);
+        this.thread = new Thread(this, "PageCleaner");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Stop the cleaner thread and write back every page still pending.
+     */
+    void shutdown() {
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        clean(0);
+    }
+
+    /** Record that a committed page has to be written back. */
+    void add(PageId pid) {
+        pending.add(pid);
+        if (pending.size() >= highWatermark) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /** Forget a pending page, e.g. because it was written back or discarded. */
+    boolean remove(PageId pid) {
+        return pending.remove(pid);
+    }
+
+    boolean isPending(PageId pid) {
+        return pending.contains(pid);
+    }
+
+    Set<PageId> getPending() {
+        return pending;
+    }
+
+    /** Record an eviction that had to write a pending page itself. */
+    void recordStall() {
+        stalls.incrementAndGet();
+    }
+
+    void recordCleaned() {
+        pagesCleaned.incrementAndGet();
+    }
+
+    /** @return number of pages written back by the cleaner thread */
+    public long getPagesCleaned() {
+        return pagesCleaned.get();
+    }
+
+    /** @return number of evictions that found no clean page and had to write a pending one */
+    public long getStalls() {
+        return stalls.get();
+    }
+
+    /** @return number of committed pages waiting to be written back */
+    public int getLag() {
+        return pending.size();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            synchronized (this) {
+                try {
+                    if (pending.size() < highWatermark) {
+                        wait(INTERVAL_MS);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            if (running && pending.size() > lowWatermark) {
+                clean(lowWatermark);
+            }
+        }
+    }
+
+    /**
+     * Write back pending pages until at most target remain. Pages locked by a
+     * transaction are skipped and retried on the next round.
+     */
+    private void clean(int target) {
+        try {
+            // WAL: 写数据页之前日志必须已经落盘
+            Database.getLogFile().force();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        List<PageId> batch = new ArrayList<>(pending);
+        for (PageId pid : batch) {
+            if (pending.size() <= target) {
+                break;
+            }
+            if (bufferPool.writeBack(tid, pid)) {
+                recordCleaned();
+            }
+        }
+    }
+}
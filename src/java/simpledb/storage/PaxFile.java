@@ -0,0 +1,210 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * PaxFile is a DbFile that stores a collection of tuples in no particular
+ * order, like {@link HeapFile}, on pages in PAX layout: every page keeps the
+ * values of each column together, see {@link PaxPage}. It holds as many
+ * tuples per page as a HeapFile of the same table, but a scan that only
+ * needs some columns, see {@link #iterator(TransactionId, int[], Predicate)},
+ * decodes only those.
+ * <p>
+ * Pages are identified by {@link HeapPageId}s and go through the
+ * {@link BufferPool} like heap pages. A table is stored as a PaxFile when
+ * its line in the catalog file ends with <code>pax</code>.
+ *
+ * @see PaxPage
+ */
+public class PaxFile implements DbFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private final PageChannel channel;
+    private final ExtentAllocator extents;
+    // 之前的页都满了，插入从这里开始找（只在内存里）
+    private volatile int firstFree;
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     * @param td the tuple descriptor of tuples in the file
+     */
+    public PaxFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        this.channel = new PageChannel(f);
+        this.extents = new ExtentAllocator(f, channel, 0);
+    }
+
+    /** Returns the File backing this PaxFile on disk. */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this PaxFile, the hash code of the
+     * absolute path of its file like for HeapFile.
+     */
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            byte[] data = channel.read((long) pid.getPageNumber() * BufferPool.getPageSize(),
+                    BufferPool.getPageSize());
+            return new PaxPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("page " + pid + " is not in " + file, e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        int pageNumber = page.getId().getPageNumber();
+        if (pageNumber > numPages()) {
+            throw new IllegalArgumentException("page " + page.getId() + " is past the end of " + file);
+        }
+        if (pageNumber == numPages()) {
+            extents.allocate(1);
+        }
+        channel.write((long) pageNumber * BufferPool.getPageSize(), page.getPageData());
+    }
+
+    /**
+     * Returns the number of pages in this PaxFile.
+     */
+    public int numPages() {
+        return extents.getUsedPages();
+    }
+
+    /** Returns the allocator that grows this file, e.g. to set its extent size. */
+    public ExtentAllocator getExtentAllocator() {
+        return extents;
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        List<Page> list = new ArrayList<>();
+        BufferPool pool = Database.getBufferPool();
+        for (int i = firstFree; i < numPages(); i++) {
+            HeapPageId pid = new HeapPageId(getId(), i);
+            PaxPage page = (PaxPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.getNumEmptySlots() > 0) {
+                page.insertTuple(t);
+                list.add(page);
+                return list;
+            }
+            firstFree = i + 1;
+            pool.unsafeReleasePage(tid, pid);
+        }
+
+        PaxPage page = new PaxPage(new HeapPageId(getId(), extents.allocate(1)), PaxPage.createEmptyPageData());
+        page.insertTuple(t);
+        writePage(page);
+        list.add(page);
+        return list;
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(),
+                Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        firstFree = Math.min(firstFree, page.getId().getPageNumber());
+        List<Page> list = new ArrayList<>();
+        list.add(page);
+        return list;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples that satisfy predicate, holding
+     * only the given columns. Pages decode the predicate's column of every
+     * tuple and the other columns only of tuples that qualify.
+     *
+     * @param columns the fields to return, in this order, or null for all
+     * @param predicate if not null, checked on the table's fields
+     * @see PaxPage#iterator(int[], Predicate)
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns, Predicate predicate) {
+        return new PaxIterator(tid, columns, predicate);
+    }
+
+    private class PaxIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private final int[] columns;
+        private final Predicate predicate;
+        private Iterator<Tuple> it;
+        private int nextPage;
+        private boolean open;
+
+        PaxIterator(TransactionId tid, int[] columns, Predicate predicate) {
+            this.tid = tid;
+            this.columns = columns;
+            this.predicate = predicate;
+        }
+
+        public void open() {
+            nextPage = 0;
+            it = null;
+            open = true;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open) {
+                return false;
+            }
+            while (it == null || !it.hasNext()) {
+                if (nextPage >= numPages()) {
+                    return false;
+                }
+                PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(getId(), nextPage++), Permissions.READ_ONLY);
+                it = page.iterator(columns, predicate);
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return it.next();
+        }
+
+        public void rewind() {
+            open();
+        }
+
+        public void close() {
+            open = false;
+            it = null;
+        }
+    }
+}
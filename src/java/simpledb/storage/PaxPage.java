@@ -0,0 +1,297 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.transaction.TransactionId;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Each instance of PaxPage stores data for one page of a {@link PaxFile} in
+ * PAX layout: the slots are the same as on a {@link HeapPage} of the same
+ * table, but instead of storing each tuple's fields together, the page keeps
+ * one minipage per column holding that column's value of every slot. A scan
+ * that needs a few columns of a wide table decodes only those minipages.
+ * <p>
+ * The format is a header bitmap of used slots, as on a HeapPage, followed
+ * by the minipages in column order; minipage j holds numSlots values of
+ * column j, getLen() bytes each. The rest of the page is zero.
+ * <p>
+ * Like a HeapPage, the page decodes from the bytes it was created from,
+ * which are also its before-image; the first change copies them.
+ *
+ * @see PaxFile
+ */
+public class PaxPage implements Page {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int numSlots;
+    final int headerSize;
+    // 每一列的minipage在页中的起始位置
+    private final int[] columnOffsets;
+
+    // 页当前的内容；和before相同时表示还没改过，写之前先复制
+    private byte[] data;
+    private byte[] before;
+
+    private boolean dirty;
+    private TransactionId tid;
+
+    /**
+     * Create a PaxPage from the bytes of a page read from disk.
+     *
+     * @see #createEmptyPageData
+     */
+    public PaxPage(HeapPageId id, byte[] data) {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        this.headerSize = (numSlots + 7) / 8;
+        this.columnOffsets = new int[td.numFields()];
+        int offset = headerSize;
+        for (int j = 0; j < td.numFields(); j++) {
+            columnOffsets[j] = offset;
+            offset += numSlots * td.getFieldType(j).getLen();
+        }
+        this.data = data;
+        this.before = data;
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** @return the number of slots on this page */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public PaxPage getBeforeImage() {
+        return new PaxPage(pid, before);
+    }
+
+    public void setBeforeImage() {
+        //下次修改时再复制
+        before = data;
+    }
+
+    /** Make data writable without changing the before-image. */
+    private void beforeWrite() {
+        if (data == before) {
+            data = data.clone();
+        }
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * PaxPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return (data[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        beforeWrite();
+        if (value) {
+            data[i / 8] |= (byte) (1 << (i % 8));
+        } else {
+            data[i / 8] &= (byte) ~(1 << (i % 8));
+        }
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots() {
+        int used = 0;
+        for (int i = 0; i < headerSize; i++) {
+            used += Integer.bitCount(data[i] & 0xFF);
+        }
+        return numSlots - used;
+    }
+
+    /**
+     * Return one field of the tuple in a used slot, decoded from its column's
+     * minipage.
+     *
+     * @throws NoSuchElementException if the slot is empty
+     */
+    public Field getField(int slotId, int fieldIndex) {
+        if (slotId < 0 || slotId >= numSlots || !isSlotUsed(slotId)) {
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        }
+        return parse(ByteBuffer.wrap(data), slotId, fieldIndex);
+    }
+
+    private Field parse(ByteBuffer buf, int slotId, int fieldIndex) {
+        int len = td.getFieldType(fieldIndex).getLen();
+        return td.getFieldType(fieldIndex).parse(buf, columnOffsets[fieldIndex] + slotId * len);
+    }
+
+    /**
+     * Adds the specified tuple to the page, writing each field to its
+     * column's minipage; the tuple is updated to reflect that it is now
+     * stored on this page.
+     *
+     * @throws DbException if the page is full or the tupledesc doesn't match
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("Tuple's Description is not match for this page");
+        }
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                continue;
+            }
+            markSlotUsed(i, true);
+            for (int j = 0; j < td.numFields(); j++) {
+                writeField(i, j, t.getField(j));
+            }
+            t.setRecordId(new RecordId(pid, i));
+            return;
+        }
+        throw new DbException("Not enough space to insert tuple");
+    }
+
+    private void writeField(int slotId, int fieldIndex, Field f) {
+        int len = td.getFieldType(fieldIndex).getLen();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+        try {
+            f.serialize(new DataOutputStream(baos));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        System.arraycopy(baos.toByteArray(), 0, data, columnOffsets[fieldIndex] + slotId * len, len);
+    }
+
+    /**
+     * Delete the specified tuple from the page.
+     *
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("can't find tuple in the page");
+        }
+        int slot = rid.getTupleNumber();
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot)) {
+            throw new DbException("can't find tuple in the page");
+        }
+        markSlotUsed(slot, false);
+        for (int j = 0; j < td.numFields(); j++) {
+            int len = td.getFieldType(j).getLen();
+            int offset = columnOffsets[j] + slot * len;
+            for (int k = 0; k < len; k++) {
+                data[offset + k] = 0;
+            }
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? tid : null;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page
+     */
+    public Iterator<Tuple> iterator() {
+        return iterator(null, null);
+    }
+
+    /**
+     * Return an iterator over the tuples on this page that satisfy predicate,
+     * or all of them if it is null, holding only the given columns.
+     * The predicate's column is decoded for every used slot; the other
+     * columns only for the slots that qualify.
+     *
+     * @param columns the fields of the tuples to return, in this order, or
+     *        null for all of them
+     * @param predicate checked on the table's fields, not the returned ones
+     */
+    public Iterator<Tuple> iterator(int[] columns, Predicate predicate) {
+        final int[] cols = columns == null ? allColumns() : columns;
+        final TupleDesc outTd = columns == null ? td : project(td, cols);
+        //创建迭代器时记下用到的slot
+        final byte[] used = new byte[headerSize];
+        System.arraycopy(data, 0, used, 0, headerSize);
+        final ByteBuffer buf = ByteBuffer.wrap(data);
+        return new Iterator<Tuple>() {
+            private int slot = advance(0);
+
+            private int advance(int from) {
+                for (int i = from; i < numSlots; i++) {
+                    if ((used[i / 8] & (1 << (i % 8))) != 0
+                            && (predicate == null || predicate.filter(parse(buf, i, predicate.getField())))) {
+                        return i;
+                    }
+                }
+                return numSlots;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return slot < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (slot >= numSlots) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = new Tuple(outTd);
+                for (int k = 0; k < cols.length; k++) {
+                    t.setField(k, parse(buf, slot, cols[k]));
+                }
+                t.setRecordId(new RecordId(pid, slot));
+                slot = advance(slot + 1);
+                return t;
+            }
+        };
+    }
+
+    private int[] allColumns() {
+        int[] cols = new int[td.numFields()];
+        for (int j = 0; j < cols.length; j++) {
+            cols[j] = j;
+        }
+        return cols;
+    }
+
+    /** Return the TupleDesc of the given fields of td, in that order. */
+    static TupleDesc project(TupleDesc td, int[] columns) {
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int k = 0; k < columns.length; k++) {
+            types[k] = td.getFieldType(columns[k]);
+            names[k] = td.getFieldName(columns[k]);
+        }
+        return new TupleDesc(types, names);
+    }
+}
@@ -0,0 +1,231 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * ReadAhead prefetches pages into the {@link BufferPool} for sequential
+ * scans. A scan fetches its pages through a {@link Stream}; once a stream has
+ * seen a few pages in a row in scan order, a background thread loads the next
+ * pages ahead of it. What "next" means is up to the file: the following page
+ * number for a HeapFile, the right sibling for B+ tree leaves.
+ * <p>
+ * The number of pages a stream keeps ahead adapts to how many of them were
+ * already resident when the scan got there: it doubles while nearly all of
+ * them were, and halves when many were evicted before use or not loaded in
+ * time. It never exceeds half the pool.
+ * <p>
+ * Prefetching doesn't lock pages. It only uses free frames or evicts clean
+ * pages no transaction holds a lock on, other than the ones it prefetched for
+ * the same scan, and gives up otherwise, so it never pushes out a page a
+ * running transaction is using.
+ */
+public class ReadAhead {
+
+    /** Smallest and largest number of pages a stream keeps ahead of the scan. */
+    public static final int MIN_WINDOW = 2;
+    public static final int MAX_WINDOW = 64;
+
+    /** Number of pages in scan order after which a stream starts prefetching. */
+    static final int TRIGGER = 2;
+
+    private final BufferPool bufferPool;
+    private final int maxWindow;
+    private final ExecutorService executor;
+
+    private final AtomicLong prefetched = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    ReadAhead(BufferPool bufferPool, int numPages) {
+        this.bufferPool = bufferPool;
+        this.maxWindow = Math.max(MIN_WINDOW, Math.min(MAX_WINDOW, numPages / 2));
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "ReadAhead");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** @return number of pages loaded by read-ahead */
+    public long getPrefetched() {
+        return prefetched.get();
+    }
+
+    /** @return number of prefetched pages that were resident when the scan reached them */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** @return number of prefetched pages the scan had to read itself */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * The pages one scan fetches. The page the scan is on stays pinned until
+     * it fetches the next one or closes the stream. Use it from the scanning
+     * thread only.
+     */
+    public static class Stream {
+        private final BufferPool bufferPool;
+        private final ReadAhead engine;
+        private final Function<Page, PageId> next;
+
+        // 扫描当前所在、被pin住的页
+        private TransactionId holder;
+        private PageId current;
+
+        // 预计扫描要访问的下一页，以及连续命中这个预计的次数
+        private PageId expected;
+        private int run;
+        private int window;
+        private int windowAccesses;
+        private int windowHits;
+
+        // 已预取、扫描还没访问到的页；frontier是预取走到的最后一页
+        private final Set<PageId> ahead = ConcurrentHashMap.newKeySet();
+        private volatile Page frontier;
+        private final AtomicBoolean busy = new AtomicBoolean();
+        // 扫描追上或偏离预取位置时加一，让还在跑的预取任务停下
+        private volatile int generation;
+
+        /**
+         * @param engine the read-ahead engine, or null to fetch pages without prefetching
+         * @param next returns the page a scan reads after the given one, or null at the end
+         */
+        Stream(BufferPool bufferPool, ReadAhead engine, Function<Page, PageId> next) {
+            this.bufferPool = bufferPool;
+            this.engine = engine;
+            this.next = next;
+            this.window = engine == null ? MIN_WINDOW : Math.min(2 * MIN_WINDOW, engine.maxWindow);
+        }
+
+        /**
+         * Fetch and pin a page through the buffer pool, unpinning the page
+         * fetched before, and prefetch the pages after it if the scan is
+         * sequential.
+         */
+        public Page fetch(TransactionId tid, PageId pid, Permissions perm)
+                throws TransactionAbortedException, DbException {
+            //先放掉上一页，小缓冲池里它可能是唯一能换出的页
+            close();
+            boolean resident = engine != null && bufferPool.isResident(pid);
+            Page page = bufferPool.pinPage(tid, pid, perm);
+            holder = tid;
+            current = pid;
+            if (engine != null) {
+                access(page, resident);
+            }
+            return page;
+        }
+
+        /**
+         * Unpin the current page.
+         */
+        public void close() {
+            if (current != null) {
+                bufferPool.unpinPage(holder, current);
+                current = null;
+            }
+        }
+
+        private void access(Page page, boolean resident) {
+            PageId pid = page.getId();
+            if (ahead.remove(pid)) {
+                if (resident) {
+                    engine.hits.incrementAndGet();
+                    windowHits++;
+                } else {
+                    engine.misses.incrementAndGet();
+                }
+                if (++windowAccesses >= window) {
+                    adapt();
+                }
+            } else if (!ahead.isEmpty() || frontier != null) {
+                // 扫描跑到了预取前面或者换了位置，从当前页重新开始预取
+                restart();
+            }
+            if (pid.equals(expected)) {
+                run++;
+            } else {
+                run = 0;
+            }
+            expected = next.apply(page);
+            if (run >= TRIGGER && expected != null && ahead.size() <= window / 2
+                    && busy.compareAndSet(false, true)) {
+                Page start = frontier != null ? frontier : page;
+                int count = window - ahead.size();
+                int gen = generation;
+                try {
+                    engine.executor.execute(() -> prefetch(start, count, gen));
+                } catch (RejectedExecutionException e) {
+                    busy.set(false);
+                }
+            }
+        }
+
+        private void adapt() {
+            if (windowHits * 10 >= windowAccesses * 9) {
+                window = Math.min(window * 2, engine.maxWindow);
+            } else if (windowHits * 2 < windowAccesses) {
+                window = Math.max(window / 2, MIN_WINDOW);
+            }
+            windowAccesses = 0;
+            windowHits = 0;
+        }
+
+        private void restart() {
+            generation++;
+            ahead.clear();
+            frontier = null;
+        }
+
+        private void prefetch(Page start, int count, int gen) {
+            try {
+                Page page = start;
+                for (int i = 0; i < count && gen == generation; i++) {
+                    PageId pid = next.apply(page);
+                    if (pid == null) {
+                        break;
+                    }
+                    page = engine.bufferPool.prefetch(pid, ahead, engine.prefetched);
+                    if (page == null) {
+                        break;
+                    }
+                    if (gen != generation) {
+                        break;
+                    }
+                    ahead.add(pid);
+                    frontier = page;
+                }
+            } catch (RuntimeException e) {
+                // 预取只是优化，出错时交给扫描自己读
+                e.printStackTrace();
+            } finally {
+                busy.set(false);
+            }
+        }
+    }
+}
@@ -70,7 +70,8 @@ public class RecordId implements Serializable {
     @Override
     public int hashCode() {
         // some code goes here
-        return (tupleno+"").hashCode() + (pageId+"").hashCode();
+        //行锁表以它为key，不能每次都拼字符串
+        return 31 * pageId.hashCode() + tupleno;
 
     }
 
@@ -0,0 +1,67 @@
+package simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which resident key of a {@link PageCache} is
+ * evicted when the cache is full. The cache tells the policy about every
+ * key that becomes resident, is accessed or leaves the cache, and asks it
+ * for a victim on eviction.
+ * <p>
+ * {@link #touch} is called on every cache hit without holding the cache
+ * lock, so implementations must make it safe to call concurrently with the
+ * other methods. The other methods are called with the cache lock held.
+ *
+ * @param <K> the key type, normally {@link PageId}
+ */
+public interface ReplacementPolicy<K> {
+
+    /**
+     * The replacement policies a BufferPool can be constructed with.
+     */
+    enum Kind {
+        /** Least recently used, every hit moves the page to the head of a list */
+        LRU,
+        /** CLOCK, a hit only sets a reference bit that the eviction hand sweeps */
+        CLOCK,
+        /** 2Q, pages seen once live in a FIFO so a single scan can't flush the hot set */
+        TWO_QUEUE;
+
+        /**
+         * Create a new policy of this kind for a cache holding up to capacity keys.
+         */
+        public <K> ReplacementPolicy<K> create(int capacity) {
+            switch (this) {
+                case CLOCK:
+                    return new ClockPolicy<>();
+                case TWO_QUEUE:
+                    return new TwoQueuePolicy<>(capacity);
+                default:
+                    return new LRUPolicy<>();
+            }
+        }
+    }
+
+    /**
+     * Record a cache hit on a resident key.
+     */
+    void touch(K key);
+
+    /**
+     * Record that key became resident in the cache.
+     */
+    void add(K key);
+
+    /**
+     * Record that key left the cache without being chosen by {@link #evict}.
+     */
+    void remove(K key);
+
+    /**
+     * Choose a victim among the resident keys, stop tracking it and return it.
+     *
+     * @param evictable keys for which this returns false (e.g. dirty pages) must not be chosen
+     * @return the victim, or null if no resident key is evictable
+     */
+    K evict(Predicate<K> evictable);
+}
@@ -0,0 +1,149 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RowUndoLog keeps the row changes that transactions have made to pages of
+ * row-locked tables and not yet committed. Several transactions can have
+ * changes on one page, so neither rolling back to the page's before image
+ * nor writing the page as it is works for one of them: an abort undoes just
+ * its own rows, and a commit writes an image of the page with the other
+ * transactions' rows undone. Row locks keep the changes of different
+ * transactions on disjoint slots, so they can be undone independently.
+ * <p>
+ * Changes are recorded and undone under the page's latch, its monitor.
+ *
+ * @see HeapFile#setRowLocking
+ */
+class RowUndoLog {
+
+    /** A row a transaction inserted, or a copy of one it deleted. */
+    private static final class Change {
+        final Tuple tuple;
+        final boolean inserted;
+
+        Change(Tuple tuple, boolean inserted) {
+            this.tuple = tuple;
+            this.inserted = inserted;
+        }
+    }
+
+    // 每个事务在每页上的行修改，按发生顺序
+    private final Map<TransactionId, Map<PageId, List<Change>>> changes = new ConcurrentHashMap<>();
+    // 每页上有未完成行修改的事务
+    private final Map<PageId, Set<TransactionId>> writers = new ConcurrentHashMap<>();
+
+    private List<Change> changesOf(TransactionId tid, PageId pid) {
+        writers.computeIfAbsent(pid, k -> ConcurrentHashMap.newKeySet()).add(tid);
+        return changes.computeIfAbsent(tid, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(pid, k -> Collections.synchronizedList(new ArrayList<>()));
+    }
+
+    /** Record that tid inserted t, which has its RecordId now. */
+    void inserted(TransactionId tid, PageId pid, Tuple t) {
+        changesOf(tid, pid).add(new Change(t, true));
+    }
+
+    /** Record that tid deleted the tuple of which before is a copy. */
+    void deleted(TransactionId tid, PageId pid, Tuple before) {
+        List<Change> list = changesOf(tid, pid);
+        synchronized (list) {
+            //删除自己插入的行，两者抵消；这样每行最多先删后插各一次，撤销时先撤插入再撤删除即可
+            for (int i = list.size() - 1; i >= 0; i--) {
+                Change c = list.get(i);
+                if (c.inserted && c.tuple.getRecordId().equals(before.getRecordId())) {
+                    list.remove(i);
+                    return;
+                }
+            }
+            list.add(new Change(before, false));
+        }
+    }
+
+    /** Return the pages tid has uncommitted row changes on. */
+    Set<PageId> pages(TransactionId tid) {
+        Map<PageId, List<Change>> byPage = changes.get(tid);
+        return byPage == null ? Collections.emptySet() : byPage.keySet();
+    }
+
+    /** Undo tid's changes on page. */
+    void undo(TransactionId tid, HeapPage page) throws DbException {
+        Map<PageId, List<Change>> byPage = changes.get(tid);
+        List<Change> list = byPage == null ? null : byPage.get(page.getId());
+        if (list != null) {
+            undo(list, page);
+        }
+    }
+
+    private static void undo(List<Change> list, HeapPage page) throws DbException {
+        synchronized (list) {
+            for (int i = list.size() - 1; i >= 0; i--) {
+                if (list.get(i).inserted) {
+                    page.deleteTuple(list.get(i).tuple);
+                }
+            }
+            for (int i = list.size() - 1; i >= 0; i--) {
+                Change c = list.get(i);
+                if (!c.inserted) {
+                    page.insertTuple(c.tuple, c.tuple.getRecordId().getTupleNumber());
+                }
+            }
+        }
+    }
+
+    /**
+     * Return a copy of page with the uncommitted changes of all transactions
+     * but keep undone, which is what the page looks like once keep commits;
+     * with keep null, what it looked like before.
+     */
+    HeapPage image(HeapPage page, TransactionId keep) throws DbException {
+        HeapPage copy;
+        try {
+            copy = new HeapPage(page.getId(), page.getPageData());
+        } catch (IOException e) {
+            throw new DbException("failed to copy page " + page.getId() + ": " + e.getMessage());
+        }
+        PageId pid = page.getId();
+        for (TransactionId tid : writers.getOrDefault(pid, Collections.emptySet())) {
+            Map<PageId, List<Change>> byPage = changes.get(tid);
+            List<Change> list = byPage == null ? null : byPage.get(pid);
+            if (!tid.equals(keep) && list != null) {
+                undo(list, copy);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Forget tid's changes on the page after it committed or undid them.
+     *
+     * @return another transaction that still has changes on the page, or
+     *         null if there is none
+     */
+    TransactionId finish(TransactionId tid, PageId pid) {
+        Map<PageId, List<Change>> byPage = changes.get(tid);
+        if (byPage != null) {
+            byPage.remove(pid);
+            changes.computeIfPresent(tid, (k, m) -> m.isEmpty() ? null : m);
+        }
+        Set<TransactionId> others = writers.computeIfPresent(pid, (k, ws) -> {
+            ws.remove(tid);
+            return ws.isEmpty() ? null : ws;
+        });
+        if (others != null) {
+            for (TransactionId other : others) {
+                return other;
+            }
+        }
+        return null;
+    }
+}
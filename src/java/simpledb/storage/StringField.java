@@ -15,6 +15,8 @@ public class StringField implements Field {
 	private final String value;
 	private final int maxSize;
 
+	private final Type type;
+
 	public String getValue() {
 		return value;
 	}
@@ -28,7 +30,24 @@ public class StringField implements Field {
 	 *            The maximum size of this string
 	 */
 	public StringField(String s, int maxSize) {
+		this(s, maxSize, Type.STRING_TYPE);
+	}
+
+	/**
+	 * Constructor for a string of a column of the given type, STRING_TYPE or
+	 * VARCHAR_TYPE. Both serialize the same way. A string of a DICT_TYPE
+	 * column is replaced by its {@link DictField} when it is inserted.
+	 *
+	 * @param s
+	 *            The value of this field.
+	 * @param maxSize
+	 *            The maximum size of this string
+	 * @param type
+	 *            The type of this field
+	 */
+	public StringField(String s, int maxSize, Type type) {
 		this.maxSize = maxSize;
+		this.type = type;
 
 		if (s.length() > maxSize)
 			value = s.substring(0, maxSize);
@@ -113,6 +132,6 @@ public class StringField implements Field {
 	 */
 	public Type getType() {
 
-		return Type.STRING_TYPE;
+		return type;
 	}
 }
@@ -0,0 +1,104 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * 2Q replacement (Johnson and Shasha). Keys seen for the first time enter
+ * a FIFO queue (A1in); only keys referenced again after leaving A1in, which
+ * are remembered in a ghost queue (A1out), are promoted to the LRU main
+ * queue (Am). A sequential scan therefore only cycles through A1in and
+ * can't flush frequently used pages such as B+ tree internal pages out of
+ * Am.
+ */
+public class TwoQueuePolicy<K> implements ReplacementPolicy<K> {
+
+    // A1in: 先进先出，命中时不移动
+    private final Set<K> a1in = new LinkedHashSet<>();
+    // A1out: 只记录最近从A1in淘汰的key，不占用缓存空间
+    private final Set<K> a1out = new LinkedHashSet<>();
+    // Am: 按访问顺序排列的LRU队列
+    private final Map<K, Boolean> am = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final int kin;
+    private final int kout;
+
+    /**
+     * @param capacity the number of keys the cache holds; A1in gets a quarter of it
+     *                 and A1out remembers half as many evicted keys
+     */
+    public TwoQueuePolicy(int capacity) {
+        this.kin = Math.max(1, capacity / 4);
+        this.kout = Math.max(1, capacity / 2);
+    }
+
+    @Override
+    public synchronized void touch(K key) {
+        // A1in中的命中视为相关引用，不提升；Am中的命中移到队尾（最近使用）
+        am.get(key);
+    }
+
+    @Override
+    public synchronized void add(K key) {
+        if (am.containsKey(key) || a1in.contains(key)) {
+            touch(key);
+        } else if (a1out.remove(key)) {
+            am.put(key, Boolean.TRUE);
+        } else {
+            a1in.add(key);
+        }
+    }
+
+    @Override
+    public synchronized void remove(K key) {
+        if (am.remove(key) == null) {
+            a1in.remove(key);
+        }
+    }
+
+    @Override
+    public synchronized K evict(Predicate<K> evictable) {
+        K victim;
+        if (a1in.size() > kin || am.isEmpty()) {
+            victim = evictFrom(a1in.iterator(), evictable);
+            if (victim != null) {
+                remember(victim);
+            } else {
+                victim = evictFrom(am.keySet().iterator(), evictable);
+            }
+        } else {
+            victim = evictFrom(am.keySet().iterator(), evictable);
+            if (victim == null) {
+                victim = evictFrom(a1in.iterator(), evictable);
+                if (victim != null) {
+                    remember(victim);
+                }
+            }
+        }
+        return victim;
+    }
+
+    private K evictFrom(Iterator<K> oldestFirst, Predicate<K> evictable) {
+        while (oldestFirst.hasNext()) {
+            K key = oldestFirst.next();
+            if (evictable.test(key)) {
+                oldestFirst.remove();
+                return key;
+            }
+        }
+        return null;
+    }
+
+    private void remember(K key) {
+        a1out.add(key);
+        if (a1out.size() > kout) {
+            Iterator<K> it = a1out.iterator();
+            it.next();
+            it.remove();
+        }
+    }
+}
@@ -2,112 +2,898 @@ package simpledb.transaction;
 
 import simpledb.common.Permissions;
 import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * LockManager keeps the locks of transactions on tables and their pages.
+ * Every locked table or page has a queue: the locks granted on it and, in
+ * arrival order, the requests waiting for it. A request that can't be
+ * granted parks its thread until the lock is released to it, so waiting
+ * costs no CPU. When a lock is released, the requests at the head of the
+ * queue are granted for as long as they are compatible with what is held,
+ * so a run of shared requests is granted together. A new request waits
+ * behind queued ones even if it is compatible with the holders, so writers
+ * don't starve; upgrades of a held lock go first.
+ * <p>
+ * Locks have three granularities (see {@link LockMode}). A page is locked
+ * S for READ_ONLY and X for READ_WRITE, after its table has been locked IS
+ * or IX. A row ({@link RecordId}) is locked S or X after its table and its
+ * page have been locked IS or IX, so transactions changing different rows
+ * of a page don't conflict; see {@link #acquireRowLock}. A transaction can
+ * instead lock the whole table S or X with
+ * {@link #acquireTableLock}, which a scan of most of the table does: the
+ * pages it then reads (and, under X, writes) need no locks of their own.
+ * Once a transaction holds more than {@link #setEscalationThreshold the
+ * escalation threshold} page locks on one table, the manager tries to
+ * replace them by an S or X lock on the table; if other transactions are
+ * in the way it keeps the page locks and tries again on the next page.
+ * <p>
+ * The queues are spread over stripes by page or table, each with its own
+ * latch, so locking unrelated pages doesn't contend. Each transaction's
+ * locks are indexed, so releasing all of them visits only those pages.
+ * <p>
+ * Transactions wait only as long as they can still get the lock. Every time
+ * a request starts waiting, the manager follows the waits-for graph from
+ * its transaction: a waiting request waits for the holders it conflicts
+ * with and for the conflicting requests queued ahead of it. A cycle is a
+ * deadlock; one transaction on it, chosen by the {@link VictimPolicy}, is
+ * aborted: its waiting request fails with a TransactionAbortedException,
+ * which breaks the cycle once the transaction releases its locks.
+ */
 public class LockManager {
-    // integer:list --> 第几页:锁
-//    private Map<Integer, List<Lock>> map; //锁表
+
+    /** Default number of stripes of the lock table. */
+    public static final int DEFAULT_STRIPES = 64;
+
+    /** Default number of page locks on one table above which a transaction's locks are escalated. */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 1000;
 
     // 这里应该用 PageId:list --> 哪个表的第几页:锁
     //LogTest的测试用例TestAbortCommitInterleaved中，对两个表进行插入，第一个表的第1页插入后加了锁，如果是integer:list他们都是第0页，第二个表误以为自己加了锁
-    private Map<PageId, List<Lock>> map; //锁表
+    //锁表按key分成多个stripe，每个stripe用自己的监视器保护；key是RecordId、PageId或TableKey
+    private final Stripe[] stripes;
+
+    // 每个事务持有的锁，提交时只释放这些
+    private final Map<TransactionId, TransactionLocks> held = new ConcurrentHashMap<>();
+
+    // 每个事务正在等待的请求，即waits-for图中的出边所在
+    private final Map<TransactionId, Set<Request>> waiting = new ConcurrentHashMap<>();
+
+    // 死锁检测一次只进行一个；检测时会依次获取其他stripe的锁，反过来则不行
+    private final Object detectorLatch = new Object();
+
+    /** How a transaction on a deadlock cycle is chosen to be aborted. */
+    public enum VictimPolicy {
+        /** The transaction that started last, which has likely done the least */
+        YOUNGEST,
+        /** The transaction holding the fewest locks */
+        FEWEST_LOCKS
+    }
+
+    private volatile VictimPolicy victimPolicy = VictimPolicy.YOUNGEST;
+
+    private volatile int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+
+    private final AtomicLong deadlocks = new AtomicLong();
+    private final AtomicLong requesterVictims = new AtomicLong();
+    private final AtomicLong waiterVictims = new AtomicLong();
+    private final AtomicLong victimLocks = new AtomicLong();
+    private final AtomicLong escalations = new AtomicLong();
+    private final AtomicLong failedEscalations = new AtomicLong();
+
+    /** The lock table key of a whole table. */
+    private static final class TableKey {
+        final int tableId;
+
+        TableKey(int tableId) {
+            this.tableId = tableId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TableKey && ((TableKey) o).tableId == tableId;
+        }
+
+        @Override
+        public int hashCode() {
+            return tableId * 31 + 17;
+        }
+
+        @Override
+        public String toString() {
+            return "TableKey{" + tableId + '}';
+        }
+    }
+
+    /** The locks a transaction holds: its row locks, its page locks by table, and its table locks. */
+    private static final class TransactionLocks {
+        final Set<RecordId> rows = ConcurrentHashMap.newKeySet();
+        final Map<Integer, Set<PageId>> pages = new ConcurrentHashMap<>();
+        final Map<Integer, LockMode> tables = new ConcurrentHashMap<>();
+
+        int countPages() {
+            int n = 0;
+            for (Set<PageId> pids : pages.values()) {
+                n += pids.size();
+            }
+            return n;
+        }
+    }
+
+    /** A lock request waiting in the queue of a row, page or table. */
+    private static final class Request {
+        final TransactionId tid;
+        final Object key;
+        final LockMode mode;
+        final Thread thread;
+        // 由释放锁的线程设置，然后唤醒thread
+        volatile boolean granted;
+        volatile boolean cancelled;
+
+        Request(TransactionId tid, Object key, LockMode mode, Thread thread) {
+            this.tid = tid;
+            this.key = key;
+            this.mode = mode;
+            this.thread = thread;
+        }
+    }
+
+    /** The locks granted on a row, page or table and the requests waiting for it. */
+    private static final class LockQueue {
+        final List<Lock> holders = new ArrayList<>(2);
+        final LinkedList<Request> waiters = new LinkedList<>();
+
+        Lock find(TransactionId tid) {
+            for (Lock lock : holders) {
+                if (lock.getTransactionId().equals(tid)) {
+                    return lock;
+                }
+            }
+            return null;
+        }
+
+        boolean isEmpty() {
+            return holders.isEmpty() && waiters.isEmpty();
+        }
+    }
+
+    /** The queues of the keys that hash to one stripe; guarded by its own monitor. */
+    private static final class Stripe {
+        final Map<Object, LockQueue> queues = new HashMap<>();
+    }
 
     public LockManager() {
-        this.map = new ConcurrentHashMap<>();
+        this(DEFAULT_STRIPES);
+    }
 
+    /**
+     * @param numStripes the number of independently latched parts of the lock table
+     */
+    public LockManager(int numStripes) {
+        stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            stripes[i] = new Stripe();
+        }
     }
 
-    public synchronized Boolean acquireLock(TransactionId tid, PageId pageId, Permissions permissions) {
-//        Integer pid = pageId.getPageNumber();
-        Lock lock = new Lock(permissions, tid);
-//        List<Lock> locks = map.get(pid);
-        List<Lock> locks = map.get(pageId);
-        if (locks == null) {
-            locks = new ArrayList<>();
-            locks.add(lock);
-//            map.put(pid, locks);
-            map.put(pageId, locks);
+    private Stripe stripeOf(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return stripes[Math.floorMod(h, stripes.length)];
+    }
+
+    /**
+     * Grant the lock on the page, and the intention lock on its table it
+     * needs, if that is possible right now, without waiting.
+     *
+     * @return true if tid holds the lock now
+     */
+    public Boolean acquireLock(TransactionId tid, PageId pageId, Permissions permissions) {
+        LockMode mode = LockMode.of(permissions);
+        int tableId = pageId.getTableId();
+        if (tableCovers(tid, tableId, mode)) {
             return true;
         }
-        if (locks.size() == 1) {  //只有一个事务占有锁
-            Lock firstLock = locks.get(0);
-            if (firstLock.getTransactionId().equals(tid)) {
-                if (firstLock.getPermissions().equals(Permissions.READ_ONLY) && lock.getPermissions().equals(Permissions.READ_WRITE)) {
-                    firstLock.setPermissions(Permissions.READ_WRITE); //锁升级
-                }
+        if (!tableCovers(tid, tableId, mode.intention())
+                && !tryLock(tid, new TableKey(tableId), mode.intention())) {
+            return false;
+        }
+        if (!tryLock(tid, pageId, mode)) {
+            dropIntention(tid, tableId);
+            return false;
+        }
+        maybeEscalate(tid, tableId);
+        return true;
+    }
+
+    /**
+     * Grant the lock on the page, waiting in the queues of its table and
+     * the page until they are released to tid if they are held by others.
+     * Takes nothing if tid's lock on the table covers the page.
+     *
+     * @param timeoutMillis how long to wait at most, a safety net for waits
+     *        on something other than locks that deadlock detection can't see
+     * @throws TransactionAbortedException if tid was chosen as the victim of
+     *         a deadlock, the lock wasn't granted in time, the thread was
+     *         interrupted or the transaction completed while waiting
+     */
+    public void acquireLock(TransactionId tid, PageId pageId, Permissions permissions, long timeoutMillis)
+            throws TransactionAbortedException {
+        LockMode mode = LockMode.of(permissions);
+        int tableId = pageId.getTableId();
+        if (tableCovers(tid, tableId, mode)) {
+            return;
+        }
+        if (!tableCovers(tid, tableId, mode.intention())) {
+            lock(tid, new TableKey(tableId), mode.intention(), timeoutMillis);
+        }
+        lock(tid, pageId, mode, timeoutMillis);
+        maybeEscalate(tid, tableId);
+    }
+
+    /**
+     * Lock a whole table, S for READ_ONLY and X for READ_WRITE, waiting like
+     * {@link #acquireLock(TransactionId, PageId, Permissions, long)}. A held
+     * IX lock becomes SIX for READ_ONLY. The page locks the table lock
+     * covers are released.
+     *
+     * @throws TransactionAbortedException as acquireLock
+     */
+    public void acquireTableLock(TransactionId tid, int tableId, Permissions permissions, long timeoutMillis)
+            throws TransactionAbortedException {
+        LockMode mode = LockMode.of(permissions);
+        if (tableCovers(tid, tableId, mode)) {
+            return;
+        }
+        lock(tid, new TableKey(tableId), mode, timeoutMillis);
+        releaseCovered(tid, tableId);
+    }
+
+    /**
+     * Lock the table and the page IS for READ_ONLY or IX for READ_WRITE, so
+     * that rows of the page can be locked, waiting like
+     * {@link #acquireLock(TransactionId, PageId, Permissions, long)}. Takes
+     * nothing if tid's lock on the table covers the whole page.
+     *
+     * @throws TransactionAbortedException as acquireLock
+     */
+    public void acquireIntention(TransactionId tid, PageId pageId, Permissions permissions, long timeoutMillis)
+            throws TransactionAbortedException {
+        LockMode intention = LockMode.of(permissions).intention();
+        int tableId = pageId.getTableId();
+        if (tableCovers(tid, tableId, LockMode.of(permissions))) {
+            return;
+        }
+        if (!tableCovers(tid, tableId, intention)) {
+            lock(tid, new TableKey(tableId), intention, timeoutMillis);
+        }
+        lock(tid, pageId, intention, timeoutMillis);
+        maybeEscalate(tid, tableId);
+    }
+
+    /**
+     * Lock a row S for READ_ONLY or X for READ_WRITE, after its table and
+     * page IS or IX, waiting like
+     * {@link #acquireLock(TransactionId, PageId, Permissions, long)}. Takes
+     * nothing if tid's lock on the page or the table covers the row.
+     *
+     * @throws TransactionAbortedException as acquireLock
+     */
+    public void acquireRowLock(TransactionId tid, RecordId rid, Permissions permissions, long timeoutMillis)
+            throws TransactionAbortedException {
+        LockMode mode = LockMode.of(permissions);
+        if (pageCovers(tid, rid.getPageId(), mode)) {
+            return;
+        }
+        acquireIntention(tid, rid.getPageId(), permissions, timeoutMillis);
+        lock(tid, rid, mode, timeoutMillis);
+    }
+
+    /**
+     * Grant the lock on the row if that is possible right now, without
+     * waiting. tid must hold the intention locks on the row's table and
+     * page already, see {@link #acquireIntention}.
+     *
+     * @return true if tid holds the lock now
+     */
+    public boolean acquireRowLock(TransactionId tid, RecordId rid, Permissions permissions) {
+        LockMode mode = LockMode.of(permissions);
+        PageId pid = rid.getPageId();
+        if (pageCovers(tid, pid, mode)) {
+            return true;
+        }
+        return pageCovers(tid, pid, mode.intention()) && tryLock(tid, rid, mode);
+    }
+
+    /** Return true if tid holds a lock on the page or its table that covers mode. */
+    private boolean pageCovers(TransactionId tid, PageId pid, LockMode mode) {
+        if (tableCovers(tid, pid.getTableId(), mode)) {
+            return true;
+        }
+        Stripe stripe = stripeOf(pid);
+        synchronized (stripe) {
+            LockQueue queue = stripe.queues.get(pid);
+            Lock own = queue == null ? null : queue.find(tid);
+            return own != null && own.getMode().covers(mode);
+        }
+    }
+
+    /** Return true if tid holds a lock on the table that covers mode. */
+    private boolean tableCovers(TransactionId tid, int tableId, LockMode mode) {
+        TransactionLocks locks = held.get(tid);
+        LockMode table = locks == null ? null : locks.tables.get(tableId);
+        return table != null && table.covers(mode);
+    }
+
+    /** Grant the lock on key if that is possible right now, without waiting. */
+    private boolean tryLock(TransactionId tid, Object key, LockMode mode) {
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            LockQueue queue = stripe.queues.computeIfAbsent(key, k -> new LockQueue());
+            if (tryGrant(queue, tid, key, mode)) {
                 return true;
+            }
+            if (queue.isEmpty()) {
+                stripe.queues.remove(key);
+            }
+            return false;
+        }
+    }
+
+    /** Grant the lock on key, waiting in its queue if need be. */
+    private void lock(TransactionId tid, Object key, LockMode mode, long timeoutMillis)
+            throws TransactionAbortedException {
+        Request request;
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            LockQueue queue = stripe.queues.computeIfAbsent(key, k -> new LockQueue());
+            if (tryGrant(queue, tid, key, mode)) {
+                return;
+            }
+            request = new Request(tid, key, mode, Thread.currentThread());
+            if (queue.find(tid) != null) {
+                //升级已持有的锁，排在其他等待者前面
+                queue.waiters.addFirst(request);
             } else {
-                if (firstLock.getPermissions().equals(Permissions.READ_ONLY) && lock.getPermissions().equals(Permissions.READ_ONLY)) {
-                    locks.add(lock);
-                    return true;
+                queue.waiters.addLast(request);
+            }
+            waiting.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(request);
+        }
+        //新的等待边只可能在经过tid的环上；此时不能持有stripe的锁
+        detectDeadlocks(tid);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        boolean interrupted = false;
+        try {
+            while (!request.granted && !request.cancelled) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    break;
                 }
-                return false;
+                if (Thread.interrupted()) {
+                    interrupted = true;
+                    break;
+                }
+                LockSupport.parkNanos(this, left);
             }
+        } finally {
+            if (!request.granted) {
+                cancel(request);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
         }
-        //list中有多个事务则说明全是共享锁
-        if (lock.getPermissions().equals(Permissions.READ_WRITE)) {
+        if (!request.granted) {
+            throw new TransactionAbortedException();
+        }
+    }
+
+    /**
+     * Take back a request that stopped waiting, unless it was granted in
+     * the meantime, and wake its thread.
+     */
+    private void cancel(Request request) {
+        Stripe stripe = stripeOf(request.key);
+        synchronized (stripe) {
+            if (request.granted) {
+                return;
+            }
+            request.cancelled = true;
+            stopWaiting(request);
+            LockQueue queue = stripe.queues.get(request.key);
+            if (queue != null) {
+                //排在前面的请求走了，后面的请求可能可以授予了
+                if (queue.waiters.remove(request)) {
+                    grantWaiters(queue, request.key);
+                }
+                if (queue.isEmpty()) {
+                    stripe.queues.remove(request.key);
+                }
+            }
+        }
+        LockSupport.unpark(request.thread);
+    }
+
+    /**
+     * Grant tid the lock on the key of queue if it holds it already, can
+     * upgrade it, or is compatible with the holders and nobody waits. Must
+     * hold the lock of the key's stripe.
+     */
+    private boolean tryGrant(LockQueue queue, TransactionId tid, Object key, LockMode mode) {
+        Lock own = queue.find(tid);
+        if (own != null) {
+            return covers(queue, own, key, mode);
+        }
+        if (!queue.waiters.isEmpty() || !compatible(queue, mode)) {
             return false;
         }
-        //同一个事务重复获取读锁，不要进入列表！
-        for (Lock lock1 : locks) {
-            if (lock1.getTransactionId().equals(tid)) {
-                return true;
+        addHolder(queue, tid, key, mode);
+        return true;
+    }
+
+    private void addHolder(LockQueue queue, TransactionId tid, Object key, LockMode mode) {
+        queue.holders.add(new Lock(mode, tid));
+        noteHeld(tid, key, mode);
+    }
+
+    /** Record in tid's index that it holds key in mode. Must hold the lock of the key's stripe. */
+    private void noteHeld(TransactionId tid, Object key, LockMode mode) {
+        TransactionLocks locks = held.computeIfAbsent(tid, k -> new TransactionLocks());
+        if (key instanceof TableKey) {
+            locks.tables.put(((TableKey) key).tableId, mode);
+        } else if (key instanceof RecordId) {
+            locks.rows.add((RecordId) key);
+        } else {
+            PageId pid = (PageId) key;
+            locks.pages.computeIfAbsent(pid.getTableId(), k -> ConcurrentHashMap.newKeySet()).add(pid);
+        }
+    }
+
+    /**
+     * Return true if own covers mode, upgrading own if the other locks on
+     * the key are compatible with the upgraded mode.
+     */
+    private boolean covers(LockQueue queue, Lock own, Object key, LockMode mode) {
+        LockMode target = own.getMode().sup(mode);
+        if (target == own.getMode()) {
+            return true;
+        }
+        for (Lock lock : queue.holders) {
+            if (lock != own && !lock.getMode().compatible(target)) {
+                return false;
+            }
+        }
+        own.setMode(target); //锁升级
+        noteHeld(own.getTransactionId(), key, target);
+        return true;
+    }
+
+    /** Return true if a new lock in mode is compatible with the locks held. */
+    private static boolean compatible(LockQueue queue, LockMode mode) {
+        for (Lock lock : queue.holders) {
+            if (!lock.getMode().compatible(mode)) {
+                return false;
             }
         }
-        locks.add(lock);
         return true;
     }
 
+    /**
+     * Grant the waiting requests from the head of the queue on as long as
+     * they are compatible, and wake their threads. Must hold the lock of the
+     * key's stripe.
+     */
+    private void grantWaiters(LockQueue queue, Object key) {
+        Iterator<Request> it = queue.waiters.iterator();
+        while (it.hasNext()) {
+            Request request = it.next();
+            Lock own = queue.find(request.tid);
+            if (own != null) {
+                if (!covers(queue, own, key, request.mode)) {
+                    break;
+                }
+            } else if (compatible(queue, request.mode)) {
+                addHolder(queue, request.tid, key, request.mode);
+            } else {
+                break;
+            }
+            it.remove();
+            request.granted = true;
+            stopWaiting(request);
+            LockSupport.unpark(request.thread);
+        }
+    }
+
+    /** Remove the request from the waiting requests of its transaction. */
+    private void stopWaiting(Request request) {
+        waiting.computeIfPresent(request.tid, (k, requests) -> {
+            requests.remove(request);
+            return requests.isEmpty() ? null : requests;
+        });
+    }
+
+    /**
+     * Replace tid's page locks on the table by a lock on the whole table if
+     * it holds more than the escalation threshold of them and nobody else is
+     * in the way: S if it only reads the table, X if it writes it.
+     */
+    private void maybeEscalate(TransactionId tid, int tableId) {
+        TransactionLocks locks = held.get(tid);
+        if (locks == null) {
+            return;
+        }
+        Set<PageId> pids = locks.pages.get(tableId);
+        LockMode intention = locks.tables.get(tableId);
+        if (pids == null || pids.size() <= escalationThreshold || intention == null) {
+            return;
+        }
+        LockMode target = intention == LockMode.IS ? LockMode.S : LockMode.X;
+        if (!tryLock(tid, new TableKey(tableId), target)) {
+            //其他事务持有不相容的意向锁，保留页锁，下一页再试
+            failedEscalations.incrementAndGet();
+            return;
+        }
+        escalations.incrementAndGet();
+        releaseCovered(tid, tableId);
+    }
 
-    public synchronized void releaseLock(TransactionId transactionId, PageId pageId) {
-//        List<Lock> locks = map.get(pageId.getPageNumber());
-        List<Lock> locks = map.get(pageId);
-        for (int i = 0; i < locks.size(); i++) {
-            Lock lock = locks.get(i);
-            // release lock
-            if (lock.getTransactionId().equals(transactionId)) {
-                locks.remove(lock);
-                if (locks.size() == 0) {
-//                    map.remove(pageId.getPageNumber());
-                    map.remove(pageId);
+    /** Release tid's page locks on the table that its table lock covers. */
+    private void releaseCovered(TransactionId tid, int tableId) {
+        TransactionLocks locks = held.get(tid);
+        if (locks == null) {
+            return;
+        }
+        LockMode table = locks.tables.get(tableId);
+        Set<PageId> pids = locks.pages.get(tableId);
+        if (table == null || pids == null) {
+            return;
+        }
+        for (Iterator<PageId> it = pids.iterator(); it.hasNext(); ) {
+            PageId pid = it.next();
+            Stripe stripe = stripeOf(pid);
+            synchronized (stripe) {
+                LockQueue queue = stripe.queues.get(pid);
+                Lock own = queue == null ? null : queue.find(tid);
+                //SIX下写过的页仍要保留X锁
+                if (own == null || table.covers(own.getMode())) {
+                    release(stripe, tid, pid);
+                    it.remove();
                 }
-                return;
             }
         }
+        locks.pages.computeIfPresent(tableId, (k, set) -> set.isEmpty() ? null : set);
     }
 
-    public synchronized void releaseAllLock(TransactionId transactionId) {
-//        for (Integer k : map.keySet()) {
-        for (PageId k : map.keySet()) {
-            List<Lock> locks = map.get(k);
-            for (int i = 0; i < locks.size(); i++) {
-                Lock lock = locks.get(i);
-                // release lock
-                if (lock.getTransactionId().equals(transactionId)) {
-                    locks.remove(lock);
-                    if (locks.size() == 0) {
-                        map.remove(k);
-                    }
-                    break;
+    /**
+     * Release tid's intention lock on the table if it holds no page locks
+     * on it anymore; it protects nothing then, and would keep others from
+     * locking the whole table.
+     */
+    private void dropIntention(TransactionId tid, int tableId) {
+        TransactionLocks locks = held.get(tid);
+        if (locks == null || locks.pages.containsKey(tableId)) {
+            return;
+        }
+        TableKey key = new TableKey(tableId);
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            LockMode table = locks.tables.get(tableId);
+            if ((table == LockMode.IS || table == LockMode.IX) && !locks.pages.containsKey(tableId)) {
+                locks.tables.remove(tableId);
+                release(stripe, tid, key);
+            }
+        }
+    }
+
+    /**
+     * Abort transactions on waits-for cycles through tid until there are
+     * none.
+     */
+    private void detectDeadlocks(TransactionId tid) {
+        synchronized (detectorLatch) {
+            List<TransactionId> cycle;
+            while (waiting.containsKey(tid) && (cycle = findCycle(tid)) != null) {
+                deadlocks.incrementAndGet();
+                TransactionId victim = chooseVictim(cycle);
+                if (victim.equals(tid)) {
+                    requesterVictims.incrementAndGet();
+                } else {
+                    waiterVictims.incrementAndGet();
+                }
+                victimLocks.addAndGet(countLocks(victim));
+                for (Request request : waiting.getOrDefault(victim, Collections.emptySet())) {
+                    cancel(request);
                 }
             }
         }
     }
 
-    public synchronized Boolean holdsLock(TransactionId tid, PageId p) {
-//        List<Lock> locks = map.get(p.getPageNumber());
-        List<Lock> locks = map.get(p);
-        for (int i = 0; i < locks.size(); i++) {
-            Lock lock = locks.get(i);
-            if (lock.getTransactionId().equals(tid)) {
+    /**
+     * Return the transactions on a waits-for cycle from tid back to tid, or
+     * null if there is none.
+     */
+    private List<TransactionId> findCycle(TransactionId tid) {
+        //深度优先，path是当前路径，visited中的点已知不能回到tid
+        List<TransactionId> path = new ArrayList<>();
+        Set<TransactionId> visited = new HashSet<>();
+        return findCycle(tid, tid, path, visited) ? path : null;
+    }
+
+    private boolean findCycle(TransactionId start, TransactionId tid, List<TransactionId> path,
+                              Set<TransactionId> visited) {
+        path.add(tid);
+        visited.add(tid);
+        for (TransactionId next : waitsFor(tid)) {
+            if (next.equals(start)) {
+                return true;
+            }
+            if (!visited.contains(next) && findCycle(start, next, path, visited)) {
                 return true;
             }
         }
+        path.remove(path.size() - 1);
         return false;
     }
+
+    /**
+     * Return the transactions that the waiting requests of tid wait for.
+     * Each queue is read under its stripe's lock.
+     */
+    private Set<TransactionId> waitsFor(TransactionId tid) {
+        Set<TransactionId> blockers = new HashSet<>();
+        for (Request request : waiting.getOrDefault(tid, Collections.emptySet())) {
+            Stripe stripe = stripeOf(request.key);
+            synchronized (stripe) {
+                LockQueue queue = stripe.queues.get(request.key);
+                if (queue == null || request.granted || request.cancelled) {
+                    continue;
+                }
+                //升级时等的是升级后的模式
+                Lock own = queue.find(tid);
+                LockMode target = own == null ? request.mode : own.getMode().sup(request.mode);
+                for (Lock lock : queue.holders) {
+                    if (lock != own && !lock.getMode().compatible(target)) {
+                        blockers.add(lock.getTransactionId());
+                    }
+                }
+                for (Request ahead : queue.waiters) {
+                    if (ahead == request) {
+                        break;
+                    }
+                    if (!ahead.tid.equals(tid) && !ahead.mode.compatible(target)) {
+                        blockers.add(ahead.tid);
+                    }
+                }
+            }
+        }
+        return blockers;
+    }
+
+    /** Pick the transaction of a deadlock cycle to abort. */
+    private TransactionId chooseVictim(List<TransactionId> cycle) {
+        TransactionId victim = cycle.get(0);
+        if (victimPolicy == VictimPolicy.FEWEST_LOCKS) {
+            int fewest = countLocks(victim);
+            for (TransactionId tid : cycle) {
+                int n = countLocks(tid);
+                //一样多时中止较年轻的
+                if (n < fewest || n == fewest && tid.getId() > victim.getId()) {
+                    victim = tid;
+                    fewest = n;
+                }
+            }
+            return victim;
+        }
+        for (TransactionId tid : cycle) {
+            if (tid.getId() > victim.getId()) {
+                victim = tid;
+            }
+        }
+        return victim;
+    }
+
+    /** Return the number of page and row locks tid holds. */
+    private int countLocks(TransactionId tid) {
+        TransactionLocks locks = held.get(tid);
+        return locks == null ? 0 : locks.countPages() + locks.rows.size();
+    }
+
+    /** Set how the transaction to abort is chosen from a deadlock cycle. */
+    public void setVictimPolicy(VictimPolicy victimPolicy) {
+        this.victimPolicy = victimPolicy;
+    }
+
+    public VictimPolicy getVictimPolicy() {
+        return victimPolicy;
+    }
+
+    /**
+     * Set the number of page locks a transaction may hold on one table
+     * before they are escalated to a lock on the table;
+     * Integer.MAX_VALUE turns escalation off.
+     */
+    public void setEscalationThreshold(int escalationThreshold) {
+        this.escalationThreshold = escalationThreshold;
+    }
+
+    public int getEscalationThreshold() {
+        return escalationThreshold;
+    }
+
+    /** Return the number of deadlocks detected. */
+    public long getDeadlockCount() {
+        return deadlocks.get();
+    }
+
+    /** Return the number of deadlock victims that were the transaction whose wait closed the cycle. */
+    public long getRequesterVictimCount() {
+        return requesterVictims.get();
+    }
+
+    /** Return the number of deadlock victims that were other transactions already waiting on the cycle. */
+    public long getWaiterVictimCount() {
+        return waiterVictims.get();
+    }
+
+    /** Return the number of locks the deadlock victims held when they were chosen, the work they lose. */
+    public long getVictimLockCount() {
+        return victimLocks.get();
+    }
+
+    /** Return the number of times page locks were replaced by a table lock. */
+    public long getEscalationCount() {
+        return escalations.get();
+    }
+
+    /** Return the number of escalations that couldn't be done because of other transactions' locks. */
+    public long getFailedEscalationCount() {
+        return failedEscalations.get();
+    }
+
+    /** Return the number of page locks tid holds, on all tables. */
+    public int getPageLockCount(TransactionId tid) {
+        TransactionLocks locks = held.get(tid);
+        return locks == null ? 0 : locks.countPages();
+    }
+
+    /** Return the number of row locks tid holds, on all tables. */
+    public int getRowLockCount(TransactionId tid) {
+        TransactionLocks locks = held.get(tid);
+        return locks == null ? 0 : locks.rows.size();
+    }
+
+    /** Return the mode of tid's lock on the table, or null if it has none. */
+    public LockMode getTableLock(TransactionId tid, int tableId) {
+        TransactionLocks locks = held.get(tid);
+        return locks == null ? null : locks.tables.get(tableId);
+    }
+
+    /**
+     * Release tid's lock on the page, and its intention lock on the table
+     * if that was its last page lock there. A table lock covering the page
+     * is kept.
+     */
+    public void releaseLock(TransactionId transactionId, PageId pageId) {
+        Stripe stripe = stripeOf(pageId);
+        synchronized (stripe) {
+            release(stripe, transactionId, pageId);
+        }
+        TransactionLocks locks = held.get(transactionId);
+        if (locks == null) {
+            return;
+        }
+        locks.pages.computeIfPresent(pageId.getTableId(), (k, pids) -> {
+            pids.remove(pageId);
+            return pids.isEmpty() ? null : pids;
+        });
+        dropIntention(transactionId, pageId.getTableId());
+    }
+
+    /** Drop tid's lock on key and grant the waiters it let through. Must hold the stripe's lock. */
+    private void release(Stripe stripe, TransactionId tid, Object key) {
+        LockQueue queue = stripe.queues.get(key);
+        if (queue == null) {
+            return;
+        }
+        Lock lock = queue.find(tid);
+        if (lock == null) {
+            return;
+        }
+        // release lock
+        queue.holders.remove(lock);
+        grantWaiters(queue, key);
+        if (queue.isEmpty()) {
+            stripe.queues.remove(key);
+        }
+    }
+
+    /**
+     * Release all locks of the transaction, and fail the requests it still
+     * has waiting. Visits only the rows, pages and tables the transaction locked.
+     */
+    public void releaseAllLock(TransactionId transactionId) {
+        Set<Request> requests = waiting.get(transactionId);
+        if (requests != null) {
+            for (Request request : requests) {
+                cancel(request);
+            }
+        }
+        TransactionLocks locks = held.remove(transactionId);
+        if (locks == null) {
+            return;
+        }
+        //从细到粗释放，免得等粗粒度锁的事务被唤醒后又等细粒度的锁
+        for (RecordId rid : locks.rows) {
+            Stripe stripe = stripeOf(rid);
+            synchronized (stripe) {
+                release(stripe, transactionId, rid);
+            }
+        }
+        for (Set<PageId> pids : locks.pages.values()) {
+            for (PageId pid : pids) {
+                Stripe stripe = stripeOf(pid);
+                synchronized (stripe) {
+                    release(stripe, transactionId, pid);
+                }
+            }
+        }
+        for (Integer tableId : locks.tables.keySet()) {
+            TableKey key = new TableKey(tableId);
+            Stripe stripe = stripeOf(key);
+            synchronized (stripe) {
+                release(stripe, transactionId, key);
+            }
+        }
+    }
+
+    /**
+     * 是否有事务持有这一页的锁，或者持有覆盖这一页的表锁
+     */
+    public boolean isLocked(PageId p) {
+        Stripe stripe = stripeOf(p);
+        synchronized (stripe) {
+            LockQueue queue = stripe.queues.get(p);
+            if (queue != null && !queue.holders.isEmpty()) {
+                return true;
+            }
+        }
+        TableKey key = new TableKey(p.getTableId());
+        stripe = stripeOf(key);
+        synchronized (stripe) {
+            LockQueue queue = stripe.queues.get(key);
+            if (queue != null) {
+                for (Lock lock : queue.holders) {
+                    if (lock.getMode().covers(LockMode.S)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    public Boolean holdsLock(TransactionId tid, PageId p) {
+        if (tableCovers(tid, p.getTableId(), LockMode.S)) {
+            return true;
+        }
+        Stripe stripe = stripeOf(p);
+        synchronized (stripe) {
+            LockQueue queue = stripe.queues.get(p);
+            return queue != null && queue.find(tid) != null;
+        }
+    }
 }
@@ -0,0 +1,66 @@
+package simpledb.transaction;
+
+import simpledb.common.Permissions;
+
+/**
+ * The modes of multi-granularity locks. Pages are locked S or X; a table is
+ * locked IS or IX before pages of it are locked S or X, or S, SIX or X as a
+ * whole, which covers the pages without locking them one by one.
+ */
+public enum LockMode {
+    /** Intention shared: pages of the table will be locked S */
+    IS,
+    /** Intention exclusive: pages of the table will be locked X */
+    IX,
+    /** Shared */
+    S,
+    /** Shared and intention exclusive: the whole table is read, pages of it will be locked X */
+    SIX,
+    /** Exclusive */
+    X;
+
+    // 相容矩阵，按ordinal索引
+    private static final boolean[][] COMPATIBLE = {
+            //          IS     IX     S      SIX    X
+            /* IS  */ {true,  true,  true,  true,  false},
+            /* IX  */ {true,  true,  false, false, false},
+            /* S   */ {true,  false, true,  false, false},
+            /* SIX */ {true,  false, false, false, false},
+            /* X   */ {false, false, false, false, false},
+    };
+
+    /** Return the mode a lock for permissions on a page or a whole table has. */
+    public static LockMode of(Permissions permissions) {
+        return permissions == Permissions.READ_WRITE ? X : S;
+    }
+
+    /** Return the intention mode to hold on a table before locking a page of it in this mode. */
+    public LockMode intention() {
+        return this == S || this == IS ? IS : IX;
+    }
+
+    /** Return true if a lock in this mode can be held together with one in other by another transaction. */
+    public boolean compatible(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /** Return the weakest mode that allows everything this mode and other allow. */
+    public LockMode sup(LockMode other) {
+        if (this == other) {
+            return this;
+        }
+        if (this == X || other == X) {
+            return X;
+        }
+        //IX和S（或SIX）合起来是SIX；其余情况两者可比较，取较强者
+        if (this == IX && (other == S || other == SIX) || other == IX && (this == S || this == SIX)) {
+            return SIX;
+        }
+        return ordinal() > other.ordinal() ? this : other;
+    }
+
+    /** Return true if holding this mode allows everything other allows. */
+    public boolean covers(LockMode other) {
+        return sup(other) == this;
+    }
+}
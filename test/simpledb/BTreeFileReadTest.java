@@ -89,6 +89,36 @@ public class BTreeFileReadTest extends SimpleDbTestBase {
 		assertFalse(page.isSlotUsed(20));
 	}
 
+	/**
+	 * Unit test for BTreeFile.readPages()
+	 */
+	@Test
+	public void readPages() throws Exception {
+		BTreeFile bigFile = BTreeUtility.createRandomBTreeFile(2, 5000, null, null, 0);
+		assertTrue(bigFile.numPages() > 4);
+		List<PageId> ids = new ArrayList<>();
+		ids.add(new BTreePageId(bigFile.getId(), 3, BTreePageId.LEAF));
+		ids.add(new BTreePageId(bigFile.getId(), 0, BTreePageId.ROOT_PTR));
+		ids.add(new BTreePageId(bigFile.getId(), 1, BTreePageId.LEAF));
+		ids.add(new BTreePageId(bigFile.getId(), 2, BTreePageId.LEAF));
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bigFile.readPage(ids.get(1));
+		assertEquals(BTreePageId.INTERNAL, rootPtr.getRootId().pgcateg());
+		ids.add(rootPtr.getRootId());
+
+		List<Page> pages = bigFile.readPages(ids);
+		assertEquals(ids.size(), pages.size());
+		for (int i = 0; i < ids.size(); i++) {
+			assertEquals(ids.get(i), pages.get(i).getId());
+			assertArrayEquals(bigFile.readPage(ids.get(i)).getPageData(), pages.get(i).getPageData());
+		}
+
+		// write them back in one go; the file must not change
+		bigFile.writePages(pages);
+		for (int i = 0; i < ids.size(); i++) {
+			assertArrayEquals(pages.get(i).getPageData(), bigFile.readPage(ids.get(i)).getPageData());
+		}
+	}
+
 	@Test
 	public void testIteratorBasic() throws Exception {
 		BTreeFile smallFile = BTreeUtility.createRandomBTreeFile(2, 3, null,
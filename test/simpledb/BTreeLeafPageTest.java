@@ -347,6 +347,39 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.getBeforeImage()
+	 */
+	@Test public void beforeImage() throws Exception {
+		final int[] serialized = {0};
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0) {
+			@Override
+			public byte[] getPageData() {
+				serialized[0]++;
+				return super.getPageData();
+			}
+		};
+		int free = page.getNumEmptySlots();
+		Iterator<Tuple> it = page.iterator();
+		while (it.hasNext())
+			it.next();
+		// reading the page doesn't save a before-image
+		assertEquals(0, serialized[0]);
+		assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+
+		// the first change saves it, later ones don't
+		page.deleteTuple(page.iterator().next());
+		page.deleteTuple(page.iterator().next());
+		page.markDirty(true, new TransactionId());
+		assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+		assertEquals(free + 2, page.getNumEmptySlots());
+
+		// after commit the current contents are the before-image
+		page.markDirty(false, null);
+		page.setBeforeImage();
+		assertEquals(free + 2, page.getBeforeImage().getNumEmptySlots());
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -12,7 +12,9 @@ import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -90,6 +92,35 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.writePages() and HeapFile.readPages()
+     */
+    @Test public void writeAndReadPages() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 8, null, null);
+        byte[] empty = HeapPage.createEmptyPageData();
+
+        // pages 1-3 form one run, 6 and 7 another, 5 stands alone; given out of order
+        List<Page> pages = new ArrayList<>();
+        for (int pageNo : new int[] {6, 2, 5, 1, 7, 3}) {
+            pages.add(new HeapPage(new HeapPageId(f.getId(), pageNo), empty));
+        }
+        f.writePages(pages);
+
+        List<PageId> ids = new ArrayList<>();
+        for (int pageNo : new int[] {7, 0, 3, 4, 1, 2, 6, 5}) {
+            ids.add(new HeapPageId(f.getId(), pageNo));
+        }
+        List<Page> read = f.readPages(ids);
+        assertEquals(ids.size(), read.size());
+        for (int i = 0; i < ids.size(); i++) {
+            HeapPage p = (HeapPage) read.get(i);
+            assertEquals(ids.get(i), p.getId());
+            assertArrayEquals(f.readPage(ids.get(i)).getPageData(), p.getPageData());
+            int pageNo = ids.get(i).getPageNumber();
+            assertEquals(pageNo == 0 || pageNo == 4 ? 0 : 504, p.getNumEmptySlots());
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -3,6 +3,7 @@ package simpledb;
 import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -123,6 +124,34 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getField()
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int i = 0; i < EXAMPLE_VALUES.length; ++i) {
+            assertEquals(EXAMPLE_VALUES[i][1], ((IntField) page.getField(i, 1)).getValue());
+            assertEquals(EXAMPLE_VALUES[i][0], ((IntField) page.getField(i, 0)).getValue());
+        }
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(Predicate)
+     */
+    @Test public void testPredicateIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000));
+        Iterator<Tuple> it = page.iterator(p);
+        for (int[] values : EXAMPLE_VALUES) {
+            if (values[0] > 30000) {
+                Tuple tup = it.next();
+                assertEquals(values[0], ((IntField) tup.getField(0)).getValue());
+                assertEquals(values[1], ((IntField) tup.getField(1)).getValue());
+            }
+        }
+        assertFalse(it.hasNext());
+    }
+
     /**
      * JUnit suite target
      */
@@ -131,6 +131,27 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getBeforeImage()
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumEmptySlots();
+        assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        page.deleteTuple(page.iterator().next());
+        page.deleteTuple(page.iterator().next());
+        assertEquals(free + 1, page.getNumEmptySlots());
+        assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+
+        // after commit the current contents are the before-image
+        page.setBeforeImage();
+        HeapPage before = page.getBeforeImage();
+        assertEquals(free + 1, before.getNumEmptySlots());
+        assertArrayEquals(page.getPageData(), before.getPageData());
+    }
+
     /**
      * JUnit suite target
      */
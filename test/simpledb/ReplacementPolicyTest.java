@@ -0,0 +1,114 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.ClockPolicy;
+import simpledb.storage.LRUPolicy;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.storage.TwoQueuePolicy;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static void addAll(ReplacementPolicy<Integer> policy, int from, int to) {
+        for (int i = from; i < to; i++) {
+            policy.add(i);
+        }
+    }
+
+    /**
+     * Unit test for LRUPolicy.evict()
+     */
+    @Test public void lruEvictsLeastRecentlyUsed() {
+        ReplacementPolicy<Integer> lru = new LRUPolicy<>();
+        addAll(lru, 0, 4);
+        lru.touch(0);
+        assertEquals(Integer.valueOf(1), lru.evict(k -> true));
+        assertEquals(Integer.valueOf(2), lru.evict(k -> true));
+        lru.remove(3);
+        assertEquals(Integer.valueOf(0), lru.evict(k -> true));
+        assertNull(lru.evict(k -> true));
+    }
+
+    /**
+     * Unit test for ClockPolicy.evict()
+     */
+    @Test public void clockGivesSecondChance() {
+        ReplacementPolicy<Integer> clock = new ClockPolicy<>();
+        addAll(clock, 0, 4);
+        clock.touch(0);
+        clock.touch(1);
+        // 0 and 1 have their reference bit set, so the hand passes them
+        assertEquals(Integer.valueOf(2), clock.evict(k -> true));
+        assertEquals(Integer.valueOf(3), clock.evict(k -> true));
+        // the bits were cleared on the way past
+        assertEquals(Integer.valueOf(0), clock.evict(k -> true));
+        // freed slots are reused
+        clock.add(7);
+        assertEquals(Integer.valueOf(1), clock.evict(k -> true));
+        assertEquals(Integer.valueOf(7), clock.evict(k -> true));
+        assertNull(clock.evict(k -> true));
+    }
+
+    /**
+     * Policies must skip keys that are not evictable, e.g. dirty pages
+     */
+    @Test public void skipsUnevictable() {
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            ReplacementPolicy<Integer> policy = kind.create(8);
+            addAll(policy, 0, 8);
+            assertEquals(kind.toString(), Integer.valueOf(5), policy.evict(k -> k == 5));
+            assertNull(kind.toString(), policy.evict(k -> k == 5));
+            assertNull(kind.toString(), policy.evict(k -> false));
+        }
+    }
+
+    /**
+     * A scan of pages seen once must not push the re-referenced hot pages out of 2Q
+     */
+    @Test public void twoQueueIsScanResistant() {
+        int capacity = 16;
+        ReplacementPolicy<Integer> twoq = new TwoQueuePolicy<>(capacity);
+        // load the hot pages, let them fall out of A1in and bring them back: now they live in Am
+        addAll(twoq, 0, 4);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Integer.valueOf(i), twoq.evict(k -> true));
+        }
+        addAll(twoq, 0, 4);
+
+        // a long scan, keeping the cache at capacity
+        for (int i = 100; i < 1000; i++) {
+            if (i - 100 + 4 >= capacity) {
+                Integer victim = twoq.evict(k -> true);
+                assertTrue("hot page " + victim + " evicted by scan", victim >= 100);
+            }
+            twoq.add(i);
+            for (int hot = 0; hot < 4; hot++) {
+                twoq.touch(hot);
+            }
+        }
+
+        // the same scan flushes the hot pages out of LRU
+        ReplacementPolicy<Integer> lru = new LRUPolicy<>();
+        addAll(lru, 0, 4);
+        boolean hotEvicted = false;
+        for (int i = 100; i < 200; i++) {
+            if (i - 100 + 4 >= capacity) {
+                hotEvicted |= lru.evict(k -> true) < 100;
+            }
+            lru.add(i);
+        }
+        assertTrue(hotEvicted);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
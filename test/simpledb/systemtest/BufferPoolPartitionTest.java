@@ -0,0 +1,121 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Checks that a partitioned BufferPool, with any replacement policy, returns
+ * the same pages as a single partition pool, and reports getPage throughput
+ * with many reader threads for both configurations.
+ */
+public class BufferPoolPartitionTest extends SimpleDbTestBase {
+    private static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private static final int GETS_PER_THREAD = 20000;
+    private static final int PARTITIONS = 16;
+
+    @Test public void testPartitionCount() {
+        assertEquals(1, new BufferPool(BufferPool.DEFAULT_PAGES).getNumPartitions());
+        assertEquals(4, new BufferPool(10, 4).getNumPartitions());
+        // never more partitions than pages
+        assertEquals(2, new BufferPool(2, 8).getNumPartitions());
+        assertEquals(1, new BufferPool(10, 0).getNumPartitions());
+    }
+
+    @Test public void testScanWithPartitions() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        // ~100 pages, scanned through a pool with room for 16 of them
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 100, null, tuples);
+        Database.resetBufferPool(16, 4);
+        SystemTestUtil.matchTuples(f, tuples);
+        // scan again, now partly from cache
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void testScanWithEachPolicy() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 40, null, tuples);
+        for (ReplacementPolicy.Kind policy : ReplacementPolicy.Kind.values()) {
+            Database.resetBufferPool(16, 2, policy);
+            SystemTestUtil.matchTuples(f, tuples);
+            SystemTestUtil.matchTuples(f, tuples);
+        }
+    }
+
+    @Test public void testConcurrentGetPage() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 64, null, null);
+        int numPages = f.numPages();
+
+        long single = runReaders(f, numPages, 1);
+        long partitioned = runReaders(f, numPages, PARTITIONS);
+        System.out.println("BufferPoolPartitionTest: " + THREADS + " threads, "
+                + "1 partition " + single + " gets/s, "
+                + PARTITIONS + " partitions " + partitioned + " gets/s");
+    }
+
+    /**
+     * Runs THREADS readers doing random getPage calls against a warm pool.
+     * @return getPage calls per second over all threads
+     */
+    private long runReaders(final HeapFile f, final int numPages, int partitions) throws Exception {
+        final BufferPool bp = Database.resetBufferPool(numPages * 2, partitions);
+        TransactionId warm = new TransactionId();
+        for (int i = 0; i < numPages; i++) {
+            bp.getPage(warm, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(warm);
+
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final long seed = t;
+            threads.add(new Thread(() -> {
+                TransactionId tid = new TransactionId();
+                Random r = new Random(seed);
+                try {
+                    for (int i = 0; i < GETS_PER_THREAD; i++) {
+                        PageId pid = new HeapPageId(f.getId(), r.nextInt(numPages));
+                        Page p = bp.getPage(tid, pid, Permissions.READ_ONLY);
+                        if (!pid.equals(p.getId())) {
+                            throw new AssertionError("got " + p.getId() + " for " + pid);
+                        }
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    bp.transactionComplete(tid);
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+        long elapsed = Math.max(1, System.nanoTime() - start);
+
+        if (error.get() != null) {
+            throw new AssertionError("reader failed with " + partitions + " partitions", error.get());
+        }
+        return (long) THREADS * GETS_PER_THREAD * 1000000000L / elapsed;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BufferPoolPartitionTest.class);
+    }
+}
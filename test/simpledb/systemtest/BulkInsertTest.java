@@ -0,0 +1,171 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.Insert;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Page;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Bulk inserts must fill pages densely, use the free slots of existing pages
+ * first and append new pages in groups. Also compares inserting a large
+ * batch one tuple at a time with the bulk path.
+ */
+public class BulkInsertTest extends SimpleDbTestBase {
+
+    /** Counts page writes by kind. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        int writePageCount = 0;
+        int writePagesCount = 0;
+
+        InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePage(Page page) throws IOException {
+            writePageCount += 1;
+            super.writePage(page);
+        }
+
+        @Override
+        public void writePages(List<Page> pages) throws IOException {
+            writePagesCount += 1;
+            super.writePages(pages);
+        }
+    }
+
+    private static InstrumentedHeapFile openTable(int rows, List<List<Integer>> tuples) throws Exception {
+        File file = SystemTestUtil.createRandomHeapFileUnopened(2, rows, 1000, null, tuples);
+        InstrumentedHeapFile f = new InstrumentedHeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        return f;
+    }
+
+    private static List<Tuple> newTuples(int n, List<List<Integer>> expected) {
+        List<Tuple> tuples = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] {-i, i});
+            tuples.add(t);
+            expected.add(SystemTestUtil.tupleToList(t));
+        }
+        return tuples;
+    }
+
+    @Test public void testFillsNewPagesDensely() throws Exception {
+        List<List<Integer>> expected = new ArrayList<>();
+        InstrumentedHeapFile f = openTable(0, expected);
+        Database.resetBufferPool(100);
+
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuples(t.getId(), f.getId(), newTuples(504 * 20 + 7, expected).iterator());
+        // 21 pages appended in two groups, none on its own
+        assertEquals(21, f.numPages());
+        assertEquals(2, f.writePagesCount);
+        assertEquals(0, f.writePageCount);
+        t.commit();
+        SystemTestUtil.matchTuples(f, expected);
+    }
+
+    @Test public void testFillsFreeSlotsFirst() throws Exception {
+        List<List<Integer>> expected = new ArrayList<>();
+        InstrumentedHeapFile f = openTable(504 * 5, expected);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        // free 3 slots on page 2
+        Transaction t = new Transaction();
+        t.start();
+        HeapPage page = (HeapPage) bp.getPage(t.getId(), new HeapPageId(f.getId(), 2), Permissions.READ_ONLY);
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; i < 3; i++) {
+            Tuple victim = it.next();
+            expected.remove(SystemTestUtil.tupleToList(victim));
+            bp.deleteTuple(t.getId(), victim);
+        }
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        bp.insertTuples(t.getId(), f.getId(), newTuples(10, expected).iterator());
+        t.commit();
+        assertEquals(0, f.getFreeSpaceMap().get(2));
+        assertEquals(6, f.numPages());
+        assertEquals(504 - 7, ((HeapPage) f.readPage(new HeapPageId(f.getId(), 5))).getNumEmptySlots());
+        SystemTestUtil.matchTuples(f, expected);
+    }
+
+    @Test public void testInsertOperator() throws Exception {
+        List<List<Integer>> sourceTuples = new ArrayList<>();
+        HeapFile source = SystemTestUtil.createRandomHeapFile(2, 10000, null, sourceTuples);
+        List<List<Integer>> expected = new ArrayList<>();
+        InstrumentedHeapFile destination = openTable(0, expected);
+        Database.resetBufferPool(100);
+
+        TransactionId tid = new TransactionId();
+        Insert insert = new Insert(tid, new SeqScan(tid, source.getId(), ""), destination.getId());
+        insert.open();
+        assertEquals(10000, ((IntField) insert.next().getField(0)).getValue());
+        assertFalse(insert.hasNext());
+        insert.close();
+        assertEquals((10000 + 503) / 504, destination.numPages());
+        assertEquals(0, destination.writePageCount);
+        Database.getBufferPool().transactionComplete(tid);
+
+        SystemTestUtil.matchTuples(destination, sourceTuples);
+    }
+
+    /** Load the same rows one at a time and in bulk and report both times. */
+    @Test public void testLoadSpeed() throws Exception {
+        final int ROWS = 504 * 150;
+        long single = load(ROWS, false);
+        long bulk = load(ROWS, true);
+        System.out.println("BulkInsertTest: " + ROWS + " rows, one at a time " + single / 1000000
+                + " ms, bulk " + bulk / 1000000 + " ms");
+    }
+
+    private static long load(int rows, boolean bulk) throws Exception {
+        List<List<Integer>> expected = new ArrayList<>();
+        InstrumentedHeapFile f = openTable(0, null);
+        List<Tuple> tuples = newTuples(rows, expected);
+        BufferPool bp = Database.resetBufferPool(200);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        if (bulk) {
+            bp.insertTuples(tid, f.getId(), tuples.iterator());
+        } else {
+            for (Tuple t : tuples) {
+                bp.insertTuple(tid, f.getId(), t);
+            }
+        }
+        bp.transactionComplete(tid);
+        long elapsed = System.nanoTime() - start;
+        assertEquals((rows + 503) / 504, f.numPages());
+        return elapsed;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BulkInsertTest.class);
+    }
+}
@@ -0,0 +1,171 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Cold scan benchmark: reads every page of a heap file straight from disk,
+ * once the way HeapFile used to (a new RandomAccessFile per page, read a byte
+ * at a time) and once through HeapFile's persistent PageChannel, and reports
+ * pages per second for both and for a SeqScan through an empty buffer pool.
+ * The OS page cache is warm, so this measures the per-page I/O overhead.
+ * The mapped read path is measured the same way.
+ */
+public class ColdScanTest extends SimpleDbTestBase {
+    private static final int PAGES = 300;
+
+    @Test public void testColdScanThroughput() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, tuples);
+        assertEquals(PAGES, f.numPages());
+
+        // both paths must return the same bytes
+        for (int i = 0; i < PAGES; i += 37) {
+            HeapPage p = (HeapPage) f.readPage(new HeapPageId(f.getId(), i));
+            assertTrue(Arrays.equals(legacyReadPage(f.getFile(), i), p.getPageData()));
+        }
+
+        long legacy = System.nanoTime();
+        for (int i = 0; i < PAGES; i++) {
+            legacyReadPage(f.getFile(), i);
+        }
+        legacy = System.nanoTime() - legacy;
+
+        long channel = System.nanoTime();
+        for (int i = 0; i < PAGES; i++) {
+            f.readPage(new HeapPageId(f.getId(), i));
+        }
+        channel = System.nanoTime() - channel;
+
+        long scan = coldScan(f, tuples.size());
+
+        System.out.println("ColdScanTest: " + PAGES + " pages, per page RandomAccessFile "
+                + pagesPerSecond(legacy) + " pages/s, persistent FileChannel "
+                + pagesPerSecond(channel) + " pages/s, SeqScan " + pagesPerSecond(scan) + " pages/s");
+        assertTrue("positional reads slower than the per page RandomAccessFile", channel < legacy);
+    }
+
+    /**
+     * Compare reading pages through the memory mapping with reading them
+     * through the channel.
+     */
+    @Test public void testMappedScanThroughput() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, tuples);
+
+        long channel = readAllPages(f);
+        long channelScan = coldScan(f, tuples.size());
+        f.setMemoryMapped(true);
+        assertTrue(f.isMemoryMapped());
+        // map the file before timing
+        readAllPages(f);
+        long mapped = readAllPages(f);
+        long mappedScan = coldScan(f, tuples.size());
+
+        for (int i = 0; i < PAGES; i += 37) {
+            HeapPage p = (HeapPage) f.readPage(new HeapPageId(f.getId(), i));
+            assertTrue(Arrays.equals(legacyReadPage(f.getFile(), i), p.getPageData()));
+        }
+        System.out.println("ColdScanTest: " + PAGES + " pages, readPage through FileChannel "
+                + pagesPerSecond(channel) + " pages/s, mapped " + pagesPerSecond(mapped)
+                + " pages/s; SeqScan through FileChannel " + pagesPerSecond(channelScan)
+                + " pages/s, mapped " + pagesPerSecond(mappedScan) + " pages/s");
+    }
+
+    /**
+     * Pages appended and written while the file is mapped must be visible
+     * through the mapping.
+     */
+    @Test public void testMappedFileGrows() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        f.setMemoryMapped(true);
+        assertEquals(504, countTuples((HeapPage) f.readPage(new HeapPageId(f.getId(), 1))));
+
+        // the file is full, so this appends a third page
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(-1, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, f.numPages());
+        assertEquals(1, countTuples((HeapPage) f.readPage(new HeapPageId(f.getId(), 2))));
+
+        // overwrite page 1 with an empty page
+        f.writePage(new HeapPage(new HeapPageId(f.getId(), 1), HeapPage.createEmptyPageData()));
+        assertEquals(0, countTuples((HeapPage) f.readPage(new HeapPageId(f.getId(), 1))));
+
+        f.setMemoryMapped(false);
+        assertEquals(1, countTuples((HeapPage) f.readPage(new HeapPageId(f.getId(), 2))));
+    }
+
+    private static long readAllPages(HeapFile f) {
+        long start = System.nanoTime();
+        for (int i = 0; i < f.numPages(); i++) {
+            f.readPage(new HeapPageId(f.getId(), i));
+        }
+        return System.nanoTime() - start;
+    }
+
+    /** Time a SeqScan of f through an empty buffer pool. */
+    private static long coldScan(HeapFile f, int expected) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        SeqScan ss = new SeqScan(tid, f.getId(), "");
+        ss.open();
+        int count = 0;
+        while (ss.hasNext()) {
+            ss.next();
+            count++;
+        }
+        ss.close();
+        long elapsed = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(expected, count);
+        return elapsed;
+    }
+
+    private static int countTuples(HeapPage page) {
+        int n = 0;
+        for (java.util.Iterator<?> it = page.iterator(); it.hasNext(); it.next()) {
+            n++;
+        }
+        return n;
+    }
+
+    private static long pagesPerSecond(long nanos) {
+        return PAGES * 1000000000L / Math.max(1, nanos);
+    }
+
+    /** The read path HeapFile.readPage used before PageChannel. */
+    private static byte[] legacyReadPage(File file, int pageNumber) throws IOException {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        RandomAccessFile rFile = new RandomAccessFile(file, "r");
+        rFile.seek((long) pageNumber * BufferPool.getPageSize());
+        for (int i = 0; i < BufferPool.getPageSize(); i++) {
+            data[i] = (byte) rFile.read();
+        }
+        rFile.close();
+        return data;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ColdScanTest.class);
+    }
+}
@@ -0,0 +1,164 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.CompressedHeapFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+/**
+ * A CompressedHeapFile must return the tuples of the heap file it was made
+ * from while taking less disk, take inserts, deletes and aborts, keep its
+ * pages across reopening, work with off-heap frames, and be created from a
+ * catalog entry ending with <code>compressed</code>.
+ */
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private static File tempFile(String prefix) throws Exception {
+        File f = File.createTempFile(prefix, ".dat");
+        f.deleteOnExit();
+        for (String suffix : new String[] {".idx", ".fsm", ".alloc"}) {
+            new File(f.getPath() + suffix).deleteOnExit();
+        }
+        return f;
+    }
+
+    /** Compress a random heap file of small values and open it. */
+    private static CompressedHeapFile createTable(int columns, int rows, List<List<Integer>> tuples)
+            throws Exception {
+        File heap = SystemTestUtil.createRandomHeapFileUnopened(columns, rows, 100, null, tuples);
+        File out = tempFile("compressed");
+        CompressedHeapFile.compress(heap, out, BufferPool.getPageSize());
+        System.out.println("CompressedHeapFileTest: " + heap.length() + " bytes compressed to "
+                + (out.length() + CompressedHeapFile.getIndexFile(out).length()));
+        assertTrue(out.length() * 3 < heap.length() * 2);
+        CompressedHeapFile f = new CompressedHeapFile(out, Utility.getTupleDesc(columns));
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        return f;
+    }
+
+    @Test public void testScan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        CompressedHeapFile f = createTable(3, 5000, tuples);
+        assertEquals((5000 + 335) / 336, f.numPages());
+        SystemTestUtil.matchTuples(f, tuples);
+
+        // and with read-ahead, which reads adjacent compressed pages together
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES).enableReadAhead();
+        SystemTestUtil.matchTuples(f, tuples);
+        Database.getBufferPool().disableReadAhead();
+    }
+
+    @Test public void testOffHeapFrames() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        CompressedHeapFile f = createTable(2, 3000, tuples);
+        Database.resetBufferPool(4).enableOffHeapFrames();
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void testWriteAbortAndReopen() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        CompressedHeapFile f = createTable(2, 1000, tuples);
+        int pages = f.numPages();
+
+        // delete the first tuples, which frees room on page 0, and insert more than fit there
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        for (int i = 0; i < 10; i++) {
+            Tuple t = it.next();
+            Database.getBufferPool().deleteTuple(tid, t);
+            tuples.remove(SystemTestUtil.tupleToList(t));
+        }
+        it.close();
+        TupleDesc td = f.getTupleDesc();
+        for (int i = 0; i < 600; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(-i));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(f.numPages() > pages);
+        SystemTestUtil.matchTuples(f, tuples);
+
+        // an aborted delete leaves the tuples
+        tid = new TransactionId();
+        it = f.iterator(tid);
+        it.open();
+        Database.getBufferPool().deleteTuple(tid, it.next());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid, false);
+        SystemTestUtil.matchTuples(f, tuples);
+
+        // everything is on disk after a flush; a new instance reads it from the index
+        Database.getBufferPool().flushAllPages();
+        CompressedHeapFile reopened = new CompressedHeapFile(f.getFile(), td);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(f.numPages(), reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    @Test public void testEncoderAndCatalog() throws Exception {
+        File dir = tempFile("compressed").getParentFile();
+        String table = "compressedtable" + System.nanoTime();
+        File text = new File(dir, table + ".txt");
+        File data = new File(dir, table + ".dat");
+        File catalog = new File(dir, table + ".catalog");
+        for (File f : new File[] {text, data, catalog, CompressedHeapFile.getIndexFile(data),
+                new File(data.getPath() + ".fsm"), new File(data.getPath() + ".alloc")}) {
+            f.deleteOnExit();
+        }
+        try (FileWriter w = new FileWriter(text)) {
+            for (int i = 0; i < 2000; i++) {
+                w.write(i + ",name" + (i % 50) + "\n");
+            }
+        }
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 2,
+                new Type[] {Type.INT_TYPE, Type.STRING_TYPE}, ',', true);
+        try (FileWriter w = new FileWriter(catalog)) {
+            w.write(table + " (id int, name string) compressed\n");
+        }
+        Database.getCatalog().loadSchema(catalog.getPath());
+        int tableId = Database.getCatalog().getTableId(table);
+        CompressedHeapFile f = (CompressedHeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        // padded strings compress well
+        assertTrue(f.getCompressedBytes() * 10 < (long) f.numPages() * BufferPool.getPageSize());
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, tableId, "t");
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals("name" + (((IntField) t.getField(0)).getValue() % 50), t.getField(1).toString());
+            n++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2000, n);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
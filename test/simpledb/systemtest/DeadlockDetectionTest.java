@@ -0,0 +1,232 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Deadlocks are found from the waits-for graph as they form: exactly one
+ * transaction of each cycle is aborted, right away, chosen by the victim
+ * policy, and transactions that only wait long are never aborted.
+ */
+public class DeadlockDetectionTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 8;
+
+    private HeapFile f;
+    private BufferPool bp;
+    private LockManager lm;
+
+    @Before public void setUp() throws Exception {
+        f = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        assertEquals(PAGES, f.numPages());
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        lm = bp.getLockManager();
+    }
+
+    private PageId page(int i) {
+        return new HeapPageId(f.getId(), i);
+    }
+
+    /** A thread locking a page for a transaction; records whether it got the lock or was aborted. */
+    private class Waiter extends Thread {
+        final TransactionId tid;
+        final PageId pid;
+        final Permissions perm;
+        volatile boolean acquired;
+        volatile boolean aborted;
+
+        Waiter(TransactionId tid, PageId pid, Permissions perm) {
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+            start();
+        }
+
+        public void run() {
+            try {
+                bp.getPage(tid, pid, perm);
+                acquired = true;
+            } catch (TransactionAbortedException e) {
+                aborted = true;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Test public void testYoungestRequesterAborted() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.getPage(t1, page(0), Permissions.READ_WRITE);
+        bp.getPage(t2, page(1), Permissions.READ_WRITE);
+        Waiter w1 = new Waiter(t1, page(1), Permissions.READ_WRITE);
+        Thread.sleep(50);
+
+        // t2 closes the cycle and, being younger, is aborted without waiting
+        long start = System.nanoTime();
+        try {
+            bp.getPage(t2, page(0), Permissions.READ_WRITE);
+            fail("deadlock not detected");
+        } catch (TransactionAbortedException expected) {
+            // victim
+        }
+        assertTrue(System.nanoTime() - start < 100 * 1000000L);
+        bp.transactionComplete(t2, false);
+        w1.join();
+        assertTrue(w1.acquired);
+        bp.transactionComplete(t1);
+        assertEquals(1, lm.getDeadlockCount());
+        assertEquals(1, lm.getRequesterVictimCount());
+        assertEquals(0, lm.getWaiterVictimCount());
+        assertEquals(1, lm.getVictimLockCount());
+    }
+
+    @Test public void testFewestLocksWaiterAborted() throws Exception {
+        lm.setVictimPolicy(LockManager.VictimPolicy.FEWEST_LOCKS);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.getPage(t1, page(0), Permissions.READ_WRITE);
+        for (int i = 1; i < 4; i++) {
+            bp.getPage(t2, page(i), Permissions.READ_WRITE);
+        }
+        Waiter w1 = new Waiter(t1, page(1), Permissions.READ_WRITE);
+        Thread.sleep(50);
+
+        // t2 closes the cycle, but t1 holds fewer locks and its wait is the one that fails
+        Waiter w2 = new Waiter(t2, page(0), Permissions.READ_WRITE);
+        w1.join();
+        assertTrue(w1.aborted);
+        bp.transactionComplete(t1, false);
+        w2.join();
+        assertTrue(w2.acquired);
+        bp.transactionComplete(t2);
+        assertEquals(1, lm.getDeadlockCount());
+        assertEquals(0, lm.getRequesterVictimCount());
+        assertEquals(1, lm.getWaiterVictimCount());
+        assertEquals(1, lm.getVictimLockCount());
+    }
+
+    @Test public void testUpgradeDeadlock() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.getPage(t1, page(0), Permissions.READ_ONLY);
+        bp.getPage(t2, page(0), Permissions.READ_ONLY);
+        Waiter w1 = new Waiter(t1, page(0), Permissions.READ_WRITE);
+        Thread.sleep(50);
+        Waiter w2 = new Waiter(t2, page(0), Permissions.READ_WRITE);
+        w2.join();
+        assertTrue(w2.aborted);
+        bp.transactionComplete(t2, false);
+        w1.join();
+        assertTrue(w1.acquired);
+        bp.transactionComplete(t1);
+        assertEquals(1, lm.getDeadlockCount());
+    }
+
+    @Test public void testThreeWayCycle() throws Exception {
+        TransactionId[] ts = new TransactionId[3];
+        for (int i = 0; i < 3; i++) {
+            ts[i] = new TransactionId();
+            bp.getPage(ts[i], page(i), Permissions.READ_WRITE);
+        }
+        Waiter w0 = new Waiter(ts[0], page(1), Permissions.READ_WRITE);
+        Thread.sleep(50);
+        Waiter w1 = new Waiter(ts[1], page(2), Permissions.READ_WRITE);
+        Thread.sleep(50);
+        Waiter w2 = new Waiter(ts[2], page(0), Permissions.READ_WRITE);
+        w2.join();
+        assertTrue(w2.aborted);
+        bp.transactionComplete(ts[2], false);
+        w1.join();
+        assertTrue(w1.acquired);
+        bp.transactionComplete(ts[1]);
+        w0.join();
+        assertTrue(w0.acquired);
+        bp.transactionComplete(ts[0]);
+        assertEquals(1, lm.getDeadlockCount());
+    }
+
+    @Test public void testLongWaitNotAborted() throws Exception {
+        TransactionId t1 = new TransactionId();
+        bp.getPage(t1, page(0), Permissions.READ_WRITE);
+        Waiter w = new Waiter(new TransactionId(), page(0), Permissions.READ_ONLY);
+        // well past the old 500 ms limit
+        Thread.sleep(800);
+        assertFalse(w.aborted);
+        bp.transactionComplete(t1);
+        w.join();
+        assertTrue(w.acquired);
+        bp.transactionComplete(w.tid);
+        assertEquals(0, lm.getDeadlockCount());
+    }
+
+    @Test public void testAbortsOnlyDeadlocks() throws Exception {
+        final int threads = 8;
+        final int txnsPerThread = 100;
+        AtomicInteger committed = new AtomicInteger();
+        AtomicInteger aborts = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            Thread t = new Thread(() -> {
+                Random rand = new Random(seed);
+                int done = 0;
+                while (done < txnsPerThread) {
+                    TransactionId tid = new TransactionId();
+                    try {
+                        // read a page, then write two pages; holding them a little makes conflicts likely
+                        bp.getPage(tid, page(rand.nextInt(PAGES)), Permissions.READ_ONLY);
+                        bp.getPage(tid, page(rand.nextInt(PAGES)), Permissions.READ_WRITE);
+                        Thread.sleep(1);
+                        bp.getPage(tid, page(rand.nextInt(PAGES)), Permissions.READ_WRITE);
+                        bp.transactionComplete(tid);
+                        committed.incrementAndGet();
+                        done++;
+                    } catch (TransactionAbortedException e) {
+                        bp.transactionComplete(tid, false);
+                        aborts.incrementAndGet();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            workers.add(t);
+            t.start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println("DeadlockDetectionTest: " + committed.get() + " commits, " + aborts.get() + " aborts, "
+                + lm.getDeadlockCount() + " deadlocks (" + lm.getRequesterVictimCount() + " requesters, "
+                + lm.getWaiterVictimCount() + " waiters aborted, " + lm.getVictimLockCount() + " locks lost) in "
+                + elapsed / 1000000 + " ms");
+        assertEquals(threads * txnsPerThread, committed.get());
+        // every abort was a deadlock victim
+        assertEquals(lm.getDeadlockCount(), aborts.get());
+        assertEquals(lm.getDeadlockCount(), lm.getRequesterVictimCount() + lm.getWaiterVictimCount());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(DeadlockDetectionTest.class);
+    }
+}
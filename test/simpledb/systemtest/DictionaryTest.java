@@ -0,0 +1,245 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.DictField;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+/**
+ * DICT_TYPE columns store a 4-byte code per value: tables of them must take
+ * far fewer pages than STRING_TYPE, read back the strings after reopening,
+ * filter and join on codes, also against plain strings, and load from the
+ * catalog and the text encoder.
+ */
+public class DictionaryTest extends SimpleDbTestBase {
+
+    private static final TupleDesc DICT_DESC =
+            new TupleDesc(new Type[] {Type.INT_TYPE, Type.DICT_TYPE}, new String[] {"id", "city"});
+    private static final TupleDesc STRING_DESC =
+            new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE}, new String[] {"id", "city"});
+
+    private static String city(int i) {
+        return "city" + (i % 10);
+    }
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("dict", ".dat");
+        f.deleteOnExit();
+        for (String suffix : new String[] {".dict", ".fsm", ".alloc"}) {
+            new File(f.getPath() + suffix).deleteOnExit();
+        }
+        return f;
+    }
+
+    private static HeapFile createTable(File f, TupleDesc td) {
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /** Insert rows tuples (i, city(i)) into the table. */
+    private static void fill(HeapFile f, int rows) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(f.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(city(i), Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static int count(OpIterator it) throws Exception {
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /** Count the tuples that pass the predicate when it is pushed into the scan of the file. */
+    private static int countPushedDown(HeapFile f, Predicate p) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid, p);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    @Test public void testDensityAndReopen() throws Exception {
+        File file = tempFile();
+        HeapFile dict = createTable(file, DICT_DESC);
+        HeapFile string = createTable(tempFile(), STRING_DESC);
+        fill(dict, 3000);
+        fill(string, 3000);
+        System.out.println("DictionaryTest: 3000 rows take " + dict.numPages() + " dict pages, "
+                + string.numPages() + " string pages");
+        assertTrue(dict.numPages() * 10 < string.numPages());
+        assertEquals(10, dict.getDictionary().size());
+
+        // a new instance reads the codes from disk and the strings from the dictionary file
+        Database.getBufferPool().flushAllPages();
+        HeapFile reopened = createTable(file, DICT_DESC);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, reopened.getId(), "t");
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(Type.DICT_TYPE, t.getField(1).getType());
+            assertEquals(city(((IntField) t.getField(0)).getValue()), ((StringField) t.getField(1)).getValue());
+            n++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3000, n);
+        assertEquals(10, reopened.getDictionary().size());
+
+        // inserting a known value doesn't grow the dictionary
+        fill(reopened, 20);
+        assertEquals(10, reopened.getDictionary().size());
+    }
+
+    @Test public void testFilter() throws Exception {
+        HeapFile f = createTable(tempFile(), DICT_DESC);
+        fill(f, 2000);
+        StringField city3 = new StringField("city3", Type.STRING_LEN);
+        StringField unknown = new StringField("nowhere", Type.STRING_LEN);
+
+        TransactionId tid = new TransactionId();
+        assertEquals(200, count(new Filter(new Predicate(1, Predicate.Op.EQUALS, city3), new SeqScan(tid, f.getId()))));
+        assertEquals(1800, count(new Filter(new Predicate(1, Predicate.Op.NOT_EQUALS, city3),
+                new SeqScan(tid, f.getId()))));
+        assertEquals(0, count(new Filter(new Predicate(1, Predicate.Op.EQUALS, unknown), new SeqScan(tid, f.getId()))));
+        assertEquals(2000, count(new Filter(new Predicate(1, Predicate.Op.NOT_EQUALS, unknown),
+                new SeqScan(tid, f.getId()))));
+        // ranges compare the strings
+        assertEquals(600, count(new Filter(new Predicate(1, Predicate.Op.LESS_THAN, city3),
+                new SeqScan(tid, f.getId()))));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // and pushed into the scan of the pages
+        assertEquals(200, countPushedDown(f, new Predicate(1, Predicate.Op.EQUALS, city3)));
+        assertEquals(2000, countPushedDown(f, new Predicate(1, Predicate.Op.NOT_EQUALS, unknown)));
+
+        // the value is encoded once the table has it
+        fill(f, 1);
+        assertTrue(((DictField) f.getDictionary().find("city0")).getCode() >= 0);
+        assertEquals(-1, f.getDictionary().find("nowhere").getCode());
+    }
+
+    @Test public void testHashJoin() throws Exception {
+        HeapFile f = createTable(tempFile(), DICT_DESC);
+        HeapFile s = createTable(tempFile(), STRING_DESC);
+        fill(f, 500);
+        fill(s, 30);
+
+        TransactionId tid = new TransactionId();
+        // on codes within one table: every row matches the 50 rows of its city
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+        assertEquals(500 * 50, count(new HashEquiJoin(p, new SeqScan(tid, f.getId(), "a"),
+                new SeqScan(tid, f.getId(), "b"))));
+        // on strings against a STRING_TYPE table: each row matches 3 rows
+        assertEquals(500 * 3, count(new HashEquiJoin(p, new SeqScan(tid, f.getId(), "a"),
+                new SeqScan(tid, s.getId(), "b"))));
+        assertEquals(500 * 3, count(new HashEquiJoin(p, new SeqScan(tid, s.getId(), "a"),
+                new SeqScan(tid, f.getId(), "b"))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testEncoderAndCatalog() throws Exception {
+        File dir = tempFile().getParentFile();
+        String table = "dicttable" + System.nanoTime();
+        File text = new File(dir, table + ".txt");
+        File data = new File(dir, table + ".dat");
+        File catalog = new File(dir, table + ".catalog");
+        for (File f : new File[] {text, data, catalog, HeapFile.getDictionaryFile(data),
+                new File(data.getPath() + ".fsm"), new File(data.getPath() + ".alloc")}) {
+            f.deleteOnExit();
+        }
+        try (FileWriter w = new FileWriter(text)) {
+            for (int i = 0; i < 5000; i++) {
+                w.write(i + "," + city(i) + "\n");
+            }
+        }
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 2,
+                new Type[] {Type.INT_TYPE, Type.DICT_TYPE});
+        try (FileWriter w = new FileWriter(catalog)) {
+            w.write(table + " (id int, city dict)\n");
+        }
+        Database.getCatalog().loadSchema(catalog.getPath());
+        int tableId = Database.getCatalog().getTableId(table);
+        HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        assertEquals(10, f.getDictionary().size());
+
+        Map<String, Integer> counts = new HashMap<>();
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, tableId, "t");
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            String city = ((StringField) t.getField(1)).getValue();
+            assertEquals(city(((IntField) t.getField(0)).getValue()), city);
+            counts.merge(city, 1, Integer::sum);
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(10, counts.size());
+        assertEquals(Integer.valueOf(500), counts.get("city7"));
+
+        // scanning for one value on codes vs on strings of the same table
+        HeapFile string = createTable(tempFile(), STRING_DESC);
+        fill(string, 5000);
+        Predicate dictPred = new Predicate(1, Predicate.Op.EQUALS, new StringField("city7", Type.STRING_LEN));
+        long start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            assertEquals(500, countPushedDown(f, dictPred));
+        }
+        long dictTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            assertEquals(500, countPushedDown(string, dictPred));
+        }
+        long stringTime = System.nanoTime() - start;
+        System.out.println("DictionaryTest: 20 filtered scans take " + dictTime / 1000000 + " ms on codes, "
+                + stringTime / 1000000 + " ms on strings");
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(DictionaryTest.class);
+    }
+}
@@ -0,0 +1,108 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Files must grow by whole extents, report only the pages handed out as
+ * their pages, and remember that high-water mark when reopened.
+ */
+public class ExtentAllocationTest extends SimpleDbTestBase {
+    private static final int EXTENT = 8;
+
+    private static void insert(HeapFile f, int from, int n, List<List<Integer>> expected) throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = from; i < from + n; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] {i, -i});
+            tuples.add(t);
+            expected.add(SystemTestUtil.tupleToList(t));
+        }
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuples(tid, f.getId(), tuples.iterator());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testHeapFileGrowsByExtents() throws Exception {
+        File file = File.createTempFile("extents", ".dat");
+        file.deleteOnExit();
+        HeapFile f = Utility.openHeapFile(2, file);
+        f.getExtentAllocator().setExtentPages(EXTENT);
+        long pageSize = BufferPool.getPageSize();
+        List<List<Integer>> expected = new ArrayList<>();
+
+        insert(f, 0, 504 * 3 + 1, expected);
+        assertEquals(4, f.numPages());
+        assertEquals(EXTENT * pageSize, file.length());
+        insert(f, 10000, 504 * 4, expected);
+        assertEquals(8, f.numPages());
+        assertEquals(EXTENT * pageSize, file.length());
+        insert(f, 20000, 504, expected);
+        assertEquals(9, f.numPages());
+        assertEquals(2 * EXTENT * pageSize, file.length());
+        SystemTestUtil.matchTuples(f, expected);
+    }
+
+    @Test public void testHighWaterMarkIsPersisted() throws Exception {
+        File file = File.createTempFile("extents", ".dat");
+        file.deleteOnExit();
+        Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        HeapFile f = Utility.openHeapFile(2, file);
+        List<List<Integer>> expected = new ArrayList<>();
+        insert(f, 0, 504 * 2 + 1, expected);
+        assertEquals(3, f.numPages());
+        assertTrue(file.length() > 3 * BufferPool.getPageSize());
+
+        // reopened, the preallocated pages don't count
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile reopened = Utility.openHeapFile(2, file);
+        assertEquals(3, reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, expected);
+
+        // without its side file every page of the file counts, and the
+        // preallocated ones read as empty pages
+        assertTrue(reopened.getExtentAllocator().getFile().delete());
+        HeapFile legacy = Utility.openHeapFile(2, file);
+        assertEquals(file.length() / BufferPool.getPageSize(), legacy.numPages());
+        SystemTestUtil.matchTuples(legacy, expected);
+    }
+
+    @Test public void testBTreeFileGrowsByExtents() throws Exception {
+        File file = File.createTempFile("extents", ".dat");
+        file.deleteOnExit();
+        BTreeFile f = BTreeUtility.createEmptyBTreeFile(file.getAbsolutePath(), 2, 0);
+        f.getExtentAllocator().setExtentPages(EXTENT);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 502 * 4; i++) {
+            Database.getBufferPool().insertTuple(tid, f.getId(), BTreeUtility.getBTreeTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        int pages = f.numPages();
+        assertTrue(pages > 1);
+        long extents = (pages + EXTENT - 1) / EXTENT;
+        assertEquals(BTreeRootPtrPage.getPageSize() + extents * EXTENT * BufferPool.getPageSize(), file.length());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        BTreeFile reopened = BTreeUtility.openBTreeFile(2, file, 0);
+        assertEquals(pages, reopened.numPages());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ExtentAllocationTest.class);
+    }
+}
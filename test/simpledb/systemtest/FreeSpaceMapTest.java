@@ -0,0 +1,154 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Inserts must go straight to a page with room according to the free-space
+ * map, and the map must survive reopening the file and be rebuilt when it
+ * doesn't match the heap file.
+ */
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+    private static final int PAGES = 20;
+
+    /** Counts the number of readPage operations. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        int readCount = 0;
+
+        InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+    }
+
+    private static InstrumentedHeapFile openFullTable(List<List<Integer>> tuples) throws Exception {
+        File file = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * PAGES, 1000, null, tuples);
+        InstrumentedHeapFile f = new InstrumentedHeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        return f;
+    }
+
+    /** With every page full an insert appends without reading any page. */
+    @Test public void testAppendSkipsFullPages() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        InstrumentedHeapFile f = openFullTable(tuples);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(-1, 2));
+        t.commit();
+        assertEquals(0, f.readCount);
+        assertEquals(PAGES + 1, f.numPages());
+        assertEquals(255, f.getFreeSpaceMap().get(PAGES)); // capped
+        tuples.add(SystemTestUtil.tupleToList(Utility.getHeapTuple(-1, 2)));
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /** A delete frees a slot in the middle; the next insert goes right there. */
+    @Test public void testInsertFillsHole() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        InstrumentedHeapFile f = openFullTable(tuples);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        Transaction t = new Transaction();
+        t.start();
+        HeapPage page = (HeapPage) bp.getPage(t.getId(), new HeapPageId(f.getId(), 15), Permissions.READ_ONLY);
+        bp.deleteTuple(t.getId(), page.iterator().next());
+        t.commit();
+        assertEquals(1, f.getFreeSpaceMap().get(15));
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        f.readCount = 0;
+        t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(-1, 2));
+        t.commit();
+        assertEquals(1, f.readCount);
+        assertEquals(PAGES, f.numPages());
+        assertEquals(0, f.getFreeSpaceMap().get(15));
+    }
+
+    /** A wrong entry costs one page read and is corrected. */
+    @Test public void testWrongEntryIsCorrected() throws Exception {
+        InstrumentedHeapFile f = openFullTable(null);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        f.getFreeSpaceMap().set(3, 10);
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(-1, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, f.readCount);
+        assertEquals(0, f.getFreeSpaceMap().get(3));
+        assertEquals(PAGES + 1, f.numPages());
+    }
+
+    /** The map is read back from its file, and rebuilt if it is stale. */
+    @Test public void testPersistAndRebuild() throws Exception {
+        InstrumentedHeapFile f = openFullTable(null);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(-1, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(f.getFreeSpaceMapFile().exists());
+
+        // reopen: the map on disk matches the heap file
+        FreeSpaceMap fsm = new FreeSpaceMap(f.getFreeSpaceMapFile());
+        assertTrue(fsm.load(f.getFile().length(), f.getFile().lastModified(), f.numPages()));
+        assertEquals(0, fsm.get(0));
+        assertEquals(255, fsm.get(PAGES)); // capped
+        fsm.close();
+
+        // corrupt the entries; recovery rebuilds them from the pages
+        try (RandomAccessFile raf = new RandomAccessFile(f.getFreeSpaceMapFile(), "rw")) {
+            raf.seek(16);
+            for (int i = 0; i <= PAGES; i++) {
+                raf.write(7);
+            }
+        }
+        f.rebuildFreeSpaceMap();
+        for (int i = 0; i < PAGES; i++) {
+            assertEquals(0, f.getFreeSpaceMap().get(i));
+        }
+        assertEquals(255, f.getFreeSpaceMap().get(PAGES)); // capped
+
+        // a heap file changed behind the map's back doesn't match it any more
+        try (RandomAccessFile raf = new RandomAccessFile(f.getFile(), "rw")) {
+            raf.setLength(raf.length() + BufferPool.getPageSize());
+        }
+        fsm = new FreeSpaceMap(f.getFreeSpaceMapFile());
+        assertFalse(fsm.load(f.getFile().length(), f.getFile().lastModified(), f.numPages()));
+        fsm.close();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,179 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Predicate;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Page construction benchmark: builds HeapPages from the bytes of full
+ * pages, once the way HeapPage used to (parse every slot into a Tuple up
+ * front) and once lazily, and reports the time and heap allocated per page.
+ * Also runs a selective scan with the predicate checked on the page against
+ * decoding every tuple and filtering afterwards.
+ */
+public class HeapPageDecodeTest extends SimpleDbTestBase {
+    private static final int PAGES = 100;
+    private static final int ROUNDS = 20;
+
+    @Test public void testPageConstruction() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, 1000 * PAGES / 4, null, null);
+        int pages = f.numPages();
+        byte[][] data = new byte[pages][];
+        for (int i = 0; i < pages; i++) {
+            data[i] = f.readPage(new HeapPageId(f.getId(), i)).getPageData();
+        }
+        // warm up both paths
+        constructLegacy(f, data);
+        constructLazy(f, data);
+
+        long[] legacy = measure(() -> constructLegacy(f, data));
+        long[] lazy = measure(() -> constructLazy(f, data));
+        int n = pages * ROUNDS;
+        System.out.println("HeapPageDecodeTest: page construction, eager " + legacy[0] / n + " ns and "
+                + legacy[1] / n + " bytes per page, lazy " + lazy[0] / n + " ns and " + lazy[1] / n
+                + " bytes per page");
+        if (legacy[1] > 0) {
+            assertTrue("lazy construction allocates more than eager parsing", lazy[1] < legacy[1]);
+        }
+    }
+
+    @Test public void testSelectiveScan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, 1000 * PAGES / 4, 1000, null, tuples);
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10));
+        int matching = 0;
+        for (List<Integer> t : tuples) {
+            if (t.get(0) < 10) {
+                matching++;
+            }
+        }
+        final int expected = matching;
+        // warm up both paths
+        assertEquals(expected, scan(f, p, false));
+        assertEquals(expected, scan(f, p, true));
+
+        long[] filtered = measure(() -> assertEquals(expected, scan(f, p, false)));
+        long[] pushed = measure(() -> assertEquals(expected, scan(f, p, true)));
+        System.out.println("HeapPageDecodeTest: scan keeping " + expected + " of " + tuples.size()
+                + " tuples, filter after decoding " + filtered[0] / 1000000 + " ms and " + filtered[1] / 1024
+                + " KB, predicate on the page " + pushed[0] / 1000000 + " ms and " + pushed[1] / 1024 + " KB");
+    }
+
+    /** Count the tuples that satisfy p in a fresh buffer pool. */
+    private static int scan(HeapFile f, Predicate p, boolean onPage) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = onPage ? f.iterator(tid, p) : f.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (onPage || p.filter(t)) {
+                count++;
+            }
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    private static void constructLazy(HeapFile f, byte[][] data) throws Exception {
+        for (int i = 0; i < data.length; i++) {
+            new HeapPage(new HeapPageId(f.getId(), i), data[i]);
+        }
+    }
+
+    /** What the HeapPage constructor did before decoding lazily. */
+    private static void constructLegacy(HeapFile f, byte[][] data) throws Exception {
+        TupleDesc td = f.getTupleDesc();
+        int numSlots = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        for (int i = 0; i < data.length; i++) {
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data[i]));
+            byte[] header = new byte[headerSize];
+            dis.readFully(header);
+            Tuple[] tuples = new Tuple[numSlots];
+            for (int slot = 0; slot < numSlots; slot++) {
+                if ((header[slot / 8] & (1 << (slot % 8))) == 0) {
+                    dis.skipBytes(td.getSize());
+                    continue;
+                }
+                tuples[slot] = new Tuple(td);
+                for (int j = 0; j < td.numFields(); j++) {
+                    Field field = td.getFieldType(j).parse(dis);
+                    tuples[slot].setField(j, field);
+                }
+            }
+            // and the before-image, serialized again and cloned
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+            DataOutputStream dos = new DataOutputStream(baos);
+            dos.write(header);
+            for (Tuple t : tuples) {
+                if (t == null) {
+                    dos.write(new byte[td.getSize()]);
+                    continue;
+                }
+                for (int j = 0; j < td.numFields(); j++) {
+                    t.getField(j).serialize(dos);
+                }
+            }
+            dos.write(new byte[BufferPool.getPageSize() - headerSize - numSlots * td.getSize()]);
+            dos.flush();
+            baos.toByteArray().clone();
+        }
+    }
+
+    private interface Work {
+        void run() throws Exception;
+    }
+
+    /**
+     * Run work ROUNDS times.
+     * @return elapsed nanoseconds and bytes allocated by this thread, 0 if the JVM can't tell
+     */
+    private static long[] measure(Work work) throws Exception {
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            work.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes();
+        return new long[] {elapsed, bytes < 0 || allocated < 0 ? 0 : allocated - bytes};
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HeapPageDecodeTest.class);
+    }
+}
@@ -0,0 +1,250 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.LockMode;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tables are locked IS/IX under page locks, or S/SIX/X as a whole: a scan
+ * takes one table lock instead of a lock per page and keeps writers out,
+ * page locks of transactions on different pages still don't conflict, and
+ * a transaction's page locks on a table are escalated to a table lock past
+ * the threshold unless others hold conflicting locks on the table.
+ */
+public class IntentionLockTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 20;
+
+    private HeapFile f;
+    private BufferPool bp;
+    private LockManager lm;
+
+    @Before public void setUp() throws Exception {
+        f = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        assertEquals(PAGES, f.numPages());
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        lm = bp.getLockManager();
+    }
+
+    private PageId page(int i) {
+        return new HeapPageId(f.getId(), i);
+    }
+
+    private static int scan(TransactionId tid, int tableId) throws Exception {
+        SeqScan scan = new SeqScan(tid, tableId);
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        return n;
+    }
+
+    /** A thread that, for a new transaction, locks a page or, if pid is null, scans the table. */
+    private class Locker extends Thread {
+        final TransactionId tid = new TransactionId();
+        final PageId pid;
+        final Permissions perm;
+        volatile boolean acquired;
+        volatile boolean aborted;
+
+        Locker(PageId pid, Permissions perm) {
+            this.pid = pid;
+            this.perm = perm;
+            start();
+        }
+
+        public void run() {
+            try {
+                if (pid == null) {
+                    assertEquals(504 * PAGES, scan(tid, f.getId()));
+                } else {
+                    bp.getPage(tid, pid, perm);
+                }
+                acquired = true;
+            } catch (TransactionAbortedException e) {
+                aborted = true;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                bp.transactionComplete(tid, !aborted);
+            }
+        }
+    }
+
+    @Test public void testModes() {
+        assertTrue(LockMode.IS.compatible(LockMode.SIX));
+        assertTrue(LockMode.IX.compatible(LockMode.IX));
+        assertFalse(LockMode.IX.compatible(LockMode.S));
+        assertTrue(LockMode.S.compatible(LockMode.S));
+        assertFalse(LockMode.SIX.compatible(LockMode.IX));
+        assertFalse(LockMode.X.compatible(LockMode.IS));
+        assertEquals(LockMode.SIX, LockMode.S.sup(LockMode.IX));
+        assertEquals(LockMode.S, LockMode.IS.sup(LockMode.S));
+        assertEquals(LockMode.X, LockMode.SIX.sup(LockMode.X));
+        assertTrue(LockMode.SIX.covers(LockMode.S));
+        assertFalse(LockMode.SIX.covers(LockMode.X));
+        assertEquals(LockMode.IS, LockMode.of(Permissions.READ_ONLY).intention());
+        assertEquals(LockMode.IX, LockMode.of(Permissions.READ_WRITE).intention());
+    }
+
+    @Test public void testScanTakesOneTableLock() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertEquals(504 * PAGES, scan(tid, f.getId()));
+        assertEquals(LockMode.S, lm.getTableLock(tid, f.getId()));
+        assertEquals(0, lm.getPageLockCount(tid));
+        assertTrue(bp.holdsLock(tid, page(PAGES - 1)));
+
+        // other scans and page reads go ahead, writers wait for the scan's transaction
+        Locker reader = new Locker(page(3), Permissions.READ_ONLY);
+        Locker scanner = new Locker(null, null);
+        reader.join();
+        scanner.join();
+        assertTrue(reader.acquired);
+        assertTrue(scanner.acquired);
+        Locker writer = new Locker(page(3), Permissions.READ_WRITE);
+        Thread.sleep(100);
+        assertFalse(writer.acquired);
+        bp.transactionComplete(tid);
+        writer.join();
+        assertTrue(writer.acquired);
+    }
+
+    @Test public void testPageLocksUnderIntentionLocks() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.getPage(t1, page(0), Permissions.READ_WRITE);
+        bp.getPage(t2, page(1), Permissions.READ_WRITE);
+        bp.getPage(t2, page(2), Permissions.READ_ONLY);
+        assertEquals(LockMode.IX, lm.getTableLock(t1, f.getId()));
+        assertEquals(LockMode.IX, lm.getTableLock(t2, f.getId()));
+        assertEquals(2, lm.getPageLockCount(t2));
+
+        // a scan needs S on the table, which waits for both writers
+        Locker scanner = new Locker(null, null);
+        Thread.sleep(100);
+        assertFalse(scanner.acquired);
+        bp.transactionComplete(t1);
+        Thread.sleep(100);
+        assertFalse(scanner.acquired);
+        bp.transactionComplete(t2);
+        scanner.join();
+        assertTrue(scanner.acquired);
+        assertNull(lm.getTableLock(t1, f.getId()));
+    }
+
+    @Test public void testScanThenWrite() throws Exception {
+        TransactionId tid = new TransactionId();
+        scan(tid, f.getId());
+        bp.getPage(tid, page(5), Permissions.READ_WRITE);
+        assertEquals(LockMode.SIX, lm.getTableLock(tid, f.getId()));
+        assertEquals(1, lm.getPageLockCount(tid));
+
+        // readers of other pages get through SIX, readers of the whole table don't
+        Locker reader = new Locker(page(6), Permissions.READ_ONLY);
+        reader.join();
+        assertTrue(reader.acquired);
+        Locker scanner = new Locker(null, null);
+        Thread.sleep(100);
+        assertFalse(scanner.acquired);
+        bp.transactionComplete(tid);
+        scanner.join();
+        assertTrue(scanner.acquired);
+    }
+
+    @Test public void testEscalateToShared() throws Exception {
+        lm.setEscalationThreshold(10);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            bp.getPage(tid, page(i), Permissions.READ_ONLY);
+        }
+        assertEquals(LockMode.IS, lm.getTableLock(tid, f.getId()));
+        assertEquals(10, lm.getPageLockCount(tid));
+        bp.getPage(tid, page(10), Permissions.READ_ONLY);
+        assertEquals(LockMode.S, lm.getTableLock(tid, f.getId()));
+        assertEquals(0, lm.getPageLockCount(tid));
+        assertEquals(1, lm.getEscalationCount());
+        // later pages need no locks of their own
+        bp.getPage(tid, page(15), Permissions.READ_ONLY);
+        assertEquals(0, lm.getPageLockCount(tid));
+        bp.transactionComplete(tid);
+        assertNull(lm.getTableLock(tid, f.getId()));
+    }
+
+    @Test public void testEscalateToExclusive() throws Exception {
+        lm.setEscalationThreshold(10);
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, page(0), Permissions.READ_ONLY);
+        for (int i = 1; i <= 10; i++) {
+            bp.getPage(tid, page(i), Permissions.READ_WRITE);
+        }
+        assertEquals(LockMode.X, lm.getTableLock(tid, f.getId()));
+        assertEquals(0, lm.getPageLockCount(tid));
+        Locker reader = new Locker(page(PAGES - 1), Permissions.READ_ONLY);
+        Thread.sleep(100);
+        assertFalse(reader.acquired);
+        bp.transactionComplete(tid);
+        reader.join();
+        assertTrue(reader.acquired);
+    }
+
+    @Test public void testEscalationWaitsForOtherWriters() throws Exception {
+        lm.setEscalationThreshold(10);
+        TransactionId writer = new TransactionId();
+        bp.getPage(writer, page(0), Permissions.READ_WRITE);
+
+        // the reader can't get S on the table while the writer holds IX, so it keeps its page locks
+        TransactionId tid = new TransactionId();
+        for (int i = 1; i < 15; i++) {
+            bp.getPage(tid, page(i), Permissions.READ_ONLY);
+        }
+        assertEquals(LockMode.IS, lm.getTableLock(tid, f.getId()));
+        assertEquals(14, lm.getPageLockCount(tid));
+        assertEquals(0, lm.getEscalationCount());
+        assertTrue(lm.getFailedEscalationCount() > 0);
+
+        bp.transactionComplete(writer);
+        bp.getPage(tid, page(15), Permissions.READ_ONLY);
+        assertEquals(LockMode.S, lm.getTableLock(tid, f.getId()));
+        assertEquals(0, lm.getPageLockCount(tid));
+        assertEquals(1, lm.getEscalationCount());
+        bp.transactionComplete(tid);
+    }
+
+    @Test public void testReleasingLastPageDropsIntention() throws Exception {
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, page(0), Permissions.READ_ONLY);
+        bp.getPage(tid, page(1), Permissions.READ_ONLY);
+        bp.unsafeReleasePage(tid, page(0));
+        assertEquals(LockMode.IS, lm.getTableLock(tid, f.getId()));
+        bp.unsafeReleasePage(tid, page(1));
+        assertNull(lm.getTableLock(tid, f.getId()));
+
+        // so it doesn't keep others from locking the whole table
+        TransactionId other = new TransactionId();
+        bp.lockTable(other, f.getId(), Permissions.READ_WRITE);
+        assertEquals(LockMode.X, lm.getTableLock(other, f.getId()));
+        bp.transactionComplete(other);
+        bp.transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IntentionLockTest.class);
+    }
+}
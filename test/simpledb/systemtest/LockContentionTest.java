@@ -0,0 +1,266 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Lock waits park in the page's queue: waiting threads must use next to no
+ * CPU, a released exclusive lock must go to all queued readers at once, a
+ * queued writer must not be overtaken by later readers, and many threads
+ * hammering a few hot pages must all get through. Releasing a transaction's
+ * locks must not depend on how many other pages are locked.
+ */
+public class LockContentionTest extends SimpleDbTestBase {
+
+    private static final int HOT_PAGES = 4;
+
+    private HeapFile f;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        f = SystemTestUtil.createRandomHeapFile(2, 504 * HOT_PAGES, null, null);
+        assertEquals(HOT_PAGES, f.numPages());
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private PageId page(int i) {
+        return new HeapPageId(f.getId(), i);
+    }
+
+    /** Start a thread that locks the page for a new transaction and counts it in acquired. */
+    private Thread grab(PageId pid, Permissions perm, AtomicInteger acquired, AtomicInteger aborted) {
+        Thread t = new Thread(() -> {
+            TransactionId tid = new TransactionId();
+            try {
+                bp.getPage(tid, pid, perm);
+                acquired.incrementAndGet();
+            } catch (TransactionAbortedException e) {
+                aborted.incrementAndGet();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                bp.transactionComplete(tid, false);
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    @Test public void testWaitersDontSpin() throws Exception {
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        TransactionId writer = new TransactionId();
+        bp.getPage(writer, page(0), Permissions.READ_WRITE);
+
+        // 8 readers wait while the writer holds the page; parked, they use far less CPU than the time they wait
+        AtomicInteger acquired = new AtomicInteger();
+        long[] cpu = new long[8];
+        CountDownLatch done = new CountDownLatch(8);
+        for (int i = 0; i < 8; i++) {
+            final int k = i;
+            new Thread(() -> {
+                TransactionId tid = new TransactionId();
+                try {
+                    bp.getPage(tid, page(0), Permissions.READ_ONLY);
+                    acquired.incrementAndGet();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    cpu[k] = mx.getCurrentThreadCpuTime();
+                    bp.transactionComplete(tid, false);
+                    done.countDown();
+                }
+            }).start();
+        }
+        final long waitMillis = 500;
+        Thread.sleep(waitMillis);
+        assertEquals(0, acquired.get());
+        bp.transactionComplete(writer);
+        done.await();
+        assertEquals(8, acquired.get());
+        long total = 0;
+        for (long c : cpu) {
+            total += c;
+        }
+        System.out.println("LockContentionTest: 8 waiters used " + total / 1000000 + " ms of CPU in "
+                + waitMillis + " ms of waiting each");
+        assertTrue(total < 8 * waitMillis * 1000000L / 4);
+    }
+
+    @Test public void testSharedBatchGrantedTogether() throws Exception {
+        TransactionId writer = new TransactionId();
+        bp.getPage(writer, page(0), Permissions.READ_WRITE);
+        AtomicInteger acquired = new AtomicInteger();
+        AtomicInteger aborted = new AtomicInteger();
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            readers.add(grab(page(0), Permissions.READ_ONLY, acquired, aborted));
+        }
+        Thread.sleep(100);
+        assertEquals(0, acquired.get());
+        bp.transactionComplete(writer);
+        for (Thread t : readers) {
+            t.join();
+        }
+        assertEquals(6, acquired.get());
+        assertEquals(0, aborted.get());
+    }
+
+    @Test public void testQueuedWriterNotOvertaken() throws Exception {
+        TransactionId reader = new TransactionId();
+        bp.getPage(reader, page(0), Permissions.READ_ONLY);
+        AtomicInteger writerAcquired = new AtomicInteger();
+        AtomicInteger lateAcquired = new AtomicInteger();
+        AtomicInteger aborted = new AtomicInteger();
+        Thread writer = grab(page(0), Permissions.READ_WRITE, writerAcquired, aborted);
+        Thread.sleep(50);
+
+        // a new reader queues behind the writer instead of joining the held shared lock
+        Thread late = grab(page(0), Permissions.READ_ONLY, lateAcquired, aborted);
+        Thread.sleep(100);
+        assertEquals(0, writerAcquired.get());
+        assertEquals(0, lateAcquired.get());
+
+        // the holder's own reads don't queue
+        bp.getPage(reader, page(0), Permissions.READ_ONLY);
+        bp.transactionComplete(reader);
+        writer.join();
+        late.join();
+        assertEquals(1, writerAcquired.get());
+        assertEquals(1, lateAcquired.get());
+        assertEquals(0, aborted.get());
+    }
+
+    @Test public void testHotPages() throws Exception {
+        final int threads = 16;
+        final int txnsPerThread = 2000;
+        AtomicInteger committed = new AtomicInteger();
+        AtomicInteger aborts = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            Thread t = new Thread(() -> {
+                Random rand = new Random(seed);
+                int done = 0;
+                while (done < txnsPerThread) {
+                    TransactionId tid = new TransactionId();
+                    try {
+                        // lock one hot page, exclusively in a fifth of the transactions
+                        Permissions perm = rand.nextInt(5) == 0 ? Permissions.READ_WRITE : Permissions.READ_ONLY;
+                        bp.getPage(tid, page(rand.nextInt(HOT_PAGES)), perm);
+                        bp.transactionComplete(tid);
+                        committed.incrementAndGet();
+                        done++;
+                    } catch (TransactionAbortedException e) {
+                        bp.transactionComplete(tid, false);
+                        aborts.incrementAndGet();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            workers.add(t);
+            t.start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println("LockContentionTest: " + threads + " threads, " + HOT_PAGES + " hot pages: "
+                + committed.get() + " commits, " + aborts.get() + " aborts in " + elapsed / 1000000 + " ms ("
+                + committed.get() * 1000000000L / elapsed + " txn/s)");
+        assertEquals(threads * txnsPerThread, committed.get());
+        for (int i = 0; i < HOT_PAGES; i++) {
+            assertFalse(bp.holdsLock(new TransactionId(), page(i)));
+        }
+    }
+
+    /** Run small transactions that each lock and release pages of their own; return ns per transaction. */
+    private static long smallTransactions(LockManager lm, int tableId, int count) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            TransactionId tid = new TransactionId();
+            lm.acquireLock(tid, new HeapPageId(tableId, i % 100), Permissions.READ_ONLY, 1000);
+            lm.acquireLock(tid, new HeapPageId(tableId, 100 + i % 100), Permissions.READ_WRITE, 1000);
+            lm.releaseAllLock(tid);
+        }
+        return (System.nanoTime() - start) / count;
+    }
+
+    @Test public void testReleaseCostIndependentOfLockedPages() throws Exception {
+        LockManager lm = new LockManager();
+        // keep the page locks as they are instead of escalating them to a table lock
+        lm.setEscalationThreshold(Integer.MAX_VALUE);
+        // warm up on an empty lock table
+        smallTransactions(lm, 1, 20000);
+        long empty = smallTransactions(lm, 1, 20000);
+
+        // another transaction holds locks on 200k pages
+        TransactionId big = new TransactionId();
+        for (int i = 0; i < 200000; i++) {
+            assertTrue(lm.acquireLock(big, new HeapPageId(2, i), Permissions.READ_ONLY));
+        }
+        long full = smallTransactions(lm, 1, 20000);
+        System.out.println("LockContentionTest: lock and release 2 pages " + empty + " ns/txn with no other locks, "
+                + full + " ns/txn with 200000 pages locked");
+        assertTrue(full < 10 * empty + 5000);
+        long start = System.nanoTime();
+        lm.releaseAllLock(big);
+        System.out.println("LockContentionTest: releasing 200000 locks took " + (System.nanoTime() - start) / 1000000
+                + " ms");
+        assertFalse(lm.isLocked(new HeapPageId(2, 0)));
+    }
+
+    @Test public void testUnrelatedPagesScale() throws Exception {
+        LockManager lm = new LockManager();
+        final int txns = 200000;
+        for (int threads : new int[] {1, 4}) {
+            List<Thread> workers = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < threads; i++) {
+                // each thread locks pages of its own table
+                final int tableId = 10 + i;
+                Thread t = new Thread(() -> {
+                    try {
+                        smallTransactions(lm, tableId, txns / threads);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                workers.add(t);
+                t.start();
+            }
+            for (Thread t : workers) {
+                t.join();
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.println("LockContentionTest: " + threads + " threads on unrelated pages: "
+                    + txns * 1000000000L / elapsed + " txn/s");
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(LockContentionTest.class);
+    }
+}
@@ -0,0 +1,171 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.FrameArena;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+/**
+ * HeapFile pages in off-heap frames must read, change, commit and abort like
+ * heap pages, and keep working after their frame went back to the arena.
+ * Also compares GC activity and the heap the pool retains with and without
+ * frames under a scan-heavy workload.
+ */
+public class OffHeapFrameTest extends SimpleDbTestBase {
+
+    @Test public void testScan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 504 * 30, null, tuples);
+        BufferPool bp = Database.resetBufferPool(10);
+        FrameArena arena = bp.enableOffHeapFrames();
+        assertEquals(10, arena.getNumFrames());
+
+        SystemTestUtil.matchTuples(f, tuples);
+        // evicted pages gave their frames back
+        assertEquals(0, arena.getFreeFrames());
+        SystemTestUtil.matchTuples(f, tuples);
+        assertEquals(0, arena.getFreeFrames());
+    }
+
+    @Test public void testCommitAndAbort() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        BufferPool bp = Database.resetBufferPool(4);
+        bp.enableOffHeapFrames();
+
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 20; i++) {
+            bp.insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(i, 2));
+            tuples.add(SystemTestUtil.tupleToList(Utility.getHeapTuple(i, 2)));
+        }
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        bp.insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(-1, 2));
+        t.transactionComplete(true);
+        SystemTestUtil.matchTuples(f, tuples);
+
+        // and from disk
+        Database.resetBufferPool(4).enableOffHeapFrames();
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /** A page evicted while someone still holds it must keep its contents. */
+    @Test public void testEvictedPageStaysReadable() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 5, null, null);
+        BufferPool bp = Database.resetBufferPool(2);
+        bp.enableOffHeapFrames();
+        TransactionId tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+        List<Tuple> before = new ArrayList<>();
+        page.iterator().forEachRemaining(before::add);
+
+        // push page 0 out; its frame now holds other pages
+        for (int i = 1; i < 5; i++) {
+            bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        }
+        Iterator<Tuple> it = page.iterator();
+        for (Tuple expected : before) {
+            assertEquals(expected.toString(), it.next().toString());
+        }
+        assertFalse(it.hasNext());
+        assertArrayEquals(f.readPage(pid).getPageData(), page.getPageData());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Scan a table that fits the pool several times with and without
+     * off-heap frames and report GC pauses and the heap the full pool keeps.
+     */
+    @Test public void testGcPauses() throws Exception {
+        final int PAGES = 400;
+        final int SCANS = 5;
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, tuples);
+
+        long[] heap = scanWorkload(f, PAGES, SCANS, false);
+        long[] framed = scanWorkload(f, PAGES, SCANS, true);
+        System.out.println("OffHeapFrameTest: " + SCANS + " scans of " + PAGES + " pages; heap pages: "
+                + heap[0] + " GCs, " + heap[1] + " ms in GC, pool retains " + heap[2] / 1024
+                + " KB; off-heap frames: " + framed[0] + " GCs, " + framed[1] + " ms in GC, pool retains "
+                + framed[2] / 1024 + " KB");
+        assertTrue("off-heap pool retains more heap than the heap pool", framed[2] < heap[2]);
+    }
+
+    /**
+     * @return GC count, GC milliseconds and heap retained by the full pool
+     */
+    private static long[] scanWorkload(HeapFile f, int pages, int scans, boolean offHeap) throws Exception {
+        BufferPool bp = Database.resetBufferPool(pages);
+        if (offHeap) {
+            bp.enableOffHeapFrames();
+        }
+        long base = usedHeap();
+        long count = gcCount();
+        long time = gcTime();
+        for (int i = 0; i < scans; i++) {
+            TransactionId tid = new TransactionId();
+            SeqScan ss = new SeqScan(tid, f.getId(), "");
+            ss.open();
+            while (ss.hasNext()) {
+                ss.next();
+            }
+            ss.close();
+            bp.transactionComplete(tid);
+        }
+        long[] result = {gcCount() - count, gcTime() - time, 0};
+        result[2] = Math.max(0, usedHeap() - base);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        return result;
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static long gcCount() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += Math.max(0, gc.getCollectionCount());
+        }
+        return n;
+    }
+
+    private static long gcTime() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += Math.max(0, gc.getCollectionTime());
+        }
+        return n;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(OffHeapFrameTest.class);
+    }
+}
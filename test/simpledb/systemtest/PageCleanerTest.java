@@ -0,0 +1,135 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageCleaner;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+/**
+ * With a {@link PageCleaner} running, commit only forces the log and leaves
+ * the pages to the cleaner. Committed data must still end up on disk, and
+ * aborts and evictions must not lose committed but unwritten pages.
+ */
+public class PageCleanerTest extends SimpleDbTestBase {
+
+    @After public void tearDown() {
+        Database.getBufferPool().stopPageCleaner();
+    }
+
+    /** Commit every row in its own transaction; after shutdown all of them are on disk. */
+    @Test public void testCommittedRowsReachDisk() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, tuples);
+        BufferPool bp = Database.resetBufferPool(2);
+        PageCleaner cleaner = bp.startPageCleaner(0.5, 0);
+
+        // a bit more than three pages
+        for (int i = 0; i < 3 * 504 + 100; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            bp.insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(i, 2));
+            t.commit();
+            tuples.add(SystemTestUtil.tupleToList(Utility.getHeapTuple(i, 2)));
+        }
+        assertEquals(4, f.numPages());
+
+        bp.stopPageCleaner();
+        assertEquals(0, cleaner.getLag());
+
+        // a fresh pool reads everything from disk
+        Database.resetBufferPool(2);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /**
+     * A page committed but not yet written back, then dirtied by a transaction
+     * that aborts, must go back to the committed version, not to the disk one.
+     */
+    @Test public void testAbortKeepsCommittedVersion() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        BufferPool bp = Database.resetBufferPool(4);
+        // watermarks at the pool size: the cleaner never runs by itself
+        PageCleaner cleaner = bp.startPageCleaner(1.0, 1.0);
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        AbortEvictionTest.insertRow(f, t1);
+        t1.commit();
+        assertEquals(1, cleaner.getLag());
+        // still the old version on disk
+        HeapPage onDisk = (HeapPage) f.readPage(new HeapPageId(f.getId(), 0));
+        assertEquals(10, countTuples(onDisk));
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        bp.insertTuple(t2.getId(), f.getId(), Utility.getHeapTuple(7, 2));
+        t2.transactionComplete(true);
+
+        Transaction t3 = new Transaction();
+        t3.start();
+        assertTrue(AbortEvictionTest.findMagicTuple(f, t3));
+        t3.commit();
+
+        bp.stopPageCleaner();
+        Database.resetBufferPool(4);
+        Transaction t4 = new Transaction();
+        t4.start();
+        assertTrue(AbortEvictionTest.findMagicTuple(f, t4));
+        t4.commit();
+    }
+
+    /** An eviction that finds only pending pages writes one itself and counts a stall. */
+    @Test public void testEvictionStallsOnPendingPages() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3 * 504, null, null);
+        BufferPool bp = Database.resetBufferPool(2);
+        PageCleaner cleaner = bp.startPageCleaner(1.0, 1.0);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2; i++) {
+            HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_WRITE);
+            p.deleteTuple(p.iterator().next());
+            p.markDirty(true, tid);
+        }
+        bp.transactionComplete(tid);
+        assertEquals(2, cleaner.getLag());
+
+        tid = new TransactionId();
+        bp.getPage(tid, new HeapPageId(f.getId(), 2), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+        assertEquals(1, cleaner.getStalls());
+        assertEquals(1, cleaner.getLag());
+
+        bp.stopPageCleaner();
+        for (int i = 0; i < 2; i++) {
+            HeapPage onDisk = (HeapPage) f.readPage(new HeapPageId(f.getId(), i));
+            assertEquals(503, countTuples(onDisk));
+        }
+    }
+
+    private static int countTuples(HeapPage page) {
+        int n = 0;
+        for (java.util.Iterator<?> it = page.iterator(); it.hasNext(); it.next()) {
+            n++;
+        }
+        return n;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
@@ -0,0 +1,112 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Pinned pages must stay in the buffer pool until they are unpinned, scans
+ * must unpin their pages, and pins left over at commit are released.
+ */
+public class PagePinTest extends SimpleDbTestBase {
+
+    @Test public void testPinCounts() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        BufferPool bp = Database.resetBufferPool(4);
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        TransactionId tid = new TransactionId();
+
+        bp.pinPage(tid, pid, Permissions.READ_ONLY);
+        bp.pinPage(tid, pid, Permissions.READ_ONLY);
+        assertEquals(2, bp.getPinCount(pid));
+        bp.unpinPage(tid, pid);
+        assertEquals(1, bp.getPinCount(pid));
+        bp.unpinPage(tid, pid);
+        assertEquals(0, bp.getPinCount(pid));
+        // nothing left to unpin
+        bp.unpinPage(tid, pid);
+        assertEquals(0, bp.getPinCount(pid));
+        bp.transactionComplete(tid);
+        assertEquals(0, bp.getLeakedPins());
+    }
+
+    /** With every frame pinned there is nothing to evict, even though all pages are clean. */
+    @Test public void testPinnedPagesAreNotEvicted() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3 * 504, null, null);
+        BufferPool bp = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        bp.pinPage(tid, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+        bp.pinPage(tid, new HeapPageId(f.getId(), 1), Permissions.READ_ONLY);
+        try {
+            bp.getPage(tid, new HeapPageId(f.getId(), 2), Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException expected) {
+        }
+
+        // once one is unpinned its frame can be reused
+        bp.unpinPage(tid, new HeapPageId(f.getId(), 0));
+        bp.getPage(tid, new HeapPageId(f.getId(), 2), Permissions.READ_ONLY);
+        assertEquals(1, bp.getPinCount(new HeapPageId(f.getId(), 1)));
+        bp.unpinPage(tid, new HeapPageId(f.getId(), 1));
+        bp.transactionComplete(tid);
+    }
+
+    /** A scan pins one page at a time and nothing once it is closed. */
+    @Test public void testScanUnpins() throws Exception {
+        final int PAGES = 5;
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        BufferPool bp = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            if (++count % 504 == 0) {
+                assertEquals(1, pinnedPages(bp, f, PAGES));
+            }
+        }
+        it.close();
+        assertEquals(504 * PAGES, count);
+        assertEquals(0, pinnedPages(bp, f, PAGES));
+        bp.transactionComplete(tid);
+        assertEquals(0, bp.getLeakedPins());
+    }
+
+    /** Pins held at commit are released and counted as leaks. */
+    @Test public void testLeakedPinsReleasedAtCommit() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        BufferPool bp = Database.resetBufferPool(4);
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        TransactionId tid = new TransactionId();
+        bp.pinPage(tid, pid, Permissions.READ_ONLY);
+        bp.pinPage(tid, pid, Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+        assertEquals(2, bp.getLeakedPins());
+        assertEquals(0, bp.getPinCount(pid));
+    }
+
+    private static int pinnedPages(BufferPool bp, HeapFile f, int pages) {
+        int n = 0;
+        for (int i = 0; i < pages; i++) {
+            if (bp.getPinCount(new HeapPageId(f.getId(), i)) > 0) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PagePinTest.class);
+    }
+}
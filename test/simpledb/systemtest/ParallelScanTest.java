@@ -0,0 +1,166 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.ParallelSeqScan;
+import simpledb.execution.Predicate;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+/**
+ * A parallel scan must return every tuple exactly once whatever the number
+ * of workers and morsel size, work under Filter and Aggregate, release its
+ * pins when closed early, and wait like any reader when another
+ * transaction holds an exclusive lock. Also reports scan times for one and
+ * several workers.
+ */
+public class ParallelScanTest extends SimpleDbTestBase {
+
+    @Test public void testReturnsEveryTuple() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 8000, null, tuples);
+        for (int workers : new int[] {1, 3, 8}) {
+            for (int morsel : new int[] {1, 4, 100}) {
+                TransactionId tid = new TransactionId();
+                SystemTestUtil.matchTuples(new ParallelSeqScan(tid, f.getId(), "t", workers, null, morsel), tuples);
+                Database.getBufferPool().transactionComplete(tid);
+            }
+        }
+    }
+
+    @Test public void testFilterAndAggregate() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, 1000, null, tuples);
+        int matching = 0;
+        for (List<Integer> t : tuples) {
+            if (t.get(0) < 100) {
+                matching++;
+            }
+        }
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100));
+
+        // filter above the scan
+        TransactionId tid = new TransactionId();
+        Aggregate count = new Aggregate(new Filter(p, new ParallelSeqScan(tid, f.getId(), "t", 4, null)),
+                0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+        count.open();
+        assertEquals(matching, ((IntField) count.next().getField(0)).getValue());
+        count.close();
+
+        // predicate checked by the workers
+        count = new Aggregate(new ParallelSeqScan(tid, f.getId(), "t", 4, p),
+                0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+        count.open();
+        assertEquals(matching, ((IntField) count.next().getField(0)).getValue());
+        count.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testEarlyClose() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 40, null, null);
+        Database.resetBufferPool(100);
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", 4, null, 2);
+        scan.open();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(scan.hasNext());
+            scan.next();
+        }
+        scan.close();
+        assertFalse(scan.hasNext());
+        for (int i = 0; i < f.numPages(); i++) {
+            assertEquals(0, Database.getBufferPool().getPinCount(new HeapPageId(f.getId(), i)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(0, Database.getBufferPool().getLeakedPins());
+    }
+
+    @Test public void testHonorsExclusiveLocks() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        TransactionId writer = new TransactionId();
+        Database.getBufferPool().getPage(writer, new HeapPageId(f.getId(), 7), Permissions.READ_WRITE);
+
+        // the scan locks the whole table, so it waits for the writer before any worker starts
+        TransactionId reader = new TransactionId();
+        Thread commit = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            Database.getBufferPool().transactionComplete(writer);
+        });
+        commit.start();
+        long start = System.nanoTime();
+        ParallelSeqScan scan = new ParallelSeqScan(reader, f.getId(), "t", 3, null, 1);
+        scan.open();
+        assertTrue(System.nanoTime() - start >= 150 * 1000000L);
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        commit.join();
+        assertEquals(504 * 10, n);
+        assertTrue(Database.getBufferPool().holdsLock(reader, new HeapPageId(f.getId(), 7)));
+        assertFalse(Database.getBufferPool().holdsLock(writer, new HeapPageId(f.getId(), 7)));
+        Database.getBufferPool().transactionComplete(reader);
+    }
+
+    /** Scan a cached table with one and with several workers and report both times. */
+    @Test public void testScaling() throws Exception {
+        final int PAGES = 200;
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, 252 * PAGES, null, null);
+        Database.resetBufferPool(PAGES);
+        int workers = Math.max(2, Runtime.getRuntime().availableProcessors());
+        long rows = scan(f, 1);
+        assertEquals(rows, scan(f, workers));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            scan(f, 1);
+        }
+        long single = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            scan(f, workers);
+        }
+        long parallel = System.nanoTime() - start;
+        System.out.println("ParallelScanTest: " + rows + " rows on " + Runtime.getRuntime().availableProcessors()
+                + " cores, 1 worker " + single / 5 / 1000000 + " ms, " + workers + " workers "
+                + parallel / 5 / 1000000 + " ms per scan");
+    }
+
+    private static long scan(HeapFile f, int workers) throws Exception {
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", workers, null);
+        scan.open();
+        long n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}
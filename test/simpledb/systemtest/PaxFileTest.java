@@ -0,0 +1,270 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.ColumnScan;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.PaxFile;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+/**
+ * A PaxFile must store and return the same tuples as a HeapFile, survive
+ * aborts and deletes, and be created from a catalog entry ending with
+ * <code>pax</code>. ColumnScan must return the same narrow tuples on both
+ * formats. Also reports how long projecting one column of a wide table
+ * takes on each.
+ */
+public class PaxFileTest extends SimpleDbTestBase {
+
+    private static final int STRINGS = 4;
+
+    /** A table of an int key, STRINGS string columns and an int value. */
+    private static TupleDesc wideDesc() {
+        Type[] types = new Type[STRINGS + 2];
+        String[] names = new String[STRINGS + 2];
+        types[0] = Type.INT_TYPE;
+        names[0] = "key";
+        for (int i = 1; i <= STRINGS; i++) {
+            types[i] = Type.STRING_TYPE;
+            names[i] = "s" + i;
+        }
+        types[STRINGS + 1] = Type.INT_TYPE;
+        names[STRINGS + 1] = "value";
+        return new TupleDesc(types, names);
+    }
+
+    private static Tuple wideTuple(TupleDesc td, int key, int value) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(key));
+        for (int i = 1; i <= STRINGS; i++) {
+            t.setField(i, new StringField("row " + key + " col " + i, Type.STRING_LEN));
+        }
+        t.setField(STRINGS + 1, new IntField(value));
+        return t;
+    }
+
+    private static File tempFile(String prefix) throws Exception {
+        File f = File.createTempFile(prefix, ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".alloc").deleteOnExit();
+        return f;
+    }
+
+    /** Insert rows tuples into f and return the (key, value) pairs. */
+    private static List<List<Integer>> fill(DbFile f, int rows) throws Exception {
+        List<List<Integer>> pairs = new ArrayList<>();
+        Random r = new Random(17);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < rows; i++) {
+            int value = r.nextInt(1000);
+            Database.getBufferPool().insertTuple(tid, f.getId(), wideTuple(f.getTupleDesc(), i, value));
+            List<Integer> pair = new ArrayList<>();
+            pair.add(i);
+            pair.add(value);
+            pairs.add(pair);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return pairs;
+    }
+
+    private static final int[] KEY_VALUE = {0, STRINGS + 1};
+
+    @Test public void testInsertAndScan() throws Exception {
+        PaxFile f = new PaxFile(tempFile("pax"), wideDesc());
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        List<List<Integer>> pairs = fill(f, 500);
+        assertTrue(f.numPages() > 1);
+
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new ColumnScan(tid, f.getId(), "t", KEY_VALUE, null), pairs);
+
+        // the full tuples come back too
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int key = ((IntField) t.getField(0)).getValue();
+            assertEquals(wideTuple(f.getTupleDesc(), key, pairs.get(key).get(1)).toString(), t.toString());
+            n++;
+        }
+        it.close();
+        assertEquals(500, n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testDeleteAndAbort() throws Exception {
+        PaxFile f = new PaxFile(tempFile("pax"), wideDesc());
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        List<List<Integer>> pairs = fill(f, 100);
+
+        // an aborted insert leaves nothing behind
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, f.getId(), wideTuple(f.getTupleDesc(), 100, 5));
+        Database.getBufferPool().transactionComplete(tid, false);
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(new ColumnScan(tid, f.getId(), "t", KEY_VALUE, null), pairs);
+
+        // delete the tuples with even keys
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0) {
+                Database.getBufferPool().deleteTuple(tid, t);
+            }
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        List<List<Integer>> odd = new ArrayList<>();
+        for (List<Integer> pair : pairs) {
+            if (pair.get(0) % 2 != 0) {
+                odd.add(pair);
+            }
+        }
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(new ColumnScan(tid, f.getId(), "t", KEY_VALUE, null), odd);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // the freed slots are used again
+        int pages = f.numPages();
+        fill(f, 50);
+        assertEquals(pages, f.numPages());
+    }
+
+    @Test public void testColumnScanMatchesHeapFile() throws Exception {
+        PaxFile pax = new PaxFile(tempFile("pax"), wideDesc());
+        Database.getCatalog().addTable(pax, SystemTestUtil.getUUID());
+        HeapFile heap = new HeapFile(tempFile("heap"), wideDesc());
+        Database.getCatalog().addTable(heap, SystemTestUtil.getUUID());
+        List<List<Integer>> pairs = fill(pax, 2000);
+        assertEquals(pairs, fill(heap, 2000));
+
+        Predicate p = new Predicate(STRINGS + 1, Predicate.Op.LESS_THAN, new IntField(100));
+        List<List<Integer>> selected = new ArrayList<>();
+        for (List<Integer> pair : pairs) {
+            if (pair.get(1) < 100) {
+                selected.add(pair);
+            }
+        }
+        int[] valueKey = {STRINGS + 1, 0};
+        List<List<Integer>> swapped = new ArrayList<>();
+        for (List<Integer> pair : selected) {
+            List<Integer> s = new ArrayList<>();
+            s.add(pair.get(1));
+            s.add(pair.get(0));
+            swapped.add(s);
+        }
+
+        TransactionId tid = new TransactionId();
+        for (DbFile f : new DbFile[] {pax, heap}) {
+            SystemTestUtil.matchTuples(new ColumnScan(tid, f.getId(), "t", KEY_VALUE, null), pairs);
+            SystemTestUtil.matchTuples(new ColumnScan(tid, f.getId(), "t", KEY_VALUE, p), selected);
+            SystemTestUtil.matchTuples(new ColumnScan(tid, f.getId(), "t", valueKey, p), swapped);
+            ColumnScan scan = new ColumnScan(tid, f.getId(), "t", valueKey, null);
+            assertEquals("t.value", scan.getTupleDesc().getFieldName(0));
+            assertEquals("t.key", scan.getTupleDesc().getFieldName(1));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testCatalogFormat() throws Exception {
+        File dir = tempFile("catalog").getParentFile();
+        File catalog = new File(dir, "paxcatalog" + System.nanoTime() + ".txt");
+        catalog.deleteOnExit();
+        String pax = "paxtable" + System.nanoTime();
+        String heap = "heaptable" + System.nanoTime();
+        try (FileWriter w = new FileWriter(catalog)) {
+            w.write(pax + " (a int, b string) pax\n");
+            w.write(heap + " (a int, b string)\n");
+        }
+        Database.getCatalog().loadSchema(catalog.getPath());
+        assertTrue(Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(pax)) instanceof PaxFile);
+        assertTrue(Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(heap)) instanceof HeapFile);
+        new File(dir, pax + ".dat").deleteOnExit();
+        new File(dir, pax + ".dat.alloc").deleteOnExit();
+        new File(dir, heap + ".dat").deleteOnExit();
+        new File(dir, heap + ".dat.alloc").deleteOnExit();
+        new File(dir, heap + ".dat.fsm").deleteOnExit();
+    }
+
+    /** Sum one int column of a wide table with ColumnScan and with SeqScan plus Project. */
+    @Test public void testProjectionSpeed() throws Exception {
+        final int ROWS = 6000;
+        PaxFile pax = new PaxFile(tempFile("pax"), wideDesc());
+        Database.getCatalog().addTable(pax, SystemTestUtil.getUUID());
+        HeapFile heap = new HeapFile(tempFile("heap"), wideDesc());
+        Database.getCatalog().addTable(heap, SystemTestUtil.getUUID());
+        fill(pax, ROWS);
+        fill(heap, ROWS);
+        Database.resetBufferPool(pax.numPages() + heap.numPages() + 10);
+
+        int[] value = {STRINGS + 1};
+        TransactionId tid = new TransactionId();
+        long expected = sum(new Project(fieldList(STRINGS + 1), typeList(),
+                new SeqScan(tid, heap.getId(), "t")));
+        assertEquals(expected, sum(new ColumnScan(tid, pax.getId(), "t", value, null)));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            sum(new Project(fieldList(STRINGS + 1), typeList(), new SeqScan(tid, heap.getId(), "t")));
+        }
+        long heapTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            sum(new ColumnScan(tid, pax.getId(), "t", value, null));
+        }
+        long paxTime = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        System.out.println("PaxFileTest: one int of " + ROWS + " rows with " + STRINGS
+                + " string columns, heap + project " + heapTime / 10 / 1000000 + " ms, pax column scan "
+                + paxTime / 10 / 1000000 + " ms per scan");
+    }
+
+    private static List<Integer> fieldList(int field) {
+        List<Integer> l = new ArrayList<>();
+        l.add(field);
+        return l;
+    }
+
+    private static List<Type> typeList() {
+        List<Type> l = new ArrayList<>();
+        l.add(Type.INT_TYPE);
+        return l;
+    }
+
+    private static long sum(OpIterator it) throws Exception {
+        long s = 0;
+        it.open();
+        while (it.hasNext()) {
+            s += ((IntField) it.next().getField(0)).getValue();
+        }
+        it.close();
+        return s;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
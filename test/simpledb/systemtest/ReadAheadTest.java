@@ -0,0 +1,131 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.ReadAhead;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Sequential scans with read-ahead on must return the same tuples, read
+ * every page once, and get prefetched pages out of the buffer pool.
+ */
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    /** Counts the number of readPage operations. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        volatile int readCount = 0;
+
+        InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().disableReadAhead();
+    }
+
+    @Test public void testHeapScan() throws Exception {
+        final int PAGES = 60;
+        List<List<Integer>> tuples = new ArrayList<>();
+        File file = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * PAGES, 1000, null, tuples);
+        InstrumentedHeapFile f = new InstrumentedHeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+
+        BufferPool bp = Database.resetBufferPool(2 * PAGES);
+        ReadAhead ra = bp.enableReadAhead();
+        assertEquals(tuples.size(), slowScan(bp, f));
+        SystemTestUtil.matchTuples(f, tuples);
+        // prefetch and scan never both read a page
+        assertEquals(PAGES, f.readCount);
+        assertTrue(ra.getPrefetched() > 0);
+        assertTrue(ra.getHits() > 0);
+    }
+
+    @Test public void testBTreeLeafScan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 20000, null, tuples, 0);
+        BufferPool bp = Database.resetBufferPool(200);
+        ReadAhead ra = bp.enableReadAhead();
+
+        assertEquals(tuples.size(), slowScan(bp, f));
+        assertTrue(ra.getPrefetched() > 0);
+    }
+
+    /**
+     * Scan and pretend to do some work on the tuples, so that the read-ahead
+     * thread gets to run even on a single CPU.
+     * @return the number of tuples
+     */
+    private static int slowScan(BufferPool bp, DbFile f) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            if (++count % 100 == 0) {
+                Thread.sleep(1);
+            }
+        }
+        it.close();
+        bp.transactionComplete(tid);
+        return count;
+    }
+
+    /**
+     * Read-ahead only takes free frames or unlocked clean pages. With the pool
+     * full of pages locked by running transactions it must not load anything.
+     */
+    @Test public void testKeepsLockedPages() throws Exception {
+        final int POOL = 8;
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 504 * POOL, null, null);
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, tuples);
+        BufferPool bp = Database.resetBufferPool(POOL);
+
+        // another transaction holds the whole pool; the scan's own pages stay locked by the scan
+        TransactionId holder = new TransactionId();
+        for (int i = 0; i < POOL; i++) {
+            bp.getPage(holder, new HeapPageId(other.getId(), i), Permissions.READ_ONLY);
+        }
+        ReadAhead ra = bp.enableReadAhead();
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(f, tid, tuples);
+        // check before the scan's locks go away
+        assertEquals(0, ra.getPrefetched());
+        bp.transactionComplete(tid);
+        bp.transactionComplete(holder);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
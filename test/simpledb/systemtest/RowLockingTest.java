@@ -0,0 +1,347 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.Delete;
+import simpledb.execution.Insert;
+import simpledb.execution.OpIterator;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.IntField;
+import simpledb.storage.PageId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.LockMode;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * With row locking, transactions inserting and deleting different rows of
+ * one page don't block each other, conflicting rows and deadlocks still do,
+ * an abort undoes only its own rows, a commit writes only committed rows,
+ * and a slot freed by an uncommitted delete is kept for its tuple. Also
+ * compares updaters of one hot page with row and with page locking.
+ */
+public class RowLockingTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 400;
+
+    private HeapFile f;
+    private BufferPool bp;
+    private LockManager lm;
+
+    @Before public void setUp() throws Exception {
+        f = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        assertEquals(1, f.numPages());
+        f.setRowLocking(true);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        lm = bp.getLockManager();
+    }
+
+    /** Return the tuples of the table, read in a transaction of their own. */
+    private static List<Tuple> rows(HeapFile f) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId());
+        scan.open();
+        List<Tuple> rows = new ArrayList<>();
+        while (scan.hasNext()) {
+            rows.add(scan.next());
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+
+    /** Return the first field of every tuple of the table. */
+    private static Set<Integer> keys(HeapFile f) throws Exception {
+        Set<Integer> keys = new HashSet<>();
+        for (Tuple t : rows(f)) {
+            keys.add(((IntField) t.getField(0)).getValue());
+        }
+        return keys;
+    }
+
+    /** Return the first field of every tuple of the page as it is on disk. */
+    private static Set<Integer> keysOnDisk(HeapFile f, PageId pid) {
+        Set<Integer> keys = new HashSet<>();
+        Iterator<Tuple> it = ((HeapPage) f.readPage(pid)).iterator();
+        while (it.hasNext()) {
+            keys.add(((IntField) it.next().getField(0)).getValue());
+        }
+        return keys;
+    }
+
+    private static Tuple tuple(HeapFile f, int key) {
+        Tuple t = new Tuple(f.getTupleDesc());
+        t.setField(0, new IntField(key));
+        t.setField(1, new IntField(0));
+        return t;
+    }
+
+    private interface Work {
+        void run(TransactionId tid) throws Exception;
+    }
+
+    /** A thread doing work for a transaction; records whether it finished or was aborted. */
+    private static class Txn extends Thread {
+        final TransactionId tid;
+        final Work work;
+        volatile boolean done;
+        volatile boolean aborted;
+
+        Txn(TransactionId tid, Work work) {
+            this.tid = tid;
+            this.work = work;
+            start();
+        }
+
+        public void run() {
+            try {
+                work.run(tid);
+                done = true;
+            } catch (TransactionAbortedException e) {
+                aborted = true;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Test public void testDifferentRowsOfOnePage() throws Exception {
+        List<Tuple> rows = rows(f);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.deleteTuple(t1, rows.get(0));
+        Txn other = new Txn(t2, tid -> bp.deleteTuple(tid, rows.get(1)));
+        other.join(1000);
+        assertTrue(other.done);
+        assertEquals(1, lm.getRowLockCount(t1));
+        assertEquals(LockMode.IX, lm.getTableLock(t1, f.getId()));
+        assertEquals(LockMode.IX, lm.getTableLock(t2, f.getId()));
+
+        // the same row waits for t1
+        TransactionId t3 = new TransactionId();
+        Txn same = new Txn(t3, tid -> bp.deleteTuple(tid, rows.get(0)));
+        Thread.sleep(100);
+        assertFalse(same.done);
+
+        // t1's abort puts its row back, t3 deletes it then
+        bp.transactionComplete(t1, false);
+        same.join();
+        assertTrue(same.done);
+        bp.transactionComplete(t2);
+        bp.transactionComplete(t3);
+        PageId pid = rows.get(0).getRecordId().getPageId();
+        HeapPage page = (HeapPage) f.readPage(pid);
+        assertFalse(page.isSlotUsed(rows.get(0).getRecordId().getTupleNumber()));
+        assertFalse(page.isSlotUsed(rows.get(1).getRecordId().getTupleNumber()));
+        assertTrue(page.isSlotUsed(rows.get(2).getRecordId().getTupleNumber()));
+        assertEquals(ROWS - 2, rows(f).size());
+    }
+
+    @Test public void testCommitWritesOnlyCommittedRows() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        Tuple a = tuple(f, 1000001);
+        Tuple b = tuple(f, 1000002);
+        bp.insertTuple(t1, f.getId(), a);
+        bp.insertTuple(t2, f.getId(), b);
+        PageId pid = a.getRecordId().getPageId();
+        assertEquals(pid, b.getRecordId().getPageId());
+
+        // the page on disk gets t2's row, not t1's that shares the page
+        bp.transactionComplete(t2);
+        Set<Integer> disk = keysOnDisk(f, pid);
+        assertTrue(disk.contains(1000002));
+        assertFalse(disk.contains(1000001));
+
+        // and t1's abort takes out just its row
+        bp.transactionComplete(t1, false);
+        Set<Integer> keys = keys(f);
+        assertTrue(keys.contains(1000002));
+        assertFalse(keys.contains(1000001));
+        assertNull(bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY).isDirty());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(keys, keys(f));
+    }
+
+    @Test public void testDeletedSlotKeptForItsTuple() throws Exception {
+        List<Tuple> rows = rows(f);
+        Tuple victim = rows.get(5);
+        int key = ((IntField) victim.getField(0)).getValue();
+        TransactionId t1 = new TransactionId();
+        bp.deleteTuple(t1, victim);
+
+        TransactionId t2 = new TransactionId();
+        Tuple c = tuple(f, 1000003);
+        bp.insertTuple(t2, f.getId(), c);
+        assertNotEquals(victim.getRecordId(), c.getRecordId());
+        bp.transactionComplete(t2);
+        bp.transactionComplete(t1, false);
+
+        Tuple back = null;
+        for (Tuple t : rows(f)) {
+            if (t.getRecordId().equals(victim.getRecordId())) {
+                back = t;
+            }
+        }
+        assertNotNull(back);
+        assertEquals(key, ((IntField) back.getField(0)).getValue());
+        assertEquals(ROWS + 1, rows(f).size());
+    }
+
+    @Test public void testScanWaitsForRowWriters() throws Exception {
+        TransactionId t1 = new TransactionId();
+        bp.insertTuple(t1, f.getId(), tuple(f, 1000004));
+        AtomicInteger seen = new AtomicInteger();
+        Txn scanner = new Txn(new TransactionId(), tid -> {
+            SeqScan scan = new SeqScan(tid, f.getId());
+            scan.open();
+            while (scan.hasNext()) {
+                scan.next();
+                seen.incrementAndGet();
+            }
+            scan.close();
+            bp.transactionComplete(tid);
+        });
+        Thread.sleep(100);
+        assertFalse(scanner.done);
+        bp.transactionComplete(t1);
+        scanner.join();
+        assertEquals(ROWS + 1, seen.get());
+    }
+
+    @Test public void testRowDeadlock() throws Exception {
+        List<Tuple> rows = rows(f);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.deleteTuple(t1, rows.get(0));
+        bp.deleteTuple(t2, rows.get(1));
+        Txn w1 = new Txn(t1, tid -> bp.deleteTuple(tid, rows.get(1)));
+        Thread.sleep(50);
+        try {
+            bp.deleteTuple(t2, rows.get(0));
+            fail("deadlock not detected");
+        } catch (TransactionAbortedException expected) {
+            // t2 is younger
+        }
+        bp.transactionComplete(t2, false);
+        w1.join();
+        assertTrue(w1.done);
+        bp.transactionComplete(t1);
+        assertEquals(1, lm.getDeadlockCount());
+        assertEquals(ROWS - 2, rows(f).size());
+    }
+
+    @Test public void testNeedsFixedLengthTuples() throws Exception {
+        File file = File.createTempFile("rows", ".dat");
+        file.deleteOnExit();
+        HeapFile strings = new HeapFile(file, new TupleDesc(new Type[] {Type.VARCHAR_TYPE}));
+        try {
+            strings.setRowLocking(true);
+            fail("row locking on slotted pages");
+        } catch (UnsupportedOperationException expected) {
+            // a deleted row might not fit back in
+        }
+    }
+
+    private static void run(OpIterator op) throws Exception {
+        op.open();
+        while (op.hasNext()) {
+            op.next();
+        }
+        op.close();
+    }
+
+    /**
+     * Threads each replace their own rows of one page, with the Delete and
+     * Insert operators, holding their locks a little; return committed
+     * transactions per second. The table must hold exactly the last
+     * versions of the rows afterwards, also on disk.
+     */
+    private static long replaceRows(HeapFile f, int threads, int txnsPerThread) throws Exception {
+        List<Tuple> rows = rows(f);
+        AtomicInteger aborts = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        Set<Integer> expected = Collections.synchronizedSet(new HashSet<>());
+        for (Tuple t : rows.subList(threads * 10, rows.size())) {
+            expected.add(((IntField) t.getField(0)).getValue());
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            final int k = i;
+            Thread w = new Thread(() -> {
+                // each thread owns ten rows
+                List<Tuple> mine = new ArrayList<>(rows.subList(k * 10, k * 10 + 10));
+                int done = 0;
+                while (done < txnsPerThread) {
+                    TransactionId tid = new TransactionId();
+                    int j = done % mine.size();
+                    Tuple replacement = tuple(f, 2000000 + k * txnsPerThread + done);
+                    try {
+                        run(new Delete(tid, new TupleIterator(f.getTupleDesc(),
+                                Collections.singletonList(mine.get(j)))));
+                        Thread.sleep(10);
+                        run(new Insert(tid, new TupleIterator(f.getTupleDesc(),
+                                Collections.singletonList(replacement)), f.getId()));
+                        Database.getBufferPool().transactionComplete(tid);
+                        mine.set(j, replacement);
+                        done++;
+                    } catch (TransactionAbortedException e) {
+                        Database.getBufferPool().transactionComplete(tid, false);
+                        aborts.incrementAndGet();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                for (Tuple t : mine) {
+                    expected.add(((IntField) t.getField(0)).getValue());
+                }
+            });
+            workers.add(w);
+            w.start();
+        }
+        for (Thread w : workers) {
+            w.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals(expected, keys(f));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(expected, keys(f));
+        System.out.println("RowLockingTest: " + (f.isRowLocking() ? "row" : "page") + " locking, " + threads
+                + " threads on one page: " + threads * txnsPerThread + " commits, " + aborts.get() + " aborts in "
+                + elapsed / 1000000 + " ms (" + threads * txnsPerThread * 1000000000L / elapsed + " txn/s)");
+        return threads * txnsPerThread * 1000000000L / elapsed;
+    }
+
+    @Test public void testRowVsPageLocking() throws Exception {
+        long row = replaceRows(f, 8, 20);
+        HeapFile pages = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        long page = replaceRows(pages, 8, 20);
+        assertTrue(row > page);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(RowLockingTest.class);
+    }
+}
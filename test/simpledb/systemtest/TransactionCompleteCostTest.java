@@ -0,0 +1,94 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Runs small transactions (one page written, one page read) against a
+ * buffer pool holding 1000 pages and against one holding 100k pages.
+ * Commit and abort only visit the pages a transaction dirtied, so their
+ * cost must not grow with the number of resident pages.
+ */
+public class TransactionCompleteCostTest extends SimpleDbTestBase {
+    // tiny pages, so that 100k of them fit in the test JVM
+    private static final int PAGE_SIZE = 64;
+    private static final int SMALL_POOL = 1000;
+    private static final int BIG_POOL = 100000;
+    private static final int TRANSACTIONS = 200;
+
+    @After public void tearDown() {
+        BufferPool.resetPageSize();
+    }
+
+    @Test public void testCostIndependentOfPoolSize() throws Exception {
+        BufferPool.setPageSize(PAGE_SIZE);
+        HeapFile f = createEmptyPages(BIG_POOL);
+
+        // warm up the JIT on the small pool first
+        runTransactions(f, SMALL_POOL);
+        long small = runTransactions(f, SMALL_POOL);
+        long big = runTransactions(f, BIG_POOL);
+        System.out.println("TransactionCompleteCostTest: " + TRANSACTIONS + " transactions, "
+                + SMALL_POOL + " resident pages " + small / TRANSACTIONS / 1000 + " us/txn, "
+                + BIG_POOL + " resident pages " + big / TRANSACTIONS / 1000 + " us/txn");
+        assertTrue("commit/abort cost grows with pool size", big < 10 * small);
+    }
+
+    private static HeapFile createEmptyPages(int numPages) throws IOException {
+        File temp = File.createTempFile("table", ".dat");
+        temp.deleteOnExit();
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            fos.write(new byte[numPages * PAGE_SIZE]);
+        }
+        return Utility.openHeapFile(2, temp);
+    }
+
+    /**
+     * Fill a new pool with residentPages pages, then time TRANSACTIONS small
+     * transactions, alternating commit and abort.
+     * @return elapsed nanoseconds
+     */
+    private static long runTransactions(HeapFile f, int residentPages) throws Exception {
+        BufferPool bp = Database.resetBufferPool(residentPages);
+        TransactionId warm = new TransactionId();
+        for (int i = 0; i < residentPages; i++) {
+            bp.getPage(warm, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(warm);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            TransactionId tid = new TransactionId();
+            HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(f.getId(), i % 16), Permissions.READ_WRITE);
+            bp.getPage(tid, new HeapPageId(f.getId(), 16 + i % 16), Permissions.READ_ONLY);
+            if (p.getNumEmptySlots() == 0) {
+                p.deleteTuple(p.iterator().next());
+            } else {
+                p.insertTuple(Utility.getHeapTuple(i, 2));
+            }
+            p.markDirty(true, tid);
+            bp.transactionComplete(tid, i % 2 == 0);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TransactionCompleteCostTest.class);
+    }
+}
@@ -0,0 +1,261 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tables with VARCHAR_TYPE fields are stored on slotted pages that keep only
+ * the bytes each string uses: short strings must fit many more tuples per
+ * page than STRING_TYPE, survive deletes, reinserts, aborts and rewriting,
+ * and load from the catalog and the text encoder.
+ */
+public class VarcharTest extends SimpleDbTestBase {
+
+    private static final TupleDesc VARCHAR_DESC =
+            new TupleDesc(new Type[] {Type.INT_TYPE, Type.VARCHAR_TYPE}, new String[] {"id", "name"});
+    private static final TupleDesc STRING_DESC =
+            new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE}, new String[] {"id", "name"});
+
+    private static Tuple tuple(TupleDesc td, int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN, td.getFieldType(1)));
+        return t;
+    }
+
+    private static HeapFile createTable(TupleDesc td) throws Exception {
+        File f = File.createTempFile("varchar", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".alloc").deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /** Return id -> name of every tuple in the table. */
+    private static Map<Integer, String> scan(HeapFile f) throws Exception {
+        Map<Integer, String> rows = new HashMap<>();
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(Type.VARCHAR_TYPE, t.getField(1).getType());
+            assertNull(rows.put(((IntField) t.getField(0)).getValue(), ((StringField) t.getField(1)).getValue()));
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+
+    private static String name(int i) {
+        StringBuilder sb = new StringBuilder("n" + i);
+        for (int k = 0; k < i % 20; k++) {
+            sb.append((char) ('a' + k));
+        }
+        return sb.toString();
+    }
+
+    @Test public void testDensity() throws Exception {
+        HeapFile varchar = createTable(VARCHAR_DESC);
+        HeapFile string = createTable(STRING_DESC);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2000; i++) {
+            Database.getBufferPool().insertTuple(tid, varchar.getId(), tuple(VARCHAR_DESC, i, "name" + i));
+            Database.getBufferPool().insertTuple(tid, string.getId(), tuple(STRING_DESC, i, "name" + i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        System.out.println("VarcharTest: 2000 short strings take " + varchar.numPages() + " varchar pages, "
+                + string.numPages() + " string pages");
+        assertTrue(varchar.numPages() * 6 <= string.numPages());
+
+        Map<Integer, String> rows = scan(varchar);
+        assertEquals(2000, rows.size());
+        for (int i = 0; i < 2000; i++) {
+            assertEquals("name" + i, rows.get(i));
+        }
+    }
+
+    @Test public void testPageFillsToTheEnd() throws Exception {
+        HeapFile f = createTable(VARCHAR_DESC);
+        HeapPage page = new HeapPage(new HeapPageId(f.getId(), 0), HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.getNumEmptySlots() > 0) {
+            page.insertTuple(tuple(VARCHAR_DESC, n, name(n)));
+            n++;
+        }
+        // a short tuple still fits after the count dropped to 0, until the page is really full
+        try {
+            while (true) {
+                page.insertTuple(tuple(VARCHAR_DESC, n, ""));
+                n++;
+            }
+        } catch (DbException expected) {
+            // full
+        }
+        // records of at most 32 bytes plus a 4-byte slot entry each
+        assertTrue(n >= BufferPool.getPageSize() / 40);
+
+        // the page reads back the same from its bytes
+        HeapPage copy = new HeapPage(page.getId(), page.getPageData());
+        assertEquals(0, copy.getNumEmptySlots());
+        Iterator<Tuple> a = page.iterator();
+        Iterator<Tuple> b = copy.iterator();
+        while (a.hasNext()) {
+            assertEquals(a.next().toString(), b.next().toString());
+        }
+        assertFalse(b.hasNext());
+    }
+
+    @Test public void testDeleteCompactsAndReusesSlots() throws Exception {
+        HeapFile f = createTable(VARCHAR_DESC);
+        HeapPage page = new HeapPage(new HeapPageId(f.getId(), 0), HeapPage.createEmptyPageData());
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; page.getNumEmptySlots() > 0; i++) {
+            Tuple t = tuple(VARCHAR_DESC, i, name(i));
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+        // delete every other tuple, then write and read the page: the freed bytes are reclaimed
+        page = new HeapPage(page.getId(), page.getPageData());
+        Iterator<Tuple> it = page.iterator();
+        List<Integer> kept = new ArrayList<>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            if (id % 2 == 0) {
+                page.deleteTuple(t);
+            } else {
+                kept.add(id);
+            }
+        }
+        page = new HeapPage(page.getId(), page.getPageData());
+        assertTrue(page.getNumEmptySlots() > 0);
+
+        // the deleted tuples fit again, in the freed slots, and the kept ones keep their record ids
+        for (int id = 0; id < tuples.size(); id += 2) {
+            Tuple t = tuple(VARCHAR_DESC, -id, name(id));
+            page.insertTuple(t);
+            assertEquals(id, t.getRecordId().getTupleNumber());
+        }
+        page = new HeapPage(page.getId(), page.getPageData());
+        for (int id = 0; id < tuples.size(); id++) {
+            assertEquals(id % 2 == 0 ? -id : id, ((IntField) page.getField(id, 0)).getValue());
+            assertEquals(name(id), ((StringField) page.getField(id, 1)).getValue());
+        }
+        assertEquals(tuples.size() / 2, kept.size());
+    }
+
+    @Test public void testAbortAndFreeSpaceMap() throws Exception {
+        HeapFile f = createTable(VARCHAR_DESC);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 500; i++) {
+            Database.getBufferPool().insertTuple(tid, f.getId(), tuple(VARCHAR_DESC, i, name(i)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        for (int i = 500; i < 600; i++) {
+            Database.getBufferPool().insertTuple(tid, f.getId(), tuple(VARCHAR_DESC, i, name(i)));
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+        Map<Integer, String> rows = scan(f);
+        assertEquals(500, rows.size());
+        for (int i = 0; i < 500; i++) {
+            assertEquals(name(i), rows.get(i));
+        }
+
+        // the rebuilt free-space map agrees with the pages
+        f.rebuildFreeSpaceMap();
+        tid = new TransactionId();
+        for (int i = 0; i < f.numPages(); i++) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(f.getId(), i),
+                    Permissions.READ_ONLY);
+            assertEquals(Math.min(255, page.getNumEmptySlots()), f.getFreeSpaceMap().get(i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testCatalogAndEncoder() throws Exception {
+        File dir = File.createTempFile("varchar", ".txt").getParentFile();
+        String table = "varchartable" + System.nanoTime();
+        File text = new File(dir, table + ".txt");
+        File data = new File(dir, table + ".dat");
+        File catalog = new File(dir, table + ".catalog");
+        for (File f : new File[] {text, data, catalog, new File(data.getPath() + ".alloc"),
+                new File(data.getPath() + ".fsm")}) {
+            f.deleteOnExit();
+        }
+        try (FileWriter w = new FileWriter(text)) {
+            for (int i = 0; i < 1000; i++) {
+                w.write(i + "," + name(i) + "," + (i % 7 == 0 ? "seven" : "other") + "\n");
+            }
+        }
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 3,
+                new Type[] {Type.INT_TYPE, Type.VARCHAR_TYPE, Type.VARCHAR_TYPE});
+        try (FileWriter w = new FileWriter(catalog)) {
+            w.write(table + " (id int, name varchar, kind varchar)\n");
+        }
+        Database.getCatalog().loadSchema(catalog.getPath());
+        int tableId = Database.getCatalog().getTableId(table);
+        assertEquals(Type.VARCHAR_TYPE, Database.getCatalog().getTupleDesc(tableId).getFieldType(1));
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, tableId, "t");
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(name(((IntField) t.getField(0)).getValue()), ((StringField) t.getField(1)).getValue());
+            n++;
+        }
+        scan.close();
+        assertEquals(1000, n);
+
+        // group by a varchar column
+        Aggregate count = new Aggregate(new SeqScan(tid, tableId, "t"), 0, 2, Aggregator.Op.COUNT);
+        count.open();
+        Map<String, Integer> groups = new HashMap<>();
+        while (count.hasNext()) {
+            Tuple t = count.next();
+            groups.put(t.getField(0).toString(), ((IntField) t.getField(1)).getValue());
+        }
+        count.close();
+        assertEquals(Integer.valueOf(143), groups.get("seven"));
+        assertEquals(Integer.valueOf(857), groups.get("other"));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(VarcharTest.class);
+    }
+}